@@ -0,0 +1,94 @@
+package com.google.ads.interactivemedia.v3.samples.samplevideoplayer;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the app's audio focus for the players that are playing, and forwards focus changes to
+ * them. Focus is requested with one listener shared by all players, so a player that starts doesn't
+ * take the focus from another one of the app's players, as a separate request would.
+ */
+final class AudioFocusHolder implements AudioManager.OnAudioFocusChangeListener {
+
+  // How long the focus is kept once no player holds it, so switching players, such as from content
+  // to an ad that still has to prepare, doesn't give other apps' audio the focus in between.
+  private static final long ABANDON_DELAY_MS = 1000;
+
+  private static AudioFocusHolder sInstance;
+
+  private final AudioManager mAudioManager;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  // Players holding the focus, which are told when it changes.
+  private final List<AudioManager.OnAudioFocusChangeListener> mHolders =
+      new ArrayList<AudioManager.OnAudioFocusChangeListener>(2);
+
+  private boolean mHasFocus;
+
+  private final Runnable mAbandon =
+      new Runnable() {
+        @Override
+        @SuppressWarnings("deprecation")
+        public void run() {
+          if (mAudioManager != null) {
+            mAudioManager.abandonAudioFocus(AudioFocusHolder.this);
+          }
+          mHasFocus = false;
+        }
+      };
+
+  private AudioFocusHolder(Context context) {
+    mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+  }
+
+  /** Returns the shared holder. Main thread only. */
+  static AudioFocusHolder get(Context context) {
+    if (sInstance == null) {
+      sInstance = new AudioFocusHolder(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  /**
+   * Requests media audio focus for a player about to play, unless the app already holds it. The
+   * player is told of focus changes until it abandons the focus. Main thread only.
+   */
+  @SuppressWarnings("deprecation")
+  void request(AudioManager.OnAudioFocusChangeListener holder) {
+    mHandler.removeCallbacks(mAbandon);
+    if (!mHolders.contains(holder)) {
+      mHolders.add(holder);
+    }
+    if (!mHasFocus && mAudioManager != null) {
+      // As with VideoView, the player plays even if the focus is denied, such as during a call.
+      mHasFocus =
+          mAudioManager.requestAudioFocus(
+                  this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN)
+              == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+    }
+  }
+
+  /**
+   * Stops telling the player of focus changes, and abandons the focus shortly after no player holds
+   * it anymore. Main thread only.
+   */
+  void abandon(AudioManager.OnAudioFocusChangeListener holder) {
+    if (mHolders.remove(holder) && mHolders.isEmpty()) {
+      mHandler.postDelayed(mAbandon, ABANDON_DELAY_MS);
+    }
+  }
+
+  @Override
+  public void onAudioFocusChange(int focusChange) {
+    mHasFocus = focusChange == AudioManager.AUDIOFOCUS_GAIN;
+    // A player may abandon the focus while it is told of the change.
+    for (AudioManager.OnAudioFocusChangeListener holder :
+        new ArrayList<AudioManager.OnAudioFocusChangeListener>(mHolders)) {
+      holder.onAudioFocusChange(focusChange);
+    }
+  }
+}
@@ -0,0 +1,508 @@
+package com.google.ads.interactivemedia.v3.samples.samplevideoplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SurfaceView;
+import android.widget.MediaController;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SeekParameters;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.ProgressiveMediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A VideoPlayer backed by ExoPlayer, rendering into this SurfaceView. DASH and HLS URLs are played
+ * as adaptive streams, anything else as a progressive download. One ExoPlayer is kept until
+ * {@link #release} is called, so loading the next video reuses its threads, renderers and buffers
+ * instead of rebuilding them.
+ *
+ * <p>Each ExoVideoPlayer has its own ExoPlayer, as ExoPlayer can't share its renderers or its
+ * LoadControl with another player. Ads and content only share an ExoPlayer when they play on the
+ * same view. Every other view, such as one preloading the next ad, adds a playback thread,
+ * decoders and a buffer of its own.
+ *
+ * <p>Playback progress is pushed to PlaybackListeners, with position updates only scheduled while
+ * the video plays.
+ */
+public class ExoVideoPlayer extends SurfaceView implements PlaybackReportingVideoPlayer {
+
+  private enum PlaybackState {
+    STOPPED,
+    PAUSED,
+    PLAYING
+  }
+
+  private SimpleExoPlayer mPlayer;
+  private LoadControl mLoadControl;
+  private DataSource.Factory mDataSourceFactory;
+  private MediaController mMediaController;
+  private boolean mPlaybackControlsEnabled = true;
+  private PlaybackState mPlaybackState = PlaybackState.STOPPED;
+
+  // Provides the media volume while the player is attached to a window.
+  private MediaVolumeObserver mVolumeObserver;
+
+  // Whether onPrepared has been sent for the current video.
+  private boolean mPrepared;
+
+  // Whether playback of the prepared video has stalled to buffer.
+  private boolean mBuffering;
+
+  // Whether a seek finished before the video was prepared, so it is reported once prepared.
+  private boolean mSeekCompletedBeforePrepared;
+
+  // The last buffered position sent to the listeners.
+  private int mBufferedPositionMs;
+
+  private final List<PlayerCallback> mVideoPlayerCallbacks = new ArrayList<PlayerCallback>(1);
+
+  // Listeners for playback progress, and the update period each of them requested.
+  private final List<PlaybackListener> mPlaybackListeners = new ArrayList<PlaybackListener>(1);
+  private final List<Integer> mUpdatePeriodsMs = new ArrayList<Integer>(1);
+  private int mUpdatePeriodMs;
+
+  private final Player.EventListener mEventListener =
+      new Player.EventListener() {
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+          if (playbackState == Player.STATE_READY && !mPrepared) {
+            onCurrentPrepared();
+          } else if (playbackState == Player.STATE_BUFFERING && mPrepared && !mBuffering) {
+            mBuffering = true;
+            for (PlaybackListener listener : mPlaybackListeners) {
+              listener.onBufferingStart();
+            }
+          } else if (playbackState == Player.STATE_READY && mBuffering) {
+            mBuffering = false;
+            for (PlaybackListener listener : mPlaybackListeners) {
+              listener.onBufferingEnd();
+            }
+          } else if (playbackState == Player.STATE_ENDED
+              && mPlaybackState != PlaybackState.STOPPED) {
+            mPlaybackState = PlaybackState.STOPPED;
+            mBuffering = false;
+            removeCallbacks(mPositionUpdate);
+            for (PlayerCallback callback : mVideoPlayerCallbacks) {
+              callback.onCompleted();
+            }
+          }
+        }
+
+        @Override
+        public void onSeekProcessed() {
+          if (mPlayer == null) {
+            return;
+          }
+          if (!mPrepared) {
+            mSeekCompletedBeforePrepared = true;
+            return;
+          }
+          int positionMs = (int) mPlayer.getCurrentPosition();
+          for (PlaybackListener listener : mPlaybackListeners) {
+            listener.onSeekCompleted(positionMs);
+          }
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+          mPlaybackState = PlaybackState.STOPPED;
+          mBuffering = false;
+          removeCallbacks(mPositionUpdate);
+          for (PlayerCallback callback : mVideoPlayerCallbacks) {
+            callback.onError();
+          }
+        }
+      };
+
+  // Sends position updates while the current video plays.
+  private final Runnable mPositionUpdate =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (mPlayer == null || mPlaybackState != PlaybackState.PLAYING) {
+            return;
+          }
+          if (mPrepared) {
+            notifyPosition();
+          }
+          postDelayed(this, mUpdatePeriodMs);
+        }
+      };
+
+  public ExoVideoPlayer(Context context, AttributeSet attrs, int defStyle) {
+    super(context, attrs, defStyle);
+  }
+
+  public ExoVideoPlayer(Context context, AttributeSet attrs) {
+    super(context, attrs);
+  }
+
+  public ExoVideoPlayer(Context context) {
+    super(context);
+  }
+
+  /**
+   * Sets the LoadControl that decides how much media is buffered, for example a DefaultLoadControl
+   * with shorter buffers for faster startup. Call it before the first video, as it releases the
+   * current player. A LoadControl must not be shared between players.
+   */
+  public void setLoadControl(LoadControl loadControl) {
+    mLoadControl = loadControl;
+    releasePlayer();
+  }
+
+  /**
+   * Releases the ExoPlayer and the threads and decoders it holds, once the view won't play anything
+   * for a while. Detaching the view doesn't release it, so a view attached again keeps its player.
+   * A new ExoPlayer is created if the view is used after being released.
+   */
+  public void release() {
+    releasePlayer();
+  }
+
+  private SimpleExoPlayer getPlayer() {
+    if (mPlayer == null) {
+      Context context = getContext();
+      mPlayer =
+          new SimpleExoPlayer.Builder(context, new DefaultRenderersFactory(context))
+              .setTrackSelector(new DefaultTrackSelector(context))
+              .setLoadControl(mLoadControl != null ? mLoadControl : new DefaultLoadControl())
+              .build();
+      mPlayer.setVideoSurfaceView(this);
+      mPlayer.addListener(mEventListener);
+      mDataSourceFactory =
+          new DefaultDataSourceFactory(context, Util.getUserAgent(context, "ImaExample"));
+    }
+    return mPlayer;
+  }
+
+  private void releasePlayer() {
+    if (mPlayer != null) {
+      mPlayer.removeListener(mEventListener);
+      mPlayer.release();
+      mPlayer = null;
+    }
+    mPlaybackState = PlaybackState.STOPPED;
+    clearVideoState();
+  }
+
+  private void clearVideoState() {
+    mPrepared = false;
+    mBuffering = false;
+    mSeekCompletedBeforePrepared = false;
+    mBufferedPositionMs = 0;
+    removeCallbacks(mPositionUpdate);
+  }
+
+  private void onCurrentPrepared() {
+    mPrepared = true;
+    int durationMs = getDuration();
+    for (PlaybackListener listener : mPlaybackListeners) {
+      listener.onPrepared(durationMs);
+    }
+    if (mSeekCompletedBeforePrepared && mPlayer != null) {
+      mSeekCompletedBeforePrepared = false;
+      int positionMs = (int) mPlayer.getCurrentPosition();
+      for (PlaybackListener listener : mPlaybackListeners) {
+        listener.onSeekCompleted(positionMs);
+      }
+    }
+  }
+
+  private void schedulePositionUpdate() {
+    removeCallbacks(mPositionUpdate);
+    if (!mPlaybackListeners.isEmpty()) {
+      postDelayed(mPositionUpdate, mUpdatePeriodMs);
+    }
+  }
+
+  private void notifyPosition() {
+    int positionMs = (int) mPlayer.getCurrentPosition();
+    int durationMs = getDuration();
+    for (PlaybackListener listener : mPlaybackListeners) {
+      listener.onPositionUpdate(positionMs, durationMs);
+    }
+    // ExoPlayer has no event for buffering progress, so it is sampled with the position.
+    int bufferedPositionMs = (int) mPlayer.getBufferedPosition();
+    if (bufferedPositionMs != mBufferedPositionMs) {
+      mBufferedPositionMs = bufferedPositionMs;
+      for (PlaybackListener listener : mPlaybackListeners) {
+        listener.onBufferedPositionUpdate(bufferedPositionMs);
+      }
+    }
+  }
+
+  private MediaSource buildMediaSource(Uri uri) {
+    switch (Util.inferContentType(uri)) {
+      case C.TYPE_DASH:
+        return new DashMediaSource.Factory(mDataSourceFactory).createMediaSource(uri);
+      case C.TYPE_HLS:
+        return new HlsMediaSource.Factory(mDataSourceFactory).createMediaSource(uri);
+      default:
+        return new ProgressiveMediaSource.Factory(mDataSourceFactory).createMediaSource(uri);
+    }
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    mVolumeObserver = MediaVolumeObserver.acquire(getContext());
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    if (mMediaController != null) {
+      mMediaController.hide();
+    }
+    if (mVolumeObserver != null) {
+      mVolumeObserver.release();
+      mVolumeObserver = null;
+    }
+    // The player is kept for when the view is attached again, until release() is called.
+    removeCallbacks(mPositionUpdate);
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    if (event.getAction() == MotionEvent.ACTION_DOWN
+        && mPlaybackControlsEnabled
+        && mPlaybackState != PlaybackState.STOPPED) {
+      getMediaController().show();
+    }
+    return super.onTouchEvent(event);
+  }
+
+  private MediaController getMediaController() {
+    if (mMediaController == null) {
+      mMediaController = new MediaController(getContext());
+      mMediaController.setAnchorView(this);
+      mMediaController.setMediaPlayer(
+          new MediaController.MediaPlayerControl() {
+            @Override
+            public void start() {
+              resume();
+            }
+
+            @Override
+            public void pause() {
+              ExoVideoPlayer.this.pause();
+            }
+
+            @Override
+            public int getDuration() {
+              return ExoVideoPlayer.this.getDuration();
+            }
+
+            @Override
+            public int getCurrentPosition() {
+              return ExoVideoPlayer.this.getCurrentPosition();
+            }
+
+            @Override
+            public void seekTo(int pos) {
+              ExoVideoPlayer.this.seekTo(pos);
+            }
+
+            @Override
+            public boolean isPlaying() {
+              return mPlaybackState == PlaybackState.PLAYING;
+            }
+
+            @Override
+            public int getBufferPercentage() {
+              return mPlayer != null ? mPlayer.getBufferedPercentage() : 0;
+            }
+
+            @Override
+            public boolean canPause() {
+              return true;
+            }
+
+            @Override
+            public boolean canSeekBackward() {
+              return true;
+            }
+
+            @Override
+            public boolean canSeekForward() {
+              return true;
+            }
+
+            @Override
+            public int getAudioSessionId() {
+              return mPlayer != null ? mPlayer.getAudioSessionId() : 0;
+            }
+          });
+    }
+    return mMediaController;
+  }
+
+  // Methods implementing the VideoPlayer interface.
+  @Override
+  public void play() {
+    getPlayer().setPlayWhenReady(true);
+    for (PlayerCallback callback : mVideoPlayerCallbacks) {
+      callback.onPlay();
+    }
+    mPlaybackState = PlaybackState.PLAYING;
+    schedulePositionUpdate();
+  }
+
+  @Override
+  public void resume() {
+    getPlayer().setPlayWhenReady(true);
+    for (PlayerCallback callback : mVideoPlayerCallbacks) {
+      callback.onResume();
+    }
+    mPlaybackState = PlaybackState.PLAYING;
+    schedulePositionUpdate();
+  }
+
+  @Override
+  public void pause() {
+    if (mPlayer != null) {
+      mPlayer.setPlayWhenReady(false);
+    }
+    mPlaybackState = PlaybackState.PAUSED;
+    removeCallbacks(mPositionUpdate);
+    for (PlayerCallback callback : mVideoPlayerCallbacks) {
+      callback.onPause();
+    }
+  }
+
+  @Override
+  public int getCurrentPosition() {
+    return mPlayer != null ? (int) mPlayer.getCurrentPosition() : 0;
+  }
+
+  @Override
+  public void seekTo(int videoPosition) {
+    seekTo(videoPosition, SeekMode.EXACT);
+  }
+
+  @Override
+  public void seekTo(int videoPosition, SeekMode seekMode) {
+    SimpleExoPlayer player = getPlayer();
+    switch (seekMode) {
+      case CLOSEST_SYNC:
+        player.setSeekParameters(SeekParameters.CLOSEST_SYNC);
+        break;
+      case PREVIOUS_SYNC:
+        player.setSeekParameters(SeekParameters.PREVIOUS_SYNC);
+        break;
+      default:
+        player.setSeekParameters(SeekParameters.EXACT);
+        break;
+    }
+    player.seekTo(videoPosition);
+  }
+
+  @Override
+  public int getDuration() {
+    if (mPlayer == null || mPlaybackState == PlaybackState.STOPPED) {
+      return 0;
+    }
+    long durationMs = mPlayer.getDuration();
+    return durationMs == C.TIME_UNSET ? 0 : (int) durationMs;
+  }
+
+  @Override
+  public int getVolume() {
+    if (mVolumeObserver != null) {
+      return mVolumeObserver.getVolume();
+    }
+    return MediaVolumeObserver.readVolume(getContext());
+  }
+
+  @Override
+  public void stopPlayback() {
+    if (mPlaybackState == PlaybackState.STOPPED && !mPrepared) {
+      return;
+    }
+    // Stopping keeps the player and its renderers for the next video.
+    if (mPlayer != null) {
+      mPlayer.stop(true);
+    }
+    mPlaybackState = PlaybackState.STOPPED;
+    clearVideoState();
+  }
+
+  @Override
+  public void disablePlaybackControls() {
+    mPlaybackControlsEnabled = false;
+    if (mMediaController != null) {
+      mMediaController.hide();
+    }
+  }
+
+  @Override
+  public void enablePlaybackControls() {
+    mPlaybackControlsEnabled = true;
+  }
+
+  @Override
+  public void setVideoPath(String videoUrl) {
+    SimpleExoPlayer player = getPlayer();
+    clearVideoState();
+    player.setPlayWhenReady(false);
+    player.prepare(buildMediaSource(Uri.parse(videoUrl)));
+    mPlaybackState = PlaybackState.PAUSED;
+  }
+
+  @Override
+  public void addPlayerCallback(PlayerCallback callback) {
+    mVideoPlayerCallbacks.add(callback);
+  }
+
+  @Override
+  public void removePlayerCallback(PlayerCallback callback) {
+    mVideoPlayerCallbacks.remove(callback);
+  }
+
+  // Methods implementing the PlaybackReportingVideoPlayer interface.
+  @Override
+  public void addPlaybackListener(PlaybackListener listener, int updatePeriodMs) {
+    mPlaybackListeners.add(listener);
+    mUpdatePeriodsMs.add(Math.max(updatePeriodMs, 1));
+    updatePeriod();
+  }
+
+  @Override
+  public void removePlaybackListener(PlaybackListener listener) {
+    int index = mPlaybackListeners.indexOf(listener);
+    if (index < 0) {
+      return;
+    }
+    mPlaybackListeners.remove(index);
+    mUpdatePeriodsMs.remove(index);
+    updatePeriod();
+  }
+
+  private void updatePeriod() {
+    mUpdatePeriodMs = Integer.MAX_VALUE;
+    for (int updatePeriodMs : mUpdatePeriodsMs) {
+      mUpdatePeriodMs = Math.min(mUpdatePeriodMs, updatePeriodMs);
+    }
+    if (mPlaybackState == PlaybackState.PLAYING) {
+      schedulePositionUpdate();
+    } else {
+      removeCallbacks(mPositionUpdate);
+    }
+  }
+}
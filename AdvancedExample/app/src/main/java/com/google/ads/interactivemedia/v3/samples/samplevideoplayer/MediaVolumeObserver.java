@@ -0,0 +1,86 @@
+package com.google.ads.interactivemedia.v3.samples.samplevideoplayer;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+
+/**
+ * Caches the media volume so players can report it without asking the audio service every time.
+ * The volume is read again only when the system settings change, which they do whenever a stream
+ * volume is changed. One observer is shared by all players that are attached to a window.
+ */
+final class MediaVolumeObserver extends ContentObserver {
+
+  private static MediaVolumeObserver sInstance;
+
+  private final Context mContext;
+  private final AudioManager mAudioManager;
+
+  // Number of players using this observer.
+  private int mUserCount;
+
+  // Media volume in the range 0-100, written on the main thread.
+  private volatile int mVolume;
+
+  private MediaVolumeObserver(Context context) {
+    super(new Handler(Looper.getMainLooper()));
+    mContext = context;
+    mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+  }
+
+  /** Returns the shared observer, starting to observe the volume if needed. Main thread only. */
+  static MediaVolumeObserver acquire(Context context) {
+    if (sInstance == null) {
+      sInstance = new MediaVolumeObserver(context.getApplicationContext());
+    }
+    if (sInstance.mUserCount++ == 0) {
+      sInstance.mContext
+          .getContentResolver()
+          .registerContentObserver(Settings.System.CONTENT_URI, true, sInstance);
+      sInstance.update();
+    }
+    return sInstance;
+  }
+
+  /** Stops observing the volume once no player uses the observer. Main thread only. */
+  void release() {
+    if (mUserCount > 0 && --mUserCount == 0) {
+      mContext.getContentResolver().unregisterContentObserver(this);
+    }
+  }
+
+  /** Returns the cached media volume in the range 0-100. */
+  int getVolume() {
+    return mVolume;
+  }
+
+  @Override
+  public void onChange(boolean selfChange) {
+    update();
+  }
+
+  private void update() {
+    mVolume = readVolume(mAudioManager);
+  }
+
+  /** Reads the media volume from the audio service, for players without an observer. */
+  static int readVolume(Context context) {
+    return readVolume((AudioManager) context.getSystemService(Context.AUDIO_SERVICE));
+  }
+
+  private static int readVolume(AudioManager audioManager) {
+    if (audioManager != null) {
+      double volume = audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+      double max = audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+      if (max <= 0) {
+        return 0;
+      }
+      // Return a range from 0-100.
+      return (int) ((volume / max) * 100.0f);
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,46 @@
+package com.google.ads.interactivemedia.v3.samples.samplevideoplayer;
+
+/**
+ * Optional extension of VideoPlayer for players that push their playback progress, so consumers
+ * don't have to poll getCurrentPosition() and getDuration().
+ */
+public interface PlaybackReportingVideoPlayer extends VideoPlayer {
+
+  /** Interface for receiving the playback progress of the current video, on the main thread. */
+  public interface PlaybackListener {
+
+    /** Called when the current video has been prepared, with its duration in milliseconds. */
+    void onPrepared(int durationMs);
+
+    /**
+     * Called periodically while the current video plays, with its position and duration in
+     * milliseconds.
+     */
+    void onPositionUpdate(int positionMs, int durationMs);
+
+    /**
+     * Called once for each seek when it has completed, with the position it landed on in
+     * milliseconds. A seek the player skips, because the video is already there, is reported too.
+     */
+    void onSeekCompleted(int positionMs);
+
+    /** Called when more of the current video has been buffered, up to the given position. */
+    void onBufferedPositionUpdate(int bufferedPositionMs);
+
+    /** Called when playback stalls to buffer. */
+    void onBufferingStart();
+
+    /** Called when playback continues after buffering. */
+    void onBufferingEnd();
+  }
+
+  /**
+   * Provide the player with a listener for playback progress. Position updates are sent about
+   * every updatePeriodMs milliseconds while playing. With several listeners, all of them are
+   * updated at the shortest period requested.
+   */
+  void addPlaybackListener(PlaybackListener listener, int updatePeriodMs);
+
+  /** Remove a playback listener from getting notified of playback progress. */
+  void removePlaybackListener(PlaybackListener listener);
+}
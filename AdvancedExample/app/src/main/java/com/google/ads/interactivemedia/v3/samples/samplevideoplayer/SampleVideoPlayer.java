@@ -5,16 +5,42 @@ package com.google.ads.interactivemedia.v3.samples.samplevideoplayer;
 import android.content.Context;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
 import android.media.MediaPlayer.OnCompletionListener;
 import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.net.Uri;
+import android.os.Build;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.widget.MediaController;
-import android.widget.VideoView;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-/** A VideoView that intercepts various methods and reports them back via a PlayerCallback. */
-public class SampleVideoPlayer extends VideoView implements VideoPlayer {
+/**
+ * A SurfaceView that plays video on its own MediaPlayers and reports the major events back via a
+ * PlayerCallback.
+ *
+ * <p>The MediaPlayers are pooled. A finished or stopped player is reset and kept for the next
+ * video instead of being released, and {@link #queueVideoPath} prepares a video ahead of time on a
+ * spare player, which is promoted when that video is set. A finished video stays on screen until
+ * the next one replaces it, so switching between videos doesn't flash a black frame.
+ *
+ * <p>Playback progress is pushed to PlaybackListeners, with position updates only scheduled while
+ * the video plays.
+ *
+ * <p>Like VideoView, the player takes the audio focus when it starts playing, and pauses when
+ * another app takes it.
+ */
+public class SampleVideoPlayer extends SurfaceView
+    implements PlaybackReportingVideoPlayer, MediaController.MediaPlayerControl {
 
   private enum PlaybackState {
     STOPPED,
@@ -22,10 +48,64 @@ public class SampleVideoPlayer extends VideoView implements VideoPlayer {
     PLAYING
   }
 
+  private static final String TAG = "SampleVideoPlayer";
+
+  // Most reset MediaPlayers kept for reuse, besides the current and queued ones.
+  private static final int MAX_IDLE_PLAYERS = 1;
+
+  // Volume played at while another app's audio briefly plays over ours.
+  private static final float DUCKED_VOLUME = 0.2f;
+
   private MediaController mMediaController;
+  private boolean mPlaybackControlsEnabled = true;
   private PlaybackState mPlaybackState;
+
+  // Provides the media volume while the player is attached to a window.
+  private MediaVolumeObserver mVolumeObserver;
+
+  // Holds the audio focus from when playback starts until it is stopped or completes, like
+  // VideoView does. Playback pauses when the focus is lost, and after a transient loss it resumes
+  // once the focus is back.
+  private AudioFocusHolder mAudioFocus;
+  private boolean mResumeOnFocusGain;
+  private boolean mDucked;
+
   private final List<PlayerCallback> mVideoPlayerCallbacks = new ArrayList<PlayerCallback>(1);
 
+  // Listeners for playback progress, and the update period each of them requested.
+  private final List<PlaybackListener> mPlaybackListeners = new ArrayList<PlaybackListener>(1);
+  private final List<Integer> mUpdatePeriodsMs = new ArrayList<Integer>(1);
+  private int mUpdatePeriodMs;
+
+  // The player of the current video, shown on the surface.
+  private MediaPlayer mCurrentPlayer;
+  private boolean mCurrentPrepared;
+  private boolean mCurrentCompleted;
+  private boolean mStartWhenPrepared;
+  private int mSeekWhenPreparedMs;
+  private SeekMode mSeekWhenPreparedMode = SeekMode.PREVIOUS_SYNC;
+  private int mBufferPercentage;
+  private int mDurationMs;
+
+  // Position the promoted player already seeks to from its queued start, so a seek there can be
+  // skipped. A skipped seek is still reported as completed, and if it was skipped before the
+  // player was prepared, that is done once it is.
+  private int mSeekDoneMs = -1;
+  private boolean mSeekSkippedWhenPrepared;
+
+  // The player preparing the queued video, and where that video starts.
+  private MediaPlayer mQueuedPlayer;
+  private String mQueuedUrl;
+  private boolean mQueuedPrepared;
+  private int mQueuedPositionMs;
+
+  // Reset players kept for reuse.
+  private final List<MediaPlayer> mIdlePlayers = new ArrayList<MediaPlayer>(MAX_IDLE_PLAYERS);
+
+  private SurfaceHolder mSurfaceHolder;
+  private int mVideoWidth;
+  private int mVideoHeight;
+
   public SampleVideoPlayer(Context context, AttributeSet attrs, int defStyle) {
     super(context, attrs, defStyle);
     init();
@@ -45,79 +125,491 @@ public class SampleVideoPlayer extends VideoView implements VideoPlayer {
     mPlaybackState = PlaybackState.STOPPED;
     mMediaController = new MediaController(getContext());
     mMediaController.setAnchorView(this);
+    mMediaController.setMediaPlayer(this);
+    mAudioFocus = AudioFocusHolder.get(getContext());
+    getHolder().addCallback(mSurfaceCallback);
+    setFocusable(true);
+    setFocusableInTouchMode(true);
+  }
+
+  private final SurfaceHolder.Callback mSurfaceCallback =
+      new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+          mSurfaceHolder = holder;
+          if (mCurrentPlayer != null) {
+            mCurrentPlayer.setDisplay(holder);
+          }
+        }
 
-    // Set OnCompletionListener to notify our callbacks when the video is completed.
-    super.setOnCompletionListener(
-        new OnCompletionListener() {
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {}
 
-          @Override
-          public void onCompletion(MediaPlayer mediaPlayer) {
-            // Reset the MediaPlayer.
-            mediaPlayer.reset();
-            mediaPlayer.setDisplay(getHolder());
-            mPlaybackState = PlaybackState.STOPPED;
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+          // The player keeps its media, so playback can continue once the surface is back.
+          mSurfaceHolder = null;
+          if (mCurrentPlayer != null) {
+            mCurrentPlayer.setDisplay(null);
+          }
+          mMediaController.hide();
+        }
+      };
 
-            for (PlayerCallback callback : mVideoPlayerCallbacks) {
-              callback.onCompleted();
+  // Notifies our callbacks when the current video is ready to play. A queued video only moves to
+  // its start position.
+  private final OnPreparedListener mPreparedListener =
+      new OnPreparedListener() {
+        @Override
+        public void onPrepared(MediaPlayer mediaPlayer) {
+          if (mediaPlayer == mQueuedPlayer) {
+            mQueuedPrepared = true;
+            if (mQueuedPositionMs > 0) {
+              mediaPlayer.seekTo(mQueuedPositionMs);
             }
+          } else if (mediaPlayer == mCurrentPlayer) {
+            onCurrentPrepared();
           }
-        });
+        }
+      };
 
-    // Set OnErrorListener to notify our callbacks if the video errors.
-    super.setOnErrorListener(
-        new OnErrorListener() {
+  // Notifies our callbacks when the current video is completed. The player keeps showing the last
+  // frame until the next video is set.
+  private final OnCompletionListener mCompletionListener =
+      new OnCompletionListener() {
+        @Override
+        public void onCompletion(MediaPlayer mediaPlayer) {
+          if (mediaPlayer != mCurrentPlayer) {
+            return;
+          }
+          mCurrentCompleted = true;
+          mPlaybackState = PlaybackState.STOPPED;
+          removeCallbacks(mPositionUpdate);
+          mAudioFocus.abandon(mAudioFocusChangeListener);
+          mMediaController.hide();
+          for (PlayerCallback callback : mVideoPlayerCallbacks) {
+            callback.onCompleted();
+          }
+        }
+      };
+
+  private final AudioManager.OnAudioFocusChangeListener mAudioFocusChangeListener =
+      new AudioManager.OnAudioFocusChangeListener() {
+        @Override
+        public void onAudioFocusChange(int focusChange) {
+          switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_LOSS:
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+              if (mPlaybackState == PlaybackState.PLAYING) {
+                // Pausing notifies the callbacks, so an ad is reported paused to IMA.
+                pause();
+                mResumeOnFocusGain = focusChange == AudioManager.AUDIOFOCUS_LOSS_TRANSIENT;
+              }
+              break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+              setDucked(true);
+              break;
+            case AudioManager.AUDIOFOCUS_GAIN:
+              setDucked(false);
+              if (mResumeOnFocusGain) {
+                resume();
+              }
+              break;
+            default:
+              break;
+          }
+        }
+      };
+
+  // Notifies our callbacks if the current video errors. A queued video that errors is dropped.
+  private final OnErrorListener mErrorListener =
+      new OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
+          Log.w(TAG, "MediaPlayer error " + what + ", " + extra);
+          if (mediaPlayer == mQueuedPlayer) {
+            clearQueuedPlayer();
+          } else if (mediaPlayer == mCurrentPlayer) {
+            notifyCurrentError();
+          }
+          // Returning true signals to MediaPlayer that we handled the error. This will
+          // prevent the completion handler from being called.
+          return true;
+        }
+      };
 
-          @Override
-          public boolean onError(MediaPlayer mp, int what, int extra) {
-            mPlaybackState = PlaybackState.STOPPED;
-            for (PlayerCallback callback : mVideoPlayerCallbacks) {
-              callback.onError();
+  private final OnVideoSizeChangedListener mVideoSizeChangedListener =
+      new OnVideoSizeChangedListener() {
+        @Override
+        public void onVideoSizeChanged(MediaPlayer mediaPlayer, int width, int height) {
+          if (mediaPlayer == mCurrentPlayer) {
+            setVideoSize(width, height);
+          }
+        }
+      };
+
+  private final OnBufferingUpdateListener mBufferingUpdateListener =
+      new OnBufferingUpdateListener() {
+        @Override
+        public void onBufferingUpdate(MediaPlayer mediaPlayer, int percent) {
+          if (mediaPlayer != mCurrentPlayer || percent == mBufferPercentage) {
+            return;
+          }
+          mBufferPercentage = percent;
+          if (mCurrentPrepared && mDurationMs > 0) {
+            int bufferedPositionMs = (int) ((long) mDurationMs * percent / 100);
+            for (PlaybackListener listener : mPlaybackListeners) {
+              listener.onBufferedPositionUpdate(bufferedPositionMs);
             }
+          }
+        }
+      };
 
-            // Returning true signals to MediaPlayer that we handled the error. This will
-            // prevent the completion handler from being called.
+  // Notifies our listeners when playback stalls to buffer and when it continues.
+  private final OnInfoListener mInfoListener =
+      new OnInfoListener() {
+        @Override
+        public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+          if (mediaPlayer != mCurrentPlayer) {
+            return false;
+          }
+          if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+            for (PlaybackListener listener : mPlaybackListeners) {
+              listener.onBufferingStart();
+            }
             return true;
+          } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+            for (PlaybackListener listener : mPlaybackListeners) {
+              listener.onBufferingEnd();
+            }
+            return true;
+          }
+          return false;
+        }
+      };
+
+  // Notifies our listeners of the position a seek landed on.
+  private final OnSeekCompleteListener mSeekCompleteListener =
+      new OnSeekCompleteListener() {
+        @Override
+        public void onSeekComplete(MediaPlayer mediaPlayer) {
+          if (mediaPlayer == mCurrentPlayer && mCurrentPrepared) {
+            int positionMs = mediaPlayer.getCurrentPosition();
+            for (PlaybackListener listener : mPlaybackListeners) {
+              listener.onSeekCompleted(positionMs);
+            }
           }
-        });
+        }
+      };
+
+  /**
+   * Starts preparing a video on a spare player, so setting it with {@link #setVideoPath} later
+   * doesn't wait for the data source to open and prepare. The queued video starts at the given
+   * position. Queueing another video replaces the queued one.
+   */
+  public void queueVideoPath(String videoUrl, int positionMs) {
+    if (videoUrl.equals(mQueuedUrl) && positionMs == mQueuedPositionMs) {
+      return;
+    }
+    clearQueuedPlayer();
+    MediaPlayer player = obtainPlayer();
+    try {
+      player.setDataSource(getContext(), Uri.parse(videoUrl));
+      player.prepareAsync();
+    } catch (IOException | IllegalStateException e) {
+      Log.w(TAG, "Unable to queue " + videoUrl, e);
+      recyclePlayer(player);
+      return;
+    }
+    mQueuedPlayer = player;
+    mQueuedUrl = videoUrl;
+    mQueuedPrepared = false;
+    mQueuedPositionMs = positionMs;
+  }
+
+  private MediaPlayer obtainPlayer() {
+    if (!mIdlePlayers.isEmpty()) {
+      return mIdlePlayers.remove(mIdlePlayers.size() - 1);
+    }
+    MediaPlayer player = new MediaPlayer();
+    player.setOnPreparedListener(mPreparedListener);
+    player.setOnCompletionListener(mCompletionListener);
+    player.setOnErrorListener(mErrorListener);
+    player.setOnVideoSizeChangedListener(mVideoSizeChangedListener);
+    player.setOnBufferingUpdateListener(mBufferingUpdateListener);
+    player.setOnInfoListener(mInfoListener);
+    player.setOnSeekCompleteListener(mSeekCompleteListener);
+    player.setScreenOnWhilePlaying(true);
+    return player;
+  }
+
+  /** Resets a player for reuse, or releases it if enough players are kept already. */
+  private void recyclePlayer(MediaPlayer player) {
+    player.reset();
+    if (mIdlePlayers.size() < MAX_IDLE_PLAYERS) {
+      mIdlePlayers.add(player);
+    } else {
+      player.release();
+    }
+  }
+
+  private void clearQueuedPlayer() {
+    if (mQueuedPlayer != null) {
+      recyclePlayer(mQueuedPlayer);
+      mQueuedPlayer = null;
+    }
+    mQueuedUrl = null;
+    mQueuedPrepared = false;
+    mQueuedPositionMs = 0;
+  }
+
+  private void clearCurrentPlayer() {
+    if (mCurrentPlayer != null) {
+      // Resetting disconnects the player from the surface, so the next player can connect.
+      recyclePlayer(mCurrentPlayer);
+      mCurrentPlayer = null;
+    }
+    mCurrentPrepared = false;
+    mCurrentCompleted = false;
+    mStartWhenPrepared = false;
+    mSeekWhenPreparedMs = 0;
+    mSeekWhenPreparedMode = SeekMode.PREVIOUS_SYNC;
+    mSeekDoneMs = -1;
+    mSeekSkippedWhenPrepared = false;
+    mBufferPercentage = 0;
+    mDurationMs = 0;
+    removeCallbacks(mPositionUpdate);
+    removeCallbacks(mSkippedSeekCompleted);
+    mMediaController.hide();
+  }
+
+  private void onCurrentPrepared() {
+    mCurrentPrepared = true;
+    mDurationMs = mCurrentPlayer.getDuration();
+    setVideoSize(mCurrentPlayer.getVideoWidth(), mCurrentPlayer.getVideoHeight());
+    if (mSeekWhenPreparedMs > 0) {
+      seekCurrentPlayer(mSeekWhenPreparedMs, mSeekWhenPreparedMode);
+      mSeekWhenPreparedMs = 0;
+    } else if (mSeekSkippedWhenPrepared) {
+      post(mSkippedSeekCompleted);
+    }
+    mSeekSkippedWhenPrepared = false;
+    for (PlaybackListener listener : mPlaybackListeners) {
+      listener.onPrepared(mDurationMs);
+    }
+    if (mStartWhenPrepared && mCurrentPlayer != null) {
+      mStartWhenPrepared = false;
+      startPreparedPlayer();
+    }
+  }
+
+  // Reports a seek that was skipped, as the current player is already at its position.
+  private final Runnable mSkippedSeekCompleted =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (!mCurrentPrepared) {
+            return;
+          }
+          int positionMs = mCurrentPlayer.getCurrentPosition();
+          for (PlaybackListener listener : mPlaybackListeners) {
+            listener.onSeekCompleted(positionMs);
+          }
+        }
+      };
+
+  // Sends position updates while the current video plays.
+  private final Runnable mPositionUpdate =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (!isPlaying()) {
+            return;
+          }
+          notifyPosition();
+          postDelayed(this, mUpdatePeriodMs);
+        }
+      };
+
+  private void schedulePositionUpdate() {
+    removeCallbacks(mPositionUpdate);
+    if (!mPlaybackListeners.isEmpty()) {
+      postDelayed(mPositionUpdate, mUpdatePeriodMs);
+    }
+  }
+
+  private void notifyPosition() {
+    int positionMs = mCurrentPlayer.getCurrentPosition();
+    for (PlaybackListener listener : mPlaybackListeners) {
+      listener.onPositionUpdate(positionMs, mDurationMs);
+    }
+  }
+
+  private void notifyCurrentError() {
+    mPlaybackState = PlaybackState.STOPPED;
+    mStartWhenPrepared = false;
+    removeCallbacks(mPositionUpdate);
+    mAudioFocus.abandon(mAudioFocusChangeListener);
+    mMediaController.hide();
+    for (PlayerCallback callback : mVideoPlayerCallbacks) {
+      callback.onError();
+    }
+  }
+
+  private void setVideoSize(int width, int height) {
+    if (width == mVideoWidth && height == mVideoHeight) {
+      return;
+    }
+    mVideoWidth = width;
+    mVideoHeight = height;
+    if (width > 0 && height > 0) {
+      getHolder().setFixedSize(width, height);
+    }
+    requestLayout();
+  }
+
+  @Override
+  protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    // Fit the video's aspect ratio into the available space, like VideoView does.
+    int width = getDefaultSize(mVideoWidth, widthMeasureSpec);
+    int height = getDefaultSize(mVideoHeight, heightMeasureSpec);
+    if (mVideoWidth > 0 && mVideoHeight > 0) {
+      int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+      int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+      int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+      int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+      if (widthMode == MeasureSpec.EXACTLY && heightMode == MeasureSpec.EXACTLY) {
+        width = widthSize;
+        height = heightSize;
+        if (mVideoWidth * height < width * mVideoHeight) {
+          width = height * mVideoWidth / mVideoHeight;
+        } else if (mVideoWidth * height > width * mVideoHeight) {
+          height = width * mVideoHeight / mVideoWidth;
+        }
+      } else if (widthMode == MeasureSpec.EXACTLY) {
+        width = widthSize;
+        height = width * mVideoHeight / mVideoWidth;
+        if (heightMode == MeasureSpec.AT_MOST && height > heightSize) {
+          height = heightSize;
+        }
+      } else if (heightMode == MeasureSpec.EXACTLY) {
+        height = heightSize;
+        width = height * mVideoWidth / mVideoHeight;
+        if (widthMode == MeasureSpec.AT_MOST && width > widthSize) {
+          width = widthSize;
+        }
+      } else {
+        width = mVideoWidth;
+        height = mVideoHeight;
+        if (heightMode == MeasureSpec.AT_MOST && height > heightSize) {
+          height = heightSize;
+          width = height * mVideoWidth / mVideoHeight;
+        }
+        if (widthMode == MeasureSpec.AT_MOST && width > widthSize) {
+          width = widthSize;
+          height = width * mVideoHeight / mVideoWidth;
+        }
+      }
+    }
+    setMeasuredDimension(width, height);
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    if (event.getAction() == MotionEvent.ACTION_DOWN
+        && mPlaybackControlsEnabled
+        && mCurrentPrepared
+        && !mCurrentCompleted) {
+      if (mMediaController.isShowing()) {
+        mMediaController.hide();
+      } else {
+        mMediaController.show();
+      }
+    }
+    return super.onTouchEvent(event);
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    mVolumeObserver = MediaVolumeObserver.acquire(getContext());
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    if (mVolumeObserver != null) {
+      mVolumeObserver.release();
+      mVolumeObserver = null;
+    }
+    // Nothing can be shown once detached, so every pooled player is released.
+    clearCurrentPlayer();
+    clearQueuedPlayer();
+    for (MediaPlayer player : mIdlePlayers) {
+      player.release();
+    }
+    mIdlePlayers.clear();
+    mPlaybackState = PlaybackState.STOPPED;
+    mResumeOnFocusGain = false;
+    mAudioFocus.abandon(mAudioFocusChangeListener);
   }
 
   @Override
   public int getDuration() {
-    return mPlaybackState == PlaybackState.STOPPED ? 0 : super.getDuration();
+    if (mPlaybackState == PlaybackState.STOPPED) {
+      return 0;
+    }
+    return mCurrentPrepared ? mCurrentPlayer.getDuration() : -1;
   }
 
   @Override
   public int getVolume() {
-    // Get the system's audio service and get media volume from it.
-    AudioManager audioManager = (AudioManager) getContext().getSystemService(Context.AUDIO_SERVICE);
-    if (audioManager != null) {
-      double volume = audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
-      double max = audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
-      if (max <= 0) {
-        return 0;
-      }
-      // Return a range from 0-100.
-      return (int) ((volume / max) * 100.0f);
+    if (mVolumeObserver != null) {
+      return mVolumeObserver.getVolume();
     }
-    return 0;
+    return MediaVolumeObserver.readVolume(getContext());
+  }
+
+  // Methods implementing the MediaPlayerControl interface, for the media controller.
+  @Override
+  public void start() {
+    resume();
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return mCurrentPrepared && mCurrentPlayer.isPlaying();
+  }
+
+  @Override
+  public int getBufferPercentage() {
+    return mCurrentPlayer != null ? mBufferPercentage : 0;
+  }
+
+  @Override
+  public boolean canPause() {
+    return true;
   }
 
   @Override
-  public void setOnCompletionListener(OnCompletionListener listener) {
-    // The OnCompletionListener can only be implemented by SampleVideoPlayer.
-    throw new UnsupportedOperationException();
+  public boolean canSeekBackward() {
+    return true;
   }
 
   @Override
-  public void setOnErrorListener(OnErrorListener listener) {
-    // The OnErrorListener can only be implemented by SampleVideoPlayer.
-    throw new UnsupportedOperationException();
+  public boolean canSeekForward() {
+    return true;
+  }
+
+  @Override
+  public int getAudioSessionId() {
+    return mCurrentPlayer != null ? mCurrentPlayer.getAudioSessionId() : 0;
   }
 
   // Methods implementing the VideoPlayer interface.
   @Override
   public void play() {
-    super.start();
+    startCurrentPlayer();
     for (PlayerCallback callback : mVideoPlayerCallbacks) {
       callback.onPlay();
     }
@@ -126,39 +618,186 @@ public class SampleVideoPlayer extends VideoView implements VideoPlayer {
 
   @Override
   public void resume() {
-    super.start();
+    startCurrentPlayer();
     for (PlayerCallback callback : mVideoPlayerCallbacks) {
       callback.onResume();
     }
     mPlaybackState = PlaybackState.PLAYING;
   }
 
+  private void startCurrentPlayer() {
+    mSeekDoneMs = -1;
+    mResumeOnFocusGain = false;
+    if (mCurrentPlayer == null) {
+      return;
+    }
+    // Starting a finished video plays it again from the beginning, as MediaPlayer does.
+    mCurrentCompleted = false;
+    mAudioFocus.request(mAudioFocusChangeListener);
+    if (mCurrentPrepared) {
+      startPreparedPlayer();
+    } else {
+      mStartWhenPrepared = true;
+    }
+  }
+
+  private void startPreparedPlayer() {
+    float volume = mDucked ? DUCKED_VOLUME : 1f;
+    mCurrentPlayer.setVolume(volume, volume);
+    mCurrentPlayer.start();
+    schedulePositionUpdate();
+  }
+
+  private void setDucked(boolean ducked) {
+    mDucked = ducked;
+    if (mCurrentPrepared) {
+      float volume = ducked ? DUCKED_VOLUME : 1f;
+      mCurrentPlayer.setVolume(volume, volume);
+    }
+  }
+
   @Override
   public void pause() {
-    super.pause();
+    if (mCurrentPrepared && mCurrentPlayer.isPlaying()) {
+      mCurrentPlayer.pause();
+    }
+    mStartWhenPrepared = false;
+    mResumeOnFocusGain = false;
+    removeCallbacks(mPositionUpdate);
     mPlaybackState = PlaybackState.PAUSED;
     for (PlayerCallback callback : mVideoPlayerCallbacks) {
       callback.onPause();
     }
   }
 
+  @Override
+  public int getCurrentPosition() {
+    return mCurrentPrepared ? mCurrentPlayer.getCurrentPosition() : 0;
+  }
+
+  @Override
+  public void seekTo(int videoPosition) {
+    // MediaPlayer.seekTo(int) lands on the sync frame before the position.
+    seekTo(videoPosition, SeekMode.PREVIOUS_SYNC);
+  }
+
+  @Override
+  public void seekTo(int videoPosition, SeekMode seekMode) {
+    if (videoPosition == mSeekDoneMs) {
+      if (mCurrentPrepared) {
+        post(mSkippedSeekCompleted);
+      } else {
+        mSeekSkippedWhenPrepared = true;
+      }
+      return;
+    }
+    mSeekDoneMs = -1;
+    if (mCurrentPrepared) {
+      seekCurrentPlayer(videoPosition, seekMode);
+    } else {
+      mSeekWhenPreparedMs = videoPosition;
+      mSeekWhenPreparedMode = seekMode;
+    }
+  }
+
+  private void seekCurrentPlayer(int positionMs, SeekMode seekMode) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+      // Older MediaPlayers only seek to the sync frame before the position.
+      mCurrentPlayer.seekTo(positionMs);
+      return;
+    }
+    switch (seekMode) {
+      case EXACT:
+        mCurrentPlayer.seekTo(positionMs, MediaPlayer.SEEK_CLOSEST);
+        break;
+      case CLOSEST_SYNC:
+        mCurrentPlayer.seekTo(positionMs, MediaPlayer.SEEK_CLOSEST_SYNC);
+        break;
+      default:
+        mCurrentPlayer.seekTo(positionMs, MediaPlayer.SEEK_PREVIOUS_SYNC);
+        break;
+    }
+  }
+
   @Override
   public void stopPlayback() {
-    if (mPlaybackState == PlaybackState.STOPPED) {
+    // A loaded or finished video is stopped too, so its player lets go of its decoders.
+    mResumeOnFocusGain = false;
+    mAudioFocus.abandon(mAudioFocusChangeListener);
+    if (mCurrentPlayer == null) {
+      mPlaybackState = PlaybackState.STOPPED;
       return;
     }
-    super.stopPlayback();
+    clearCurrentPlayer();
     mPlaybackState = PlaybackState.STOPPED;
   }
 
   @Override
   public void disablePlaybackControls() {
-    setMediaController(null);
+    mPlaybackControlsEnabled = false;
+    mMediaController.hide();
   }
 
   @Override
   public void enablePlaybackControls() {
-    setMediaController(mMediaController);
+    mPlaybackControlsEnabled = true;
+  }
+
+  @Override
+  public void setVideoPath(String videoUrl) {
+    clearCurrentPlayer();
+    if (videoUrl.equals(mQueuedUrl)) {
+      promoteQueuedPlayer();
+      return;
+    }
+    mCurrentPlayer = obtainPlayer();
+    try {
+      mCurrentPlayer.setDataSource(getContext(), Uri.parse(videoUrl));
+      if (mSurfaceHolder != null) {
+        mCurrentPlayer.setDisplay(mSurfaceHolder);
+      }
+      mCurrentPlayer.prepareAsync();
+    } catch (IOException | IllegalStateException e) {
+      Log.w(TAG, "Unable to open " + videoUrl, e);
+      final MediaPlayer failedPlayer = mCurrentPlayer;
+      post(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (mCurrentPlayer == failedPlayer) {
+                notifyCurrentError();
+              }
+            }
+          });
+    }
+  }
+
+  /** Makes the queued player the current one, keeping the start position it was queued with. */
+  private void promoteQueuedPlayer() {
+    final MediaPlayer promotedPlayer = mQueuedPlayer;
+    boolean prepared = mQueuedPrepared;
+    mCurrentPlayer = promotedPlayer;
+    mSeekDoneMs = mQueuedPositionMs;
+    if (!prepared) {
+      mSeekWhenPreparedMs = mQueuedPositionMs;
+    }
+    mQueuedPlayer = null;
+    clearQueuedPlayer();
+    if (mSurfaceHolder != null) {
+      mCurrentPlayer.setDisplay(mSurfaceHolder);
+    }
+    if (prepared) {
+      // Report it as prepared after this call returns, as for any other video.
+      post(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (mCurrentPlayer == promotedPlayer && !mCurrentPrepared) {
+                onCurrentPrepared();
+              }
+            }
+          });
+    }
   }
 
   @Override
@@ -170,4 +809,35 @@ public class SampleVideoPlayer extends VideoView implements VideoPlayer {
   public void removePlayerCallback(PlayerCallback callback) {
     mVideoPlayerCallbacks.remove(callback);
   }
+
+  // Methods implementing the PlaybackReportingVideoPlayer interface.
+  @Override
+  public void addPlaybackListener(PlaybackListener listener, int updatePeriodMs) {
+    mPlaybackListeners.add(listener);
+    mUpdatePeriodsMs.add(Math.max(updatePeriodMs, 1));
+    updatePeriod();
+  }
+
+  @Override
+  public void removePlaybackListener(PlaybackListener listener) {
+    int index = mPlaybackListeners.indexOf(listener);
+    if (index < 0) {
+      return;
+    }
+    mPlaybackListeners.remove(index);
+    mUpdatePeriodsMs.remove(index);
+    updatePeriod();
+  }
+
+  private void updatePeriod() {
+    mUpdatePeriodMs = Integer.MAX_VALUE;
+    for (int updatePeriodMs : mUpdatePeriodsMs) {
+      mUpdatePeriodMs = Math.min(mUpdatePeriodMs, updatePeriodMs);
+    }
+    if (isPlaying()) {
+      schedulePositionUpdate();
+    } else {
+      removeCallbacks(mPositionUpdate);
+    }
+  }
 }
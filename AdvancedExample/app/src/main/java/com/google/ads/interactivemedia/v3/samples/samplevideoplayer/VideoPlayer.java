@@ -5,6 +5,16 @@ package com.google.ads.interactivemedia.v3.samples.samplevideoplayer;
 /** Interface definition for controlling video playback. */
 public interface VideoPlayer {
 
+  /** How precisely a seek lands on the requested position. */
+  public enum SeekMode {
+    /** Land on the requested position, decoding from the sync frame before it if needed. */
+    EXACT,
+    /** Land on the sync frame closest to the requested position. */
+    CLOSEST_SYNC,
+    /** Land on the sync frame at or before the requested position. */
+    PREVIOUS_SYNC
+  }
+
   /** Interface for alerting caller of major video events. */
   public interface PlayerCallback {
 
@@ -39,6 +49,12 @@ public interface VideoPlayer {
   /** Progress the currently loaded video to the given position (milliseconds). */
   void seekTo(int videoPosition);
 
+  /**
+   * Progress the currently loaded video to the given position (milliseconds), landing as the seek
+   * mode allows. Players that can't seek to sync frames seek as seekTo(int) does.
+   */
+  void seekTo(int videoPosition, SeekMode seekMode);
+
   /** Get the total length of the currently loaded video in milliseconds. */
   int getDuration();
 
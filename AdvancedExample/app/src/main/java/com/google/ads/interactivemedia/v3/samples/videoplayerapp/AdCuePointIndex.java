@@ -0,0 +1,50 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ad breaks of a VMAP playlist, as returned by AdsManager.getAdCuePoints(). Mid-roll times are
+ * kept sorted so the next break after a content position is found with a binary search.
+ */
+final class AdCuePointIndex {
+
+  // Returned when no mid-roll follows the given time.
+  static final double NO_BREAK = -1;
+
+  // Mid-roll times in seconds, in ascending order.
+  private final float[] mMidrollTimes;
+
+  /** Builds the index from cue points in seconds, where 0 is a pre-roll and -1 a post-roll. */
+  AdCuePointIndex(List<Float> cuePoints) {
+    float[] midrollTimes = new float[cuePoints.size()];
+    int midrollCount = 0;
+    for (Float cuePoint : cuePoints) {
+      if (cuePoint > 0) {
+        midrollTimes[midrollCount++] = cuePoint;
+      }
+    }
+    mMidrollTimes = Arrays.copyOf(midrollTimes, midrollCount);
+    Arrays.sort(mMidrollTimes);
+  }
+
+  /** Returns the time in seconds of the first mid-roll after the given time, or NO_BREAK. */
+  double getNextBreakAfter(double timeSec) {
+    int low = 0;
+    int high = mMidrollTimes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (mMidrollTimes[middle] <= timeSec) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low < mMidrollTimes.length ? mMidrollTimes[low] : NO_BREAK;
+  }
+
+  /** Returns if the playlist has any mid-rolls. */
+  boolean hasMidrolls() {
+    return mMidrollTimes.length > 0;
+  }
+}
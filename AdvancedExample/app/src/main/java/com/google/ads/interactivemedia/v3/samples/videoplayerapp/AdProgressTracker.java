@@ -0,0 +1,113 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+
+/**
+ * Reports ad progress from the main looper while an ad is playing. Tracking is started and stopped
+ * from player state changes, so no updates are scheduled while the ad is paused or stopped, and
+ * updates are only forwarded when the position has moved.
+ */
+final class AdProgressTracker implements Handler.Callback {
+
+  /** Supplies the ad progress and receives the updates that should be forwarded to IMA. */
+  interface Listener {
+    /** Reads the current progress of the playing ad from its player. */
+    VideoProgressUpdate getAdProgress();
+
+    void onAdProgress(VideoProgressUpdate progressUpdate);
+  }
+
+  private static final int START = 0;
+  private static final int UPDATE = 1;
+
+  // Time between progress updates while the ad plays away from a quartile boundary.
+  static final int UPDATE_PERIOD_MS = 500;
+
+  // Shortest time between progress updates, used when a quartile boundary is imminent.
+  static final int MIN_UPDATE_PERIOD_MS = 50;
+
+  // Longest time between progress updates, used while the position is not advancing.
+  static final int MAX_UPDATE_PERIOD_MS = 2000;
+
+  // How far past a quartile boundary the update is scheduled, so the reported position is on the
+  // far side of it.
+  private static final int QUARTILE_MARGIN_MS = 20;
+
+  private final Handler messageHandler;
+  private final Listener listener;
+
+  // Last position forwarded to the listener, or -1 if nothing has been reported since start().
+  private long lastReportedPositionMs = -1;
+
+  // Delay used for the next update while the position is not advancing.
+  private int stalledUpdatePeriodMs = UPDATE_PERIOD_MS;
+
+  AdProgressTracker(Listener listener) {
+    this.messageHandler = new Handler(Looper.getMainLooper(), this);
+    this.listener = listener;
+  }
+
+  @Override
+  public boolean handleMessage(Message msg) {
+    switch (msg.what) {
+      case START:
+        lastReportedPositionMs = -1;
+        stalledUpdatePeriodMs = UPDATE_PERIOD_MS;
+        // Intentional fallthrough. The first update is sent as soon as tracking starts.
+      case UPDATE:
+        messageHandler.removeMessages(UPDATE);
+        messageHandler.sendEmptyMessageDelayed(UPDATE, sendProgressUpdate());
+        break;
+      default:
+        break;
+    }
+    return true;
+  }
+
+  /** Starts reporting progress for the ad that is currently playing. */
+  void start() {
+    messageHandler.removeMessages(UPDATE);
+    messageHandler.sendEmptyMessage(START);
+  }
+
+  /** Stops reporting progress. Safe to call when tracking is not running. */
+  void stop() {
+    messageHandler.removeMessages(START);
+    messageHandler.removeMessages(UPDATE);
+  }
+
+  /** Forwards the current progress if it has changed, and returns the delay until the next one. */
+  private int sendProgressUpdate() {
+    VideoProgressUpdate progressUpdate = listener.getAdProgress();
+    long positionMs = progressUpdate.getCurrentTimeMs();
+    long durationMs = progressUpdate.getDurationMs();
+    if (durationMs <= 0 || positionMs == lastReportedPositionMs) {
+      // The ad is not prepared yet or is buffering. Back off until the position moves again.
+      int delayMs = stalledUpdatePeriodMs;
+      stalledUpdatePeriodMs = Math.min(stalledUpdatePeriodMs * 2, MAX_UPDATE_PERIOD_MS);
+      return delayMs;
+    }
+    stalledUpdatePeriodMs = UPDATE_PERIOD_MS;
+    lastReportedPositionMs = positionMs;
+    listener.onAdProgress(progressUpdate);
+    return getUpdateDelayMs(positionMs, durationMs);
+  }
+
+  /**
+   * Returns the delay until the next update. The regular period is shortened when the next quartile
+   * boundary would otherwise be reported late, since IMA fires quartile events from these updates.
+   */
+  private static int getUpdateDelayMs(long positionMs, long durationMs) {
+    for (int quartile = 1; quartile <= 4; quartile++) {
+      long boundaryMs = durationMs * quartile / 4;
+      if (boundaryMs > positionMs) {
+        long untilBoundaryMs = boundaryMs - positionMs + QUARTILE_MARGIN_MS;
+        return (int) Math.max(MIN_UPDATE_PERIOD_MS, Math.min(UPDATE_PERIOD_MS, untilBoundaryMs));
+      }
+    }
+    return UPDATE_PERIOD_MS;
+  }
+}
@@ -0,0 +1,169 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.TextView;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Logger that queues messages in a ring buffer and writes them out at most once per frame, so
+ * dense event streams don't cause a text layout and a logcat write per message on the main thread.
+ * Messages are kept as a prefix and a value and only formatted when they are flushed. In
+ * counters-only mode messages are counted instead of written out.
+ */
+final class BufferedLogger implements VideoPlayerController.Logger, Choreographer.FrameCallback {
+
+  // Number of messages held between flushes. Older messages are dropped when it is exceeded.
+  private static final int CAPACITY = 256;
+
+  // Logcat truncates long entries, so a batch is split before it reaches this length.
+  private static final int MAX_LOGCAT_ENTRY_LENGTH = 4000;
+
+  private final String mTag;
+  private final Choreographer mChoreographer;
+  private TextView mLogText;
+
+  // Ring buffer of pending messages. Guarded by this.
+  private final String[] mPrefixes = new String[CAPACITY];
+  private final Object[] mValues = new Object[CAPACITY];
+  private int mHead;
+  private int mSize;
+  private int mDroppedCount;
+  private boolean mIsFlushScheduled;
+
+  // Message counts keyed by value for enum values such as event types, and by prefix otherwise.
+  // Guarded by this.
+  private final Map<Object, int[]> mCounts = new HashMap<Object, int[]>();
+  private boolean mIsCountersOnly;
+
+  // Reused to format each flush, only touched on the main thread.
+  private final StringBuilder mFlushText = new StringBuilder();
+
+  /** Creates a logger writing to logcat under the given tag and to an optional TextView. */
+  BufferedLogger(String tag, TextView logText) {
+    mTag = tag;
+    mLogText = logText;
+    // Must be created on the main thread, so that flushes happen there.
+    mChoreographer = Choreographer.getInstance();
+  }
+
+  @Override
+  public void log(String logMessage) {
+    log(logMessage, null);
+  }
+
+  @Override
+  public synchronized void log(String prefix, Object value) {
+    Object key = value instanceof Enum ? value : prefix;
+    int[] count = mCounts.get(key);
+    if (count == null) {
+      count = new int[1];
+      mCounts.put(key, count);
+    }
+    count[0]++;
+    if (mIsCountersOnly) {
+      return;
+    }
+
+    int index = (mHead + mSize) % CAPACITY;
+    if (mSize == CAPACITY) {
+      mHead = (mHead + 1) % CAPACITY;
+      mDroppedCount++;
+    } else {
+      mSize++;
+    }
+    mPrefixes[index] = prefix;
+    mValues[index] = value;
+    if (!mIsFlushScheduled) {
+      mIsFlushScheduled = true;
+      mChoreographer.postFrameCallback(this);
+    }
+  }
+
+  /**
+   * Sets whether messages are only counted, for when the counts read with getCounts() are enough
+   * and the messages themselves aren't needed. Messages are written out by default.
+   */
+  synchronized void setCountersOnly(boolean countersOnly) {
+    mIsCountersOnly = countersOnly;
+  }
+
+  /** Returns how many times each message was logged, keyed by event type or message prefix. */
+  synchronized Map<String, Integer> getCounts() {
+    Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+    for (Map.Entry<Object, int[]> entry : mCounts.entrySet()) {
+      counts.put(String.valueOf(entry.getKey()), entry.getValue()[0]);
+    }
+    return counts;
+  }
+
+  /** Stops writing to the TextView and drops pending messages. */
+  synchronized void release() {
+    mChoreographer.removeFrameCallback(this);
+    mIsFlushScheduled = false;
+    mLogText = null;
+    clearPending();
+  }
+
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    TextView logText;
+    synchronized (this) {
+      mIsFlushScheduled = false;
+      mFlushText.setLength(0);
+      if (mDroppedCount > 0) {
+        mFlushText.append("(").append(mDroppedCount).append(" messages dropped)\n");
+      }
+      for (int i = 0; i < mSize; i++) {
+        int index = (mHead + i) % CAPACITY;
+        mFlushText.append(mPrefixes[index]);
+        if (mValues[index] != null) {
+          mFlushText.append(mValues[index]);
+        }
+        mFlushText.append('\n');
+      }
+      clearPending();
+      logText = mLogText;
+    }
+    if (mFlushText.length() == 0) {
+      return;
+    }
+    writeToLogcat(mFlushText);
+    if (logText != null) {
+      logText.append(mFlushText);
+    }
+  }
+
+  private void clearPending() {
+    for (int i = 0; i < mSize; i++) {
+      int index = (mHead + i) % CAPACITY;
+      mPrefixes[index] = null;
+      mValues[index] = null;
+    }
+    mHead = 0;
+    mSize = 0;
+    mDroppedCount = 0;
+  }
+
+  /** Writes the lines in as few logcat entries as possible, splitting at line breaks. */
+  private void writeToLogcat(CharSequence lines) {
+    int start = 0;
+    while (start < lines.length()) {
+      int end = Math.min(start + MAX_LOGCAT_ENTRY_LENGTH, lines.length());
+      if (end < lines.length()) {
+        for (int i = end - 1; i > start; i--) {
+          if (lines.charAt(i) == '\n') {
+            end = i + 1;
+            break;
+          }
+        }
+      }
+      // Drop the trailing line break, which logcat adds itself.
+      int entryEnd = lines.charAt(end - 1) == '\n' ? end - 1 : end;
+      Log.i(mTag, lines.subSequence(start, entryEnd).toString());
+      start = end;
+    }
+  }
+}
@@ -2,84 +2,164 @@ package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
 
 import android.app.Activity;
 import android.util.Log;
-import androidx.annotation.NonNull;
-import com.google.android.gms.cast.Cast;
-import com.google.android.gms.cast.CastDevice;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaLoadOptions;
 import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.cast.MediaStatus;
 import com.google.android.gms.cast.framework.CastContext;
 import com.google.android.gms.cast.framework.CastSession;
 import com.google.android.gms.cast.framework.SessionManager;
 import com.google.android.gms.cast.framework.SessionManagerListener;
-import com.google.android.gms.cast.framework.media.RemoteMediaClient;
-import com.google.android.gms.cast.framework.media.RemoteMediaClient.MediaChannelResult;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Status;
-import java.io.IOException;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 /** Handles connection to a Cast device. */
-public class CastApplication implements Cast.MessageReceivedCallback {
+public class CastApplication {
 
   static final String APP_ID = "93F3197F"; // Replace with your receiver app id.
 
-  private static final String NAMESPACE = "urn:x-cast:com.google.ads.ima.cast";
   private static final String TAG = "ChromeCastDemoActivity";
 
+  // How far the receiver may move ahead of the paused local content before the local content is
+  // seeked to catch up.
+  private static final double CONTENT_RESYNC_SEC = 10;
+
   private VideoFragment mVideoFragment;
   private VideoPlayerController mVideoPlayerController;
   private String mAdTagUrl;
   private String mContentUrl;
-  private boolean mCastAdPlaying;
   private double mCastContentTime;
 
   private Activity mActivity;
-  private CastContext mCastContext;
-  private CastSession mCastSession;
   private SessionManager mSessionManager;
 
+  // The receiver of the current session, or null when not casting.
+  private CastReceiverConnection mConnection;
+
+  // MediaInfo built while the session starts, and the content URL it was built for.
+  private MediaInfo mPreparedMediaInfo;
+  private String mPreparedContentUrl;
+
+  // Times the handoff to the receiver.
+  private final CastStartupTimings mStartupTimings = new CastStartupTimings();
+
+  // Encodes commands for the receiver, in the protocol version it speaks. Reset per session.
+  private CastMessageCodec mMessageCodec = new CastMessageCodec();
+
+  private final CastMessageCodec.Sender mMessageSender =
+      new CastMessageCodec.Sender() {
+        @Override
+        public void sendMessage(String message) {
+          if (mConnection != null) {
+            mConnection.sendMessage(message);
+          }
+        }
+      };
+
+  private final CastMessageCodec.Receiver mMessageReceiver =
+      new CastMessageCodec.Receiver() {
+        @Override
+        public void onContentPauseRequested(double contentTimeSec) {
+          mCastContentTime = contentTimeSec;
+          mPositionTracker.onAdBreakStarted(contentTimeSec);
+          markStartupStage(CastStartupTimings.Stage.FIRST_FRAME);
+        }
+
+        @Override
+        public void onContentResumeRequested() {
+          mPositionTracker.onAdBreakEnded();
+        }
+      };
+
+  // Content time the paused local content was last seeked to while casting.
+  private double mPrebufferedContentTime = -1;
+
+  // Follows the receiver's content position, and keeps the local content buffered near it.
+  private final CastPositionTracker mPositionTracker =
+      new CastPositionTracker(
+          new CastPositionTracker.Listener() {
+            @Override
+            public void onContentPositionUpdated(double contentTimeSec) {
+              mCastContentTime = contentTimeSec;
+              if (contentTimeSec > 0) {
+                markStartupStage(CastStartupTimings.Stage.FIRST_FRAME);
+              }
+              if (mVideoPlayerController != null
+                  && Math.abs(contentTimeSec - mPrebufferedContentTime) > CONTENT_RESYNC_SEC) {
+                mPrebufferedContentTime = contentTimeSec;
+                mVideoPlayerController.prebufferContentAt(contentTimeSec);
+              }
+            }
+          });
+
+  private final CastReceiverConnection.Listener mConnectionListener =
+      new CastReceiverConnection.Listener() {
+        @Override
+        public void onMessageReceived(String message) {
+          Log.d(TAG, "onMessageReceived: " + message);
+          mMessageCodec.decode(message, mMessageReceiver);
+        }
+
+        @Override
+        public void onMediaStatusUpdated(int playerState, boolean playingAd) {
+          // Progress is only content progress while the receiver has content rather than an ad.
+          mPositionTracker.setContentPlaying(
+              !playingAd
+                  && (playerState == MediaStatus.PLAYER_STATE_PLAYING
+                      || playerState == MediaStatus.PLAYER_STATE_PAUSED
+                      || playerState == MediaStatus.PLAYER_STATE_BUFFERING));
+          if (playerState == MediaStatus.PLAYER_STATE_PLAYING) {
+            markStartupStage(CastStartupTimings.Stage.FIRST_FRAME);
+          }
+        }
+
+        @Override
+        public void onProgressUpdated(long progressMs, long durationMs) {
+          mPositionTracker.onProgressUpdated(progressMs, durationMs);
+        }
+      };
+
   private SessionManagerListener<CastSession> mSessionManagerListener =
       new SessionManagerListener<CastSession>() {
         @Override
-        public void onSessionStarting(CastSession castSession) {}
+        public void onSessionStarting(CastSession castSession) {
+          onReceiverConnecting();
+        }
 
         @Override
         public void onSessionStarted(CastSession castSession, String sessionId) {
-          onApplicationConnected(castSession);
+          onReceiverConnected(new RemoteCastReceiverConnection(castSession));
         }
 
         @Override
         public void onSessionStartFailed(CastSession castSession, int error) {
-          onApplicationDisconnected();
+          onReceiverDisconnected();
         }
 
         @Override
         public void onSessionEnding(CastSession castSession) {
-          if (mCastSession != null && !mCastAdPlaying) {
-            RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
-            if (remoteMediaClient != null) {
-              double videoPosition = remoteMediaClient.getApproximateStreamPosition();
-              mCastContentTime = videoPosition / 1000.0;
-            }
-          }
+          onReceiverDisconnecting();
         }
 
         @Override
         public void onSessionEnded(CastSession castSession, int error) {
-          onApplicationDisconnected();
+          onReceiverDisconnected();
         }
 
         @Override
-        public void onSessionResuming(CastSession castSession, String sessionId) {}
+        public void onSessionResuming(CastSession castSession, String sessionId) {
+          onReceiverConnecting();
+        }
 
         @Override
         public void onSessionResumed(CastSession castSession, boolean wasSuspended) {
-          onApplicationConnected(castSession);
+          onReceiverConnected(new RemoteCastReceiverConnection(castSession));
         }
 
         @Override
         public void onSessionResumeFailed(CastSession castSession, int error) {
-          onApplicationDisconnected();
+          onReceiverDisconnected();
         }
 
         @Override
@@ -87,40 +167,82 @@ public class CastApplication implements Cast.MessageReceivedCallback {
       };
 
   public CastApplication(Activity activity) {
-    mActivity = activity;
+    this(activity, CastContext.getSharedInstance(activity).getSessionManager());
+  }
 
-    mCastContext = CastContext.getSharedInstance(activity);
-    mSessionManager = mCastContext.getSessionManager();
+  /**
+   * Creates a CastApplication following the sessions of the given manager. Without one, sessions
+   * only start and end through the onReceiver methods, as tests drive them.
+   */
+  CastApplication(Activity activity, SessionManager sessionManager) {
+    mActivity = activity;
+    mSessionManager = sessionManager;
   }
 
   void onPause() {
-    mSessionManager.removeSessionManagerListener(mSessionManagerListener, CastSession.class);
+    if (mSessionManager != null) {
+      mSessionManager.removeSessionManagerListener(mSessionManagerListener, CastSession.class);
+    }
   }
 
   void onResume() {
-    mSessionManager.addSessionManagerListener(mSessionManagerListener, CastSession.class);
+    if (mSessionManager != null) {
+      mSessionManager.addSessionManagerListener(mSessionManagerListener, CastSession.class);
+    }
   }
 
-  private void onApplicationConnected(CastSession castSession) {
-    mCastSession = castSession;
-    try {
-      mCastSession.setMessageReceivedCallbacks(NAMESPACE, CastApplication.this);
-    } catch (IOException e) {
-      Log.e(TAG, "Exception when creating channel", e);
-    }
+  /** Called when a session with a receiver starts or resumes. */
+  void onReceiverConnecting() {
+    // Prepare the load request while the receiver app launches.
+    mStartupTimings.start();
+    prepareMediaInfo();
+  }
+
+  /** Called once the session's receiver is connected, to hand playback over to it. */
+  void onReceiverConnected(CastReceiverConnection connection) {
+    mConnection = connection;
+    mMessageCodec = new CastMessageCodec();
     mVideoPlayerController = mVideoFragment.getVideoPlayerController();
     mAdTagUrl = mVideoPlayerController.getAdTagUrl();
     mContentUrl = mVideoPlayerController.getContentVideoUrl();
+    mPrebufferedContentTime = -1;
+    mPositionTracker.reset();
+    // Pause first, so the local content doesn't move past the time the receiver starts at.
     mVideoPlayerController.pause();
+    // Start the receiver's load next, and set up the rest while it is in flight.
     loadMedia();
+    connection.connect(mConnectionListener, CastPositionTracker.UPDATE_PERIOD_MS);
     mActivity.invalidateOptionsMenu();
   }
 
-  private void onApplicationDisconnected() {
+  /** Called when the session is about to end. */
+  void onReceiverDisconnecting() {
+    // The tracked position is at most one update old, but take the latest estimate when the
+    // session ends cleanly.
+    if (mConnection != null) {
+      mPositionTracker.onProgressUpdated(
+          mConnection.getApproximateStreamPosition(), mConnection.getStreamDuration());
+    }
+  }
+
+  /** Called when the session ended or failed, to resume playback locally. */
+  void onReceiverDisconnected() {
     // User stops casting. Resume video on device and seek to current time of Cast.
+    if (mConnection != null) {
+      mConnection.disconnect();
+      mConnection = null;
+    }
+    if (mPositionTracker.hasContentTime()) {
+      // The session may have dropped without onSessionEnding, so use the last tracked position.
+      mCastContentTime = mPositionTracker.getContentTimeSec();
+    }
     if (mVideoPlayerController == null) {
       return;
-    } else if (!mVideoPlayerController.hasVideoStarted()) {
+    }
+    mVideoPlayerController
+        .getTransitionLatencies()
+        .start(TransitionLatencyTracker.Transition.CAST_DISCONNECT_TO_CONTENT_PLAY);
+    if (!mVideoPlayerController.hasVideoStarted()) {
       // Only re-request ads if VMAP or the video hasn't started.
       if (mVideoFragment.isVmap() || mCastContentTime == 0) {
         mVideoPlayerController.requestAndPlayAds(mCastContentTime);
@@ -129,92 +251,101 @@ public class CastApplication implements Cast.MessageReceivedCallback {
     mVideoPlayerController.seek(mCastContentTime);
 
     mActivity.invalidateOptionsMenu();
-    mCastSession = null;
 
     mVideoPlayerController.resume();
   }
 
-  private void loadMedia() {
+  /** Builds the MediaInfo of the current content ahead of the load request. */
+  private void prepareMediaInfo() {
+    VideoPlayerController videoPlayerController = mVideoFragment.getVideoPlayerController();
+    String contentUrl =
+        videoPlayerController != null ? videoPlayerController.getContentVideoUrl() : null;
+    if (contentUrl == null || contentUrl.equals(mPreparedContentUrl)) {
+      return;
+    }
+    mPreparedMediaInfo = buildMediaInfo(contentUrl);
+    mPreparedContentUrl = contentUrl;
+  }
+
+  private static MediaInfo buildMediaInfo(String contentUrl) {
     MediaMetadata mediaMetadata = new MediaMetadata(MediaMetadata.MEDIA_TYPE_MOVIE);
     mediaMetadata.putString(MediaMetadata.KEY_TITLE, "My video");
-    MediaInfo mediaInfo =
-        new MediaInfo.Builder(mContentUrl)
-            .setContentType("video/mp4")
-            .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
-            .setMetadata(mediaMetadata)
-            .build();
-
-    MediaLoadOptions mediaLoadOptions = new MediaLoadOptions.Builder().build();
-
-    RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
-    try {
-      Log.d(TAG, "loading media");
-      remoteMediaClient
-          .load(mediaInfo, mediaLoadOptions)
-          .setResultCallback(
-              new ResultCallback<MediaChannelResult>() {
-                @Override
-                public void onResult(@NonNull MediaChannelResult mediaChannelResult) {
-                  if (mediaChannelResult.getStatus().isSuccess()) {
-                    // Since the player starts playing automatically we do not want to
-                    // request the ad again in Chromecast except for VMAP because there
-                    // are multiple ad breaks. To request a single ad use same the same
-                    // message with current time as 0.
-                    if (mVideoFragment.isVmap()
-                        || mVideoPlayerController.getCurrentContentTime() == 0) {
-                      sendMessage(
-                          "requestAd,"
-                              + mAdTagUrl
-                              + ","
-                              + mVideoPlayerController.getCurrentContentTime());
-                    } else {
-                      sendMessage("seek," + mVideoPlayerController.getCurrentContentTime());
-                    }
-                  } else {
-                    Log.e(
-                        TAG,
-                        "Error loading Media : " + mediaChannelResult.getStatus().getStatusCode());
-                  }
-                }
-              });
-    } catch (Exception e) {
-      Log.e(TAG, "Problem opening media during loading", e);
-    }
+    return new MediaInfo.Builder(contentUrl)
+        .setContentType("video/mp4")
+        .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
+        .setMetadata(mediaMetadata)
+        .build();
   }
 
-  @Override
-  public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
-    Log.d(TAG, "onMessageReceived: " + message);
-    String[] splitMessage = message.split(",");
-    String event = splitMessage[0];
-    switch (event) {
-      case "onContentPauseRequested":
-        mCastAdPlaying = true;
-        mCastContentTime = Double.parseDouble(splitMessage[1]);
-        break;
-      case "onContentResumeRequested":
-        mCastAdPlaying = false;
-        break;
+  private void markStartupStage(CastStartupTimings.Stage stage) {
+    if (mStartupTimings.mark(stage)) {
+      Log.d(TAG, mStartupTimings.toString());
     }
   }
 
-  private void sendMessage(String message) {
-    try {
-      Log.d(TAG, "Sending message: " + message);
-      mCastSession
-          .sendMessage(NAMESPACE, message)
-          .setResultCallback(
-              new ResultCallback<Status>() {
-                @Override
-                public void onResult(Status result) {
-                  if (!result.isSuccess()) {
-                    Log.e(TAG, "Sending message failed");
+  private void loadMedia() {
+    MediaInfo mediaInfo =
+        mContentUrl != null && mContentUrl.equals(mPreparedContentUrl)
+            ? mPreparedMediaInfo
+            : buildMediaInfo(mContentUrl);
+
+    // Since the player starts playing automatically we do not want to request the ad again in
+    // Chromecast except for VMAP because there are multiple ad breaks. To request a single ad use
+    // the same message with current time as 0.
+    final double contentTime = mVideoPlayerController.getCurrentContentTime();
+    final boolean requestAd = mVideoFragment.isVmap() || contentTime == 0;
+
+    MediaLoadOptions.Builder mediaLoadOptionsBuilder =
+        new MediaLoadOptions.Builder().setPlayPosition((long) (contentTime * 1000));
+    if (requestAd) {
+      // Receivers that read the load request's custom data can request the ads while the media
+      // loads, instead of waiting for the channel message.
+      try {
+        JSONObject adRequest = new JSONObject();
+        adRequest.put("adTagUrl", mAdTagUrl);
+        adRequest.put("contentTime", contentTime);
+        mediaLoadOptionsBuilder.setCustomData(new JSONObject().put("requestAd", adRequest));
+      } catch (JSONException e) {
+        Log.e(TAG, "Could not add the ad request to the load request", e);
+      }
+    }
+    MediaLoadOptions mediaLoadOptions = mediaLoadOptionsBuilder.build();
+
+    boolean sent =
+        mConnection.load(
+            mediaInfo,
+            mediaLoadOptions,
+            new CastReceiverConnection.LoadCallback() {
+              @Override
+              public void onLoadResult(Status status) {
+                if (status.isSuccess()) {
+                  markStartupStage(CastStartupTimings.Stage.MEDIA_LOADED);
+                  // The stock receiver only requests ads from the channel message, once the media
+                  // is loaded. The load request already starts at the content time, but the seek
+                  // message is still sent for receivers that ignore its play position.
+                  if (requestAd) {
+                    mMessageCodec.requestAd(mAdTagUrl, contentTime);
+                    mMessageCodec.flush(mMessageSender);
+                    markStartupStage(CastStartupTimings.Stage.AD_REQUEST_SENT);
+                  } else {
+                    mMessageCodec.seek(contentTime);
+                    mMessageCodec.flush(mMessageSender);
                   }
+                } else {
+                  markStartupStage(CastStartupTimings.Stage.MEDIA_LOAD_FAILED);
+                  Log.e(TAG, "Error loading Media : " + status.getStatusCode());
                 }
-              });
-    } catch (Exception e) {
-      Log.e(TAG, "Exception while sending message", e);
-    }
+              }
+            });
+    markStartupStage(
+        sent
+            ? CastStartupTimings.Stage.MEDIA_LOAD_SENT
+            : CastStartupTimings.Stage.MEDIA_LOAD_FAILED);
+  }
+
+  /** Returns the timings of the last handoff to a receiver. */
+  CastStartupTimings getStartupTimings() {
+    return mStartupTimings;
   }
 
   void setVideoFragment(VideoFragment videoFragment) {
@@ -0,0 +1,328 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the messages exchanged with the Cast receiver, on either side of the channel.
+ *
+ * <p>Version 0 is the comma separated format the stock receiver understands, such as
+ * "requestAd,url,time". It sends one command per message, and only the ad tag of requestAd may
+ * contain commas.
+ *
+ * <p>Version 1 messages start with "#1" followed by one or more frames, so several commands can be
+ * batched into one send. A frame is its body length, a colon and the body. The body is a sequence
+ * of fields, each written as its length, a colon and its text. The first field names the command.
+ * Times are whole milliseconds. Frames with unknown commands are skipped, and decoding reads
+ * fields in place without splitting the message.
+ *
+ * <p>Commands are sent in version 0 until the other side sends a version 1 message.
+ */
+final class CastMessageCodec {
+
+  /** Sends an encoded message on the Cast channel. */
+  interface Sender {
+    void sendMessage(String message);
+  }
+
+  /** Receives the commands decoded from receiver messages. */
+  interface Receiver {
+    void onContentPauseRequested(double contentTimeSec);
+
+    void onContentResumeRequested();
+  }
+
+  /** Receives the commands decoded from sender messages, on the receiver side of the channel. */
+  interface CommandReceiver {
+    void onRequestAd(String adTagUrl, double contentTimeSec);
+
+    void onSeek(double contentTimeSec);
+  }
+
+  static final int VERSION_LEGACY = 0;
+  static final int VERSION_1 = 1;
+
+  private static final String VERSION_1_PREFIX = "#1";
+
+  private static final String REQUEST_AD = "requestAd";
+  private static final String SEEK = "seek";
+  private static final String CONTENT_PAUSE_REQUESTED = "onContentPauseRequested";
+  private static final String CONTENT_RESUME_REQUESTED = "onContentResumeRequested";
+
+  // Most fields of any command, including the command name.
+  private static final int MAX_FIELDS = 4;
+
+  private int mVersion = VERSION_LEGACY;
+
+  // Frames of the pending version 1 message, and the pending version 0 messages.
+  private final StringBuilder mFrames = new StringBuilder();
+  private final List<String> mLegacyMessages = new ArrayList<String>(2);
+
+  // Command being encoded.
+  private final StringBuilder mCommand = new StringBuilder();
+
+  // Start and end of each field of the command being decoded. The first field is its name.
+  private final int[] mFieldBounds = new int[2 * MAX_FIELDS];
+  private int mFieldCount;
+
+  /** Returns the version commands are encoded in. */
+  int getVersion() {
+    return mVersion;
+  }
+
+  /** Sets the version commands are encoded in, for a side that knows what the other speaks. */
+  void setVersion(int version) {
+    mVersion = version;
+  }
+
+  /** Queues a request for the receiver to play ads after the given content time. */
+  void requestAd(String adTagUrl, double contentTimeSec) {
+    beginCommand(REQUEST_AD);
+    addText(adTagUrl);
+    addTime(contentTimeSec);
+    endCommand();
+  }
+
+  /** Queues a seek of the receiver's content. */
+  void seek(double contentTimeSec) {
+    beginCommand(SEEK);
+    addTime(contentTimeSec);
+    endCommand();
+  }
+
+  /** Queues the receiver's notice that content paused for ads at the given content time. */
+  void contentPauseRequested(double contentTimeSec) {
+    beginCommand(CONTENT_PAUSE_REQUESTED);
+    addTime(contentTimeSec);
+    endCommand();
+  }
+
+  /** Queues the receiver's notice that content resumed after ads. */
+  void contentResumeRequested() {
+    beginCommand(CONTENT_RESUME_REQUESTED);
+    endCommand();
+  }
+
+  /**
+   * Sends the queued commands. Version 1 commands are batched into a single message, version 0
+   * commands are sent one message each.
+   */
+  void flush(Sender sender) {
+    for (int i = 0; i < mLegacyMessages.size(); i++) {
+      sender.sendMessage(mLegacyMessages.get(i));
+    }
+    mLegacyMessages.clear();
+    if (mFrames.length() > 0) {
+      sender.sendMessage(VERSION_1_PREFIX + mFrames);
+      mFrames.setLength(0);
+    }
+  }
+
+  /**
+   * Decodes a message from the receiver and passes its commands to the given receiver. Receiving a
+   * version 1 message switches the commands sent afterwards to version 1. Malformed messages and
+   * unknown commands are ignored.
+   */
+  void decode(String message, Receiver receiver) {
+    decode(message, receiver, null);
+  }
+
+  /** Decodes a message from the sender, like decode() does for messages from the receiver. */
+  void decodeCommands(String message, CommandReceiver commandReceiver) {
+    decode(message, null, commandReceiver);
+  }
+
+  private void decode(String message, Receiver receiver, CommandReceiver commandReceiver) {
+    if (!message.startsWith(VERSION_1_PREFIX)) {
+      if (splitLegacy(message)) {
+        dispatch(message, true, receiver, commandReceiver);
+      }
+      return;
+    }
+    mVersion = VERSION_1;
+    int position = VERSION_1_PREFIX.length();
+    while (position < message.length()) {
+      int colon = message.indexOf(':', position);
+      long bodyLength = parseLong(message, position, colon);
+      if (colon < 0 || bodyLength < 0 || colon + 1 + bodyLength > message.length()) {
+        return;
+      }
+      int bodyStart = colon + 1;
+      int bodyEnd = (int) (bodyStart + bodyLength);
+      if (splitFrame(message, bodyStart, bodyEnd)) {
+        dispatch(message, false, receiver, commandReceiver);
+      }
+      position = bodyEnd;
+    }
+  }
+
+  private void beginCommand(String command) {
+    mCommand.setLength(0);
+    if (mVersion == VERSION_LEGACY) {
+      mCommand.append(command);
+    } else {
+      appendField(command);
+    }
+  }
+
+  private void addText(String text) {
+    if (mVersion == VERSION_LEGACY) {
+      mCommand.append(',').append(text);
+    } else {
+      appendField(text);
+    }
+  }
+
+  private void addTime(double timeSec) {
+    if (mVersion == VERSION_LEGACY) {
+      mCommand.append(',').append(timeSec);
+      return;
+    }
+    long timeMs = Math.round(timeSec * 1000);
+    // The length of the number is needed before it is written, so count its digits first.
+    int digits = 1;
+    for (long remaining = Math.abs(timeMs); remaining >= 10; remaining /= 10) {
+      digits++;
+    }
+    if (timeMs < 0) {
+      digits++;
+    }
+    mCommand.append(digits).append(':').append(timeMs);
+  }
+
+  private void endCommand() {
+    if (mVersion == VERSION_LEGACY) {
+      mLegacyMessages.add(mCommand.toString());
+    } else {
+      mFrames.append(mCommand.length()).append(':').append(mCommand);
+    }
+  }
+
+  private void appendField(String text) {
+    mCommand.append(text.length()).append(':').append(text);
+  }
+
+  /**
+   * Finds the fields of a version 0 message. The ad tag of requestAd may contain commas, so its
+   * time is taken from after the last comma.
+   */
+  private boolean splitLegacy(String message) {
+    mFieldCount = 0;
+    int comma = message.indexOf(',');
+    int commandEnd = comma < 0 ? message.length() : comma;
+    addFieldBounds(0, commandEnd);
+    if (comma < 0) {
+      return true;
+    }
+    if (matches(message, 0, commandEnd, REQUEST_AD)) {
+      int lastComma = message.lastIndexOf(',');
+      if (lastComma == comma) {
+        return false;
+      }
+      addFieldBounds(comma + 1, lastComma);
+      addFieldBounds(lastComma + 1, message.length());
+      return true;
+    }
+    int start = comma + 1;
+    while (mFieldCount < MAX_FIELDS) {
+      int end = message.indexOf(',', start);
+      addFieldBounds(start, end < 0 ? message.length() : end);
+      if (end < 0) {
+        break;
+      }
+      start = end + 1;
+    }
+    return true;
+  }
+
+  /** Finds the fields of the version 1 frame body in [start, end). */
+  private boolean splitFrame(String message, int start, int end) {
+    mFieldCount = 0;
+    int position = start;
+    while (position < end && mFieldCount < MAX_FIELDS) {
+      int colon = message.indexOf(':', position);
+      long length = parseLong(message, position, colon);
+      if (colon < 0 || length < 0 || colon + 1 + length > end) {
+        return false;
+      }
+      int fieldStart = colon + 1;
+      position = (int) (fieldStart + length);
+      addFieldBounds(fieldStart, position);
+    }
+    return mFieldCount > 0;
+  }
+
+  private void addFieldBounds(int start, int end) {
+    mFieldBounds[2 * mFieldCount] = start;
+    mFieldBounds[2 * mFieldCount + 1] = end;
+    mFieldCount++;
+  }
+
+  private void dispatch(
+      String message, boolean legacy, Receiver receiver, CommandReceiver commandReceiver) {
+    int commandStart = mFieldBounds[0];
+    int commandEnd = mFieldBounds[1];
+    if (receiver != null) {
+      if (matches(message, commandStart, commandEnd, CONTENT_PAUSE_REQUESTED)) {
+        double contentTimeSec = parseTimeField(message, 1, legacy);
+        if (contentTimeSec >= 0) {
+          receiver.onContentPauseRequested(contentTimeSec);
+        }
+      } else if (matches(message, commandStart, commandEnd, CONTENT_RESUME_REQUESTED)) {
+        receiver.onContentResumeRequested();
+      }
+    }
+    if (commandReceiver != null) {
+      if (matches(message, commandStart, commandEnd, REQUEST_AD)) {
+        double contentTimeSec = parseTimeField(message, 2, legacy);
+        if (contentTimeSec >= 0) {
+          commandReceiver.onRequestAd(
+              message.substring(mFieldBounds[2], mFieldBounds[3]), contentTimeSec);
+        }
+      } else if (matches(message, commandStart, commandEnd, SEEK)) {
+        double contentTimeSec = parseTimeField(message, 1, legacy);
+        if (contentTimeSec >= 0) {
+          commandReceiver.onSeek(contentTimeSec);
+        }
+      }
+    }
+  }
+
+  /** Returns the time in seconds held by the given field, or -1 if it is missing or malformed. */
+  private double parseTimeField(String message, int field, boolean legacy) {
+    if (field >= mFieldCount) {
+      return -1;
+    }
+    int start = mFieldBounds[2 * field];
+    int end = mFieldBounds[2 * field + 1];
+    if (!legacy) {
+      long timeMs = parseLong(message, start, end);
+      return timeMs < 0 ? -1 : timeMs / 1000.0;
+    }
+    try {
+      return Double.parseDouble(message.substring(start, end));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static boolean matches(String message, int start, int end, String command) {
+    return end - start == command.length() && message.regionMatches(start, command, 0, end - start);
+  }
+
+  /** Parses the non-negative decimal in [start, end), or returns -1 if it isn't one. */
+  private static long parseLong(String message, int start, int end) {
+    if (end <= start || end - start > 18) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      char c = message.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+}
@@ -0,0 +1,86 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import com.google.android.gms.cast.framework.media.RemoteMediaClient;
+
+/**
+ * Follows the content position of the Cast receiver while casting, so local playback can take over
+ * at the right place even if the session drops without warning. Progress reported while the
+ * receiver plays an ad is not content progress, so the position is only taken from progress while
+ * the receiver's media status shows content and no ad break was reported on the message channel.
+ * The ad break message can arrive after the first ad progress, which the media status covers.
+ * During an ad break the content position is held at the time the break started.
+ */
+final class CastPositionTracker implements RemoteMediaClient.ProgressListener {
+
+  /** Notified on the main thread when the tracked content position changes. */
+  interface Listener {
+    void onContentPositionUpdated(double contentTimeSec);
+  }
+
+  // How often the receiver reports its progress while casting.
+  static final long UPDATE_PERIOD_MS = 1000;
+
+  private final Listener mListener;
+
+  // Written on the main thread, and read when the session ends.
+  private volatile long mContentTimeMs = -1;
+  private volatile boolean mAdPlaying;
+  private volatile boolean mContentPlaying;
+
+  CastPositionTracker(Listener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public void onProgressUpdated(long progressMs, long durationMs) {
+    if (!mContentPlaying || mAdPlaying || progressMs < 0) {
+      return;
+    }
+    mContentTimeMs = progressMs;
+    if (mListener != null) {
+      mListener.onContentPositionUpdated(progressMs / 1000.0);
+    }
+  }
+
+  /**
+   * Mirrors whether the receiver's media status shows content, rather than an ad or no media, as
+   * playing, paused or buffering.
+   */
+  void setContentPlaying(boolean contentPlaying) {
+    mContentPlaying = contentPlaying;
+  }
+
+  /** Mirrors the start of an ad break on the receiver, at the given content time. */
+  void onAdBreakStarted(double contentTimeSec) {
+    mAdPlaying = true;
+    mContentTimeMs = Math.round(contentTimeSec * 1000);
+  }
+
+  /** Mirrors the end of an ad break on the receiver. */
+  void onAdBreakEnded() {
+    mAdPlaying = false;
+  }
+
+  /** Forgets the tracked position and ad state, for a new session. */
+  void reset() {
+    mContentTimeMs = -1;
+    mAdPlaying = false;
+    mContentPlaying = false;
+  }
+
+  /** Returns if the receiver is playing an ad break. */
+  boolean isAdPlaying() {
+    return mAdPlaying;
+  }
+
+  /** Returns if a content position has been tracked. */
+  boolean hasContentTime() {
+    return mContentTimeMs >= 0;
+  }
+
+  /** Returns the last tracked content position in seconds, or 0 if there is none. */
+  double getContentTimeSec() {
+    long contentTimeMs = mContentTimeMs;
+    return contentTimeMs < 0 ? 0 : contentTimeMs / 1000.0;
+  }
+}
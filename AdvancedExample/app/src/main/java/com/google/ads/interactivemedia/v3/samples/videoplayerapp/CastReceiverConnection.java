@@ -0,0 +1,54 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaLoadOptions;
+import com.google.android.gms.common.api.Status;
+
+/**
+ * The sender's side of a connected Cast receiver: its message channel and its media.
+ * CastApplication only talks to the receiver through this, so an in-process receiver can stand in
+ * for a Cast device.
+ */
+interface CastReceiverConnection {
+
+  /** Notified on the main thread of what the receiver reports. */
+  interface Listener {
+    /** Called for each message the receiver sends on the channel. */
+    void onMessageReceived(String message);
+
+    /**
+     * Called when the receiver's media status changes, with its MediaStatus player state and
+     * whether the media playing is an ad.
+     */
+    void onMediaStatusUpdated(int playerState, boolean playingAd);
+
+    /** Called periodically with the position of the receiver's media, ad or content. */
+    void onProgressUpdated(long progressMs, long durationMs);
+  }
+
+  /** Notified on the main thread of the result of a load request. */
+  interface LoadCallback {
+    void onLoadResult(Status status);
+  }
+
+  /**
+   * Starts notifying the listener, with progress at the given period. The listener is told the
+   * current media status right away.
+   */
+  void connect(Listener listener, long progressPeriodMs);
+
+  /** Stops notifying the listener, and drops the pending load callback. */
+  void disconnect();
+
+  /** Loads media on the receiver. Returns false if the request couldn't be sent. */
+  boolean load(MediaInfo mediaInfo, MediaLoadOptions mediaLoadOptions, LoadCallback callback);
+
+  /** Sends a message to the receiver on the channel. */
+  void sendMessage(String message);
+
+  /** Returns the estimated position of the receiver's media in milliseconds. */
+  long getApproximateStreamPosition();
+
+  /** Returns the duration of the receiver's media in milliseconds, or -1 if it is unknown. */
+  long getStreamDuration();
+}
@@ -0,0 +1,62 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.SystemClock;
+import java.util.Arrays;
+
+/** Times the stages of handing playback over to a Cast receiver, from session start. */
+final class CastStartupTimings {
+
+  /**
+   * Stages of the handoff, in the order they complete. The ad request is sent once the media is
+   * loaded. A load that fails or can't be sent ends the handoff at MEDIA_LOAD_FAILED instead.
+   */
+  enum Stage {
+    SESSION_STARTED,
+    MEDIA_LOAD_SENT,
+    MEDIA_LOADED,
+    AD_REQUEST_SENT,
+    FIRST_FRAME,
+    MEDIA_LOAD_FAILED
+  }
+
+  // When each stage was reached, or -1 if it wasn't yet.
+  private final long[] mStageTimesMs = new long[Stage.values().length];
+
+  CastStartupTimings() {
+    Arrays.fill(mStageTimesMs, -1);
+  }
+
+  /** Starts timing a new handoff. */
+  void start() {
+    Arrays.fill(mStageTimesMs, -1);
+    mark(Stage.SESSION_STARTED);
+  }
+
+  /** Records that a stage was reached. Returns false if it was already reached. */
+  boolean mark(Stage stage) {
+    if (mStageTimesMs[stage.ordinal()] >= 0) {
+      return false;
+    }
+    mStageTimesMs[stage.ordinal()] = SystemClock.elapsedRealtime();
+    return true;
+  }
+
+  /** Returns the time from session start to the given stage, or -1 if either wasn't reached. */
+  long getElapsedMs(Stage stage) {
+    long startMs = mStageTimesMs[Stage.SESSION_STARTED.ordinal()];
+    long stageMs = mStageTimesMs[stage.ordinal()];
+    return startMs < 0 || stageMs < 0 ? -1 : stageMs - startMs;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("Cast startup:");
+    for (Stage stage : Stage.values()) {
+      long elapsedMs = getElapsedMs(stage);
+      if (elapsedMs >= 0) {
+        builder.append(' ').append(stage).append(" +").append(elapsedMs).append("ms");
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,277 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.SystemClock;
+import com.google.ads.interactivemedia.v3.api.AdError;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.AdPodInfo;
+import com.google.ads.interactivemedia.v3.api.player.AdMediaInfo;
+import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer.VideoAdPlayerCallback;
+import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records what a session's ad integration received, and what it reported back to IMA, into a
+ * compact binary trace. EventTraceReplayer feeds the inputs back through the same code paths: the
+ * ad events and ad errors of the AdsManager, the ad decision reached for the ad request, the
+ * VideoAdPlayer calls made by IMA and the events of each player. The VideoAdPlayer callbacks are
+ * the outputs, recorded so a replay can be compared with its recording.
+ *
+ * <p>A trace starts with MAGIC and VERSION as big-endian ints. Each record is a source byte
+ * followed by four unsigned varints: the microseconds since the previous record, an event code, an
+ * argument and a value. Enum values are stored by ordinal, so a trace should be replayed against
+ * the IMA SDK version it was recorded with.
+ */
+final class EventTraceRecorder implements AdEvent.AdEventListener, AdErrorEvent.AdErrorListener {
+
+  static final int MAGIC = 0x494d4154;
+  static final int VERSION = 2;
+
+  // Record sources. For ad events the code is the AdEventType ordinal. For ad errors of the
+  // AdsManager and of the ad request the code is the AdErrorType ordinal and the argument the
+  // AdErrorCode ordinal. For the VideoAdPlayer calls and callbacks the argument identifies the ad,
+  // and for player events the player.
+  static final int SOURCE_AD_EVENT = 0;
+  static final int SOURCE_AD_ERROR = 1;
+  static final int SOURCE_AD_PLAYER = 2;
+  static final int SOURCE_PLAYER = 3;
+  static final int SOURCE_AD_PLAYER_CALL = 4;
+  static final int SOURCE_LOADER_ERROR = 5;
+  static final int SOURCE_AD_DECISION = 6;
+
+  // VideoAdPlayerCallback codes. The value of AD_PLAYER_PROGRESS is the ad position in
+  // milliseconds, and of AD_PLAYER_VOLUME_CHANGED the volume.
+  static final int AD_PLAYER_PLAY = 0;
+  static final int AD_PLAYER_PAUSE = 1;
+  static final int AD_PLAYER_RESUME = 2;
+  static final int AD_PLAYER_ENDED = 3;
+  static final int AD_PLAYER_ERROR = 4;
+  static final int AD_PLAYER_LOADED = 5;
+  static final int AD_PLAYER_BUFFERING = 6;
+  static final int AD_PLAYER_CONTENT_COMPLETE = 7;
+  static final int AD_PLAYER_PROGRESS = 8;
+  static final int AD_PLAYER_VOLUME_CHANGED = 9;
+
+  // VideoAdPlayer call codes. The value of AD_PLAYER_CALL_LOAD is the ad's position in its pod
+  // shifted left by 16 bits, plus the number of ads in the pod.
+  static final int AD_PLAYER_CALL_LOAD = 0;
+  static final int AD_PLAYER_CALL_PLAY = 1;
+  static final int AD_PLAYER_CALL_PAUSE = 2;
+  static final int AD_PLAYER_CALL_STOP = 3;
+  static final int AD_PLAYER_CALL_RELEASE = 4;
+
+  // VideoPlayer.PlayerCallback and PlaybackListener codes. The value is the player's position in
+  // milliseconds, except for PLAYER_PREPARED, whose value is the duration.
+  static final int PLAYER_PREPARED = 0;
+  static final int PLAYER_PLAY = 1;
+  static final int PLAYER_PAUSE = 2;
+  static final int PLAYER_RESUME = 3;
+  static final int PLAYER_COMPLETED = 4;
+  static final int PLAYER_ERROR = 5;
+  static final int PLAYER_POSITION_UPDATE = 6;
+  static final int PLAYER_SEEK_COMPLETED = 7;
+  static final int PLAYER_BUFFERING_START = 8;
+  static final int PLAYER_BUFFERING_END = 9;
+
+  // Ad decision codes. The ads loaded for the request are recorded with AD_DECISION_LOADED, after
+  // one AD_DECISION_CUE_POINT record per cue point, whose value is its time in milliseconds, or -1
+  // for a post-roll.
+  static final int AD_DECISION_LOADED = 0;
+  static final int AD_DECISION_TIMED_OUT = 1;
+  static final int AD_DECISION_CUE_POINT = 2;
+
+  private final ByteArrayOutputStream mRecords = new ByteArrayOutputStream(4096);
+
+  // Time of the previous record, or -1 before the first one. Records are timed with the uptime
+  // clock the replayer schedules them with.
+  private long mLastRecordUptimeMs = -1;
+
+  // Identifies the ads in the records, in the order they were first seen.
+  private final Map<AdMediaInfo, Integer> mAdIds = new IdentityHashMap<AdMediaInfo, Integer>();
+
+  // Forwards the VideoAdPlayer callbacks into the trace.
+  private final VideoAdPlayerCallback mAdPlayerCallback =
+      new VideoAdPlayerCallback() {
+        @Override
+        public void onPlay(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_PLAY, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onPause(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_PAUSE, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onResume(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_RESUME, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onEnded(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_ENDED, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onError(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_ERROR, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onLoaded(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_LOADED, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onBuffering(AdMediaInfo adMediaInfo) {
+          recordAdPlayerCallback(AD_PLAYER_BUFFERING, adMediaInfo, 0);
+        }
+
+        @Override
+        public void onContentComplete() {
+          recordAdPlayerCallback(AD_PLAYER_CONTENT_COMPLETE, null, 0);
+        }
+
+        @Override
+        public void onAdProgress(AdMediaInfo adMediaInfo, VideoProgressUpdate progressUpdate) {
+          recordAdPlayerCallback(
+              AD_PLAYER_PROGRESS,
+              adMediaInfo,
+              (int) Math.max(progressUpdate.getCurrentTimeMs(), 0));
+        }
+
+        @Override
+        public void onVolumeChanged(AdMediaInfo adMediaInfo, int percentage) {
+          recordAdPlayerCallback(AD_PLAYER_VOLUME_CHANGED, adMediaInfo, percentage);
+        }
+      };
+
+  @Override
+  public void onAdEvent(AdEvent adEvent) {
+    record(SOURCE_AD_EVENT, adEvent.getType().ordinal(), 0, 0);
+  }
+
+  @Override
+  public void onAdError(AdErrorEvent adErrorEvent) {
+    recordError(SOURCE_AD_ERROR, adErrorEvent);
+  }
+
+  /** Returns the callback to register with the VideoAdPlayer whose events are recorded. */
+  VideoAdPlayerCallback getAdPlayerCallback() {
+    return mAdPlayerCallback;
+  }
+
+  /** Records a failed ad request that left content to start without ads. */
+  void recordLoaderError(AdErrorEvent adErrorEvent) {
+    recordError(SOURCE_LOADER_ERROR, adErrorEvent);
+  }
+
+  /** Records the ads loaded for the ad request, with their cue points in seconds. */
+  void recordAdsLoaded(List<Float> cuePoints) {
+    for (int i = 0; i < cuePoints.size(); i++) {
+      float cuePoint = cuePoints.get(i);
+      int cuePointMs = cuePoint < 0 ? -1 : (int) (cuePoint * 1000);
+      record(SOURCE_AD_DECISION, AD_DECISION_CUE_POINT, 0, cuePointMs);
+    }
+    record(SOURCE_AD_DECISION, AD_DECISION_LOADED, 0, 0);
+  }
+
+  /** Records that content started because the ad request took too long. */
+  void recordAdDecisionTimedOut() {
+    record(SOURCE_AD_DECISION, AD_DECISION_TIMED_OUT, 0, 0);
+  }
+
+  /** Records a call IMA made to the VideoAdPlayer. The pod is only given for loads. */
+  void recordAdPlayerCall(int code, AdMediaInfo adMediaInfo, AdPodInfo adPodInfo) {
+    int value = adPodInfo != null ? adPodInfo.getAdPosition() << 16 | adPodInfo.getTotalAds() : 0;
+    record(SOURCE_AD_PLAYER_CALL, code, getAdId(adMediaInfo), value);
+  }
+
+  /** Records an event of the player with the given id. */
+  void recordPlayerEvent(int playerId, int code, int valueMs) {
+    record(SOURCE_PLAYER, code, playerId, valueMs);
+  }
+
+  private void recordAdPlayerCallback(int code, AdMediaInfo adMediaInfo, int value) {
+    record(SOURCE_AD_PLAYER, code, getAdId(adMediaInfo), value);
+  }
+
+  private void recordError(int source, AdErrorEvent adErrorEvent) {
+    AdError error = adErrorEvent.getError();
+    record(source, error.getErrorType().ordinal(), error.getErrorCode().ordinal(), 0);
+  }
+
+  /** Returns the id of an ad in the records, or 0 for none. */
+  private synchronized int getAdId(AdMediaInfo adMediaInfo) {
+    if (adMediaInfo == null) {
+      return 0;
+    }
+    Integer adId = mAdIds.get(adMediaInfo);
+    if (adId == null) {
+      adId = mAdIds.size() + 1;
+      mAdIds.put(adMediaInfo, adId);
+    }
+    return adId;
+  }
+
+  /** Appends a record, timed relative to the previous one. */
+  synchronized void record(int source, int code, int arg, int value) {
+    long nowMs = SystemClock.uptimeMillis();
+    long deltaMicros = mLastRecordUptimeMs < 0 ? 0 : (nowMs - mLastRecordUptimeMs) * 1000;
+    mLastRecordUptimeMs = nowMs;
+    mRecords.write(source);
+    writeVarint(deltaMicros);
+    writeVarint(code);
+    writeVarint(arg & 0xffffffffL);
+    writeVarint(value & 0xffffffffL);
+  }
+
+  /** Returns the trace recorded so far, including its header. */
+  synchronized byte[] toByteArray() {
+    byte[] records = mRecords.toByteArray();
+    byte[] trace = new byte[8 + records.length];
+    writeInt(trace, 0, MAGIC);
+    writeInt(trace, 4, VERSION);
+    System.arraycopy(records, 0, trace, 8, records.length);
+    return trace;
+  }
+
+  /** Writes the trace recorded so far to a file. */
+  void writeTo(File file) throws IOException {
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(toByteArray());
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /** Discards the recorded events. */
+  synchronized void reset() {
+    mRecords.reset();
+    mLastRecordUptimeMs = -1;
+    mAdIds.clear();
+  }
+
+  private void writeVarint(long value) {
+    while ((value & ~0x7fL) != 0) {
+      mRecords.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    mRecords.write((int) value);
+  }
+
+  private static void writeInt(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,433 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import com.google.ads.interactivemedia.v3.api.Ad;
+import com.google.ads.interactivemedia.v3.api.AdError;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.AdPodInfo;
+import com.google.ads.interactivemedia.v3.api.player.AdMediaInfo;
+import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds a trace written by EventTraceRecorder back into a VideoPlayerController and its player, at
+ * the recorded pace or faster. The recorded inputs go through the same handlers as in the recorded
+ * session: ad events and ad errors to the AdsManager listeners, failed ad requests to the AdsLoader
+ * listener, and VideoAdPlayer calls and player events to the player. Content pauses and resumes as
+ * it did in the recorded session, so its transition latencies, and the time and memory the
+ * handlers take, can be compared across builds. Every record is also passed to the Listener.
+ * Replay runs on the main thread.
+ */
+final class EventTraceReplayer implements Handler.Callback {
+
+  /** Receives the replayed records, and the end of the replay. */
+  interface Listener {
+    void onReplayedRecord(int source, int code, int arg, int value);
+
+    void onReplayEnded();
+  }
+
+  private static final int DISPATCH = 0;
+
+  // Ads are replayed with a URL no player can load, as their players' events come from the trace.
+  private static final String REPLAYED_AD_URL_PREFIX = "replay://ad/";
+
+  private final int mRecordCount;
+  private final byte[] mSources;
+  private final int[] mCodes;
+  private final int[] mArgs;
+  private final int[] mValues;
+
+  // Time of each record since the start of the trace.
+  private final long[] mOffsetMicros;
+
+  private final VideoPlayerController mController;
+  private final VideoPlayerWithAdPlayback mPlayer;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper(), this);
+
+  // The ads of the replayed VideoAdPlayer calls, by their id in the trace.
+  private final SparseArray<AdMediaInfo> mAdMediaInfos = new SparseArray<AdMediaInfo>();
+
+  // Cue points read since the last loaded ads.
+  private final List<Float> mCuePoints = new ArrayList<Float>();
+
+  private int mNextRecord;
+  private long mStartUptimeMs;
+  private float mSpeed = 1f;
+  private boolean mRunning;
+
+  // Time spent and memory allocated handling the replayed records.
+  private long mDispatchNanos;
+  private long mAllocatedBytes;
+
+  /**
+   * Parses a trace for replay into a controller and its player.
+   *
+   * @throws IOException if the trace is not in a supported format.
+   */
+  EventTraceReplayer(
+      byte[] trace,
+      VideoPlayerController controller,
+      VideoPlayerWithAdPlayback player,
+      Listener listener)
+      throws IOException {
+    if (trace.length < 8
+        || readInt(trace, 0) != EventTraceRecorder.MAGIC
+        || readInt(trace, 4) != EventTraceRecorder.VERSION) {
+      throw new IOException("Unsupported event trace");
+    }
+    // Each record takes at least five bytes.
+    int capacity = (trace.length - 8) / 5;
+    byte[] sources = new byte[capacity];
+    int[] codes = new int[capacity];
+    int[] args = new int[capacity];
+    int[] values = new int[capacity];
+    long[] offsetMicros = new long[capacity];
+    int count = 0;
+    long offset = 0;
+    int[] position = {8};
+    while (position[0] < trace.length) {
+      if (count == capacity) {
+        throw new IOException("Malformed event trace");
+      }
+      sources[count] = trace[position[0]++];
+      offset += readVarint(trace, position);
+      offsetMicros[count] = offset;
+      codes[count] = (int) readVarint(trace, position);
+      args[count] = (int) readVarint(trace, position);
+      values[count] = (int) readVarint(trace, position);
+      count++;
+    }
+    mRecordCount = count;
+    mSources = sources;
+    mCodes = codes;
+    mArgs = args;
+    mValues = values;
+    mOffsetMicros = offsetMicros;
+    mController = controller;
+    mPlayer = player;
+    mListener = listener;
+  }
+
+  /** Reads a trace file for replay into a controller and its player. */
+  static EventTraceReplayer fromFile(
+      File file,
+      VideoPlayerController controller,
+      VideoPlayerWithAdPlayback player,
+      Listener listener)
+      throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+    ByteArrayOutputStream trace = new ByteArrayOutputStream((int) file.length());
+    try {
+      byte[] buffer = new byte[8192];
+      int length;
+      while ((length = inputStream.read(buffer)) != -1) {
+        trace.write(buffer, 0, length);
+      }
+    } finally {
+      inputStream.close();
+    }
+    return new EventTraceReplayer(trace.toByteArray(), controller, player, listener);
+  }
+
+  /** Returns the number of records in the trace. */
+  int getRecordCount() {
+    return mRecordCount;
+  }
+
+  /** Returns the time spent handling the records replayed so far, in nanoseconds. */
+  long getDispatchNanos() {
+    return mDispatchNanos;
+  }
+
+  /**
+   * Returns the memory allocated on the main thread while handling the records replayed so far, as
+   * counted by the runtime's allocation counting.
+   */
+  long getAllocatedBytes() {
+    return mAllocatedBytes;
+  }
+
+  /**
+   * Starts replaying from the beginning, with speed 1 for the recorded pace. The controller's
+   * content and ad tag must be set as for the recorded session, and the player's transition
+   * latencies are reset so they only cover the replay.
+   */
+  @SuppressWarnings("deprecation")
+  void start(float speed) {
+    stop();
+    mSpeed = speed;
+    mNextRecord = 0;
+    mDispatchNanos = 0;
+    mAllocatedBytes = 0;
+    mAdMediaInfos.clear();
+    mCuePoints.clear();
+    mPlayer.getTransitionLatencies().reset();
+    Debug.startAllocCounting();
+    mController.startReplay();
+    mRunning = true;
+    mStartUptimeMs = SystemClock.uptimeMillis();
+    scheduleNextRecord();
+  }
+
+  /** Stops the replay, and lets the players' own events through again. */
+  @SuppressWarnings("deprecation")
+  void stop() {
+    mHandler.removeMessages(DISPATCH);
+    if (mRunning) {
+      mRunning = false;
+      Debug.stopAllocCounting();
+      mController.stopReplay();
+    }
+  }
+
+  @Override
+  public boolean handleMessage(Message msg) {
+    if (msg.what != DISPATCH) {
+      return false;
+    }
+    // Dispatch every record that is due, so a late message doesn't drift the rest of the replay.
+    long elapsedMs = SystemClock.uptimeMillis() - mStartUptimeMs;
+    while (mNextRecord < mRecordCount && getDispatchOffsetMs(mNextRecord) <= elapsedMs) {
+      dispatchMeasured(mNextRecord++);
+    }
+    scheduleNextRecord();
+    return true;
+  }
+
+  private void scheduleNextRecord() {
+    if (mNextRecord >= mRecordCount) {
+      stop();
+      if (mListener != null) {
+        mListener.onReplayEnded();
+      }
+      return;
+    }
+    mHandler.sendEmptyMessageAtTime(DISPATCH, mStartUptimeMs + getDispatchOffsetMs(mNextRecord));
+  }
+
+  private long getDispatchOffsetMs(int record) {
+    return (long) (mOffsetMicros[record] / 1000 / mSpeed);
+  }
+
+  /** Dispatches a record, adding the time and memory it takes to the totals. */
+  @SuppressWarnings("deprecation")
+  private void dispatchMeasured(int record) {
+    long allocatedBytes = Debug.getThreadAllocSize();
+    long startNanos = System.nanoTime();
+    dispatch(record);
+    mDispatchNanos += System.nanoTime() - startNanos;
+    mAllocatedBytes += Debug.getThreadAllocSize() - allocatedBytes;
+  }
+
+  private void dispatch(int record) {
+    int source = mSources[record];
+    int code = mCodes[record];
+    int arg = mArgs[record];
+    int value = mValues[record];
+    switch (source) {
+      case EventTraceRecorder.SOURCE_AD_EVENT:
+        mController
+            .getAdEventListener()
+            .onAdEvent(new ReplayedAdEvent(AdEvent.AdEventType.values()[code]));
+        break;
+      case EventTraceRecorder.SOURCE_AD_ERROR:
+        mController.getAdErrorListener().onAdError(newAdErrorEvent(code, arg, null));
+        break;
+      case EventTraceRecorder.SOURCE_LOADER_ERROR:
+        mController
+            .getAdsLoaderErrorListener()
+            .onAdError(newAdErrorEvent(code, arg, mController.getReplayRequestContext()));
+        break;
+      case EventTraceRecorder.SOURCE_AD_DECISION:
+        dispatchAdDecision(code, value);
+        break;
+      case EventTraceRecorder.SOURCE_AD_PLAYER_CALL:
+        dispatchAdPlayerCall(code, arg, value);
+        break;
+      case EventTraceRecorder.SOURCE_PLAYER:
+        mPlayer.replayPlayerEvent(arg, code, value);
+        break;
+      default:
+        // VideoAdPlayer callbacks are what the player reports while it is replayed.
+        break;
+    }
+    if (mListener != null) {
+      mListener.onReplayedRecord(source, code, arg, value);
+    }
+  }
+
+  private void dispatchAdDecision(int code, int value) {
+    switch (code) {
+      case EventTraceRecorder.AD_DECISION_CUE_POINT:
+        mCuePoints.add(value < 0 ? -1f : value / 1000f);
+        break;
+      case EventTraceRecorder.AD_DECISION_LOADED:
+        mController.replayAdsLoaded(new ArrayList<Float>(mCuePoints));
+        mCuePoints.clear();
+        break;
+      case EventTraceRecorder.AD_DECISION_TIMED_OUT:
+        mController.replayAdDecisionTimedOut();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void dispatchAdPlayerCall(int code, int adId, int value) {
+    VideoAdPlayer videoAdPlayer = mPlayer.getVideoAdPlayer();
+    if (code == EventTraceRecorder.AD_PLAYER_CALL_RELEASE) {
+      videoAdPlayer.release();
+      return;
+    }
+    AdMediaInfo adMediaInfo = mAdMediaInfos.get(adId);
+    if (adMediaInfo == null) {
+      adMediaInfo = new AdMediaInfo(REPLAYED_AD_URL_PREFIX + adId);
+      mAdMediaInfos.put(adId, adMediaInfo);
+    }
+    switch (code) {
+      case EventTraceRecorder.AD_PLAYER_CALL_LOAD:
+        videoAdPlayer.loadAd(adMediaInfo, newAdPodInfo(value >>> 16, value & 0xffff));
+        break;
+      case EventTraceRecorder.AD_PLAYER_CALL_PLAY:
+        videoAdPlayer.playAd(adMediaInfo);
+        break;
+      case EventTraceRecorder.AD_PLAYER_CALL_PAUSE:
+        videoAdPlayer.pauseAd(adMediaInfo);
+        break;
+      case EventTraceRecorder.AD_PLAYER_CALL_STOP:
+        videoAdPlayer.stopAd(adMediaInfo);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static AdErrorEvent newAdErrorEvent(
+      int errorType, int errorCode, final Object userRequestContext) {
+    final AdError adError =
+        new AdError(
+            AdError.AdErrorType.values()[errorType],
+            AdError.AdErrorCode.values()[errorCode],
+            "Replayed ad error");
+    return new AdErrorEvent() {
+      @Override
+      public AdError getError() {
+        return adError;
+      }
+
+      @Override
+      public Object getUserRequestContext() {
+        return userRequestContext;
+      }
+    };
+  }
+
+  /**
+   * Returns the pod position of a replayed ad. Only the ad's position and the pod size are
+   * recorded; the other getters return zero or false.
+   */
+  private static AdPodInfo newAdPodInfo(final int adPosition, final int totalAds) {
+    return (AdPodInfo)
+        Proxy.newProxyInstance(
+            AdPodInfo.class.getClassLoader(),
+            new Class<?>[] {AdPodInfo.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                  case "getAdPosition":
+                    return adPosition;
+                  case "getTotalAds":
+                    return totalAds;
+                  case "equals":
+                    return proxy == args[0];
+                  case "hashCode":
+                    return System.identityHashCode(proxy);
+                  case "toString":
+                    return "AdPodInfo " + adPosition + "/" + totalAds;
+                  default:
+                    return getDefaultValue(method.getReturnType());
+                }
+              }
+            });
+  }
+
+  private static Object getDefaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == double.class) {
+      return 0d;
+    } else if (type == float.class) {
+      return 0f;
+    }
+    return null;
+  }
+
+  /** An ad event read from a trace, which carries only its type. */
+  private static final class ReplayedAdEvent implements AdEvent {
+    private final AdEventType mType;
+
+    ReplayedAdEvent(AdEventType type) {
+      mType = type;
+    }
+
+    @Override
+    public AdEventType getType() {
+      return mType;
+    }
+
+    @Override
+    public Ad getAd() {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getAdData() {
+      return null;
+    }
+  }
+
+  private static long readVarint(byte[] buffer, int[] position) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position[0] >= buffer.length) {
+        throw new IOException("Truncated event trace");
+      }
+      int b = buffer[position[0]++];
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed event trace");
+  }
+
+  private static int readInt(byte[] buffer, int offset) {
+    return (buffer[offset] & 0xff) << 24
+        | (buffer[offset + 1] & 0xff) << 16
+        | (buffer[offset + 2] & 0xff) << 8
+        | (buffer[offset + 3] & 0xff);
+  }
+}
@@ -0,0 +1,71 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import com.google.ads.interactivemedia.v3.api.AdDisplayContainer;
+import com.google.ads.interactivemedia.v3.api.AdsLoader;
+import com.google.ads.interactivemedia.v3.api.ImaSdkFactory;
+import com.google.ads.interactivemedia.v3.api.ImaSdkSettings;
+
+/**
+ * Process-wide IMA SDK setup. The SDK factory and settings are created once, ideally while the main
+ * thread is idle at application start, and used for the AdsLoader of every VideoPlayerController.
+ * Each controller still creates its own AdsLoader, because a loader renders into the display
+ * container it was created with for as long as its AdsManagers live. All methods must be called on
+ * the main thread.
+ */
+final class ImaSdkWarmUp {
+
+  private static ImaSdkWarmUp sInstance;
+
+  private final ImaSdkFactory mSdkFactory;
+  private final ImaSdkSettings mImaSdkSettings;
+
+  private ImaSdkWarmUp(Context context) {
+    mSdkFactory = ImaSdkFactory.getInstance();
+    mImaSdkSettings = mSdkFactory.createImaSdkSettings();
+    mImaSdkSettings.setLanguage(context.getString(R.string.ad_ui_lang));
+  }
+
+  /** Sets up the SDK the next time the main thread is idle. */
+  static void warmUp(Context context) {
+    final Context applicationContext = context.getApplicationContext();
+    runWhenIdle(
+        new Runnable() {
+          @Override
+          public void run() {
+            get(applicationContext);
+          }
+        });
+  }
+
+  /** Runs a task the next time the main thread is idle. */
+  static void runWhenIdle(final Runnable task) {
+    Looper.myQueue()
+        .addIdleHandler(
+            new MessageQueue.IdleHandler() {
+              @Override
+              public boolean queueIdle() {
+                task.run();
+                return false;
+              }
+            });
+  }
+
+  /** Returns the SDK setup, creating it if it wasn't warmed up yet. */
+  static ImaSdkWarmUp get(Context context) {
+    if (sInstance == null) {
+      sInstance = new ImaSdkWarmUp(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  /**
+   * Creates an AdsLoader rendering into the given display container. The container must stay bound
+   * to its views until the loader and every AdsManager it loaded are done.
+   */
+  AdsLoader createAdsLoader(Context context, AdDisplayContainer adDisplayContainer) {
+    return mSdkFactory.createAdsLoader(context, mImaSdkSettings, adDisplayContainer);
+  }
+}
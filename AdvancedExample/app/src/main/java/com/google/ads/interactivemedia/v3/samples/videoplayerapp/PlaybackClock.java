@@ -0,0 +1,88 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.SystemClock;
+import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+
+/**
+ * Publishes the playback position of a player so it can be read from any thread without calling
+ * into the player. The owner publishes a snapshot on the main thread whenever the playback state
+ * changes, and readers extrapolate the current position from the latest snapshot.
+ */
+final class PlaybackClock {
+
+  /** An immutable position sample, anchored to the time it was taken. */
+  private static final class Snapshot {
+    final long positionMs;
+    final long durationMs;
+    final long anchorRealtimeMs;
+    final float rate;
+
+    Snapshot(long positionMs, long durationMs, long anchorRealtimeMs, float rate) {
+      this.positionMs = positionMs;
+      this.durationMs = durationMs;
+      this.anchorRealtimeMs = anchorRealtimeMs;
+      this.rate = rate;
+    }
+  }
+
+  private static final Snapshot NOT_READY = new Snapshot(0, 0, 0, 0f);
+
+  private volatile Snapshot snapshot = NOT_READY;
+
+  /**
+   * Publishes the position and duration just read from the player. While playing, readers advance
+   * the position at normal speed until the next snapshot is published.
+   */
+  void publish(long positionMs, long durationMs, boolean playing) {
+    snapshot =
+        new Snapshot(
+            Math.max(positionMs, 0),
+            durationMs,
+            SystemClock.elapsedRealtime(),
+            playing ? 1f : 0f);
+  }
+
+  /** Publishes a new position, keeping the duration and playing state of the current snapshot. */
+  void publishPosition(long positionMs) {
+    Snapshot current = snapshot;
+    publish(positionMs, current.durationMs, current.rate > 0);
+  }
+
+  /** Publishes that nothing is loaded. */
+  void reset() {
+    snapshot = NOT_READY;
+  }
+
+  /** Returns if the latest snapshot was published while playing. */
+  boolean isPlaying() {
+    return snapshot.rate > 0;
+  }
+
+  /** Returns the extrapolated position in milliseconds, within the bounds of the duration. */
+  long getPositionMs() {
+    return extrapolate(snapshot);
+  }
+
+  /** Returns the published duration in milliseconds, or a value <= 0 if it isn't known. */
+  long getDurationMs() {
+    return snapshot.durationMs;
+  }
+
+  /** Returns the extrapolated progress, or VIDEO_TIME_NOT_READY if the duration isn't known. */
+  VideoProgressUpdate getProgress() {
+    Snapshot current = snapshot;
+    if (current.durationMs <= 0) {
+      return VideoProgressUpdate.VIDEO_TIME_NOT_READY;
+    }
+    return new VideoProgressUpdate(extrapolate(current), current.durationMs);
+  }
+
+  private static long extrapolate(Snapshot snapshot) {
+    long positionMs = snapshot.positionMs;
+    if (snapshot.rate > 0) {
+      positionMs +=
+          (long) ((SystemClock.elapsedRealtime() - snapshot.anchorRealtimeMs) * snapshot.rate);
+    }
+    return snapshot.durationMs > 0 ? Math.min(positionMs, snapshot.durationMs) : positionMs;
+  }
+}
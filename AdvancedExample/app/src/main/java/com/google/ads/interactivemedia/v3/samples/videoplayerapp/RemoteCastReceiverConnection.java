@@ -0,0 +1,150 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaLoadOptions;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient;
+import com.google.android.gms.cast.framework.media.RemoteMediaClient.MediaChannelResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import java.io.IOException;
+
+/** Connects to the receiver app of a Cast session, through the session's channel and media. */
+final class RemoteCastReceiverConnection
+    implements CastReceiverConnection,
+        Cast.MessageReceivedCallback,
+        RemoteMediaClient.ProgressListener {
+
+  private static final String NAMESPACE = "urn:x-cast:com.google.ads.ima.cast";
+  private static final String TAG = "ChromeCastDemoActivity";
+
+  private final CastSession mCastSession;
+  private Listener mListener;
+
+  // Set once disconnected, after which load results are dropped.
+  private boolean mDisconnected;
+
+  private final RemoteMediaClient.Callback mMediaStatusCallback =
+      new RemoteMediaClient.Callback() {
+        @Override
+        public void onStatusUpdated() {
+          RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
+          if (mListener == null || remoteMediaClient == null) {
+            return;
+          }
+          mListener.onMediaStatusUpdated(
+              remoteMediaClient.getPlayerState(), remoteMediaClient.isPlayingAd());
+        }
+      };
+
+  RemoteCastReceiverConnection(CastSession castSession) {
+    mCastSession = castSession;
+  }
+
+  @Override
+  public void connect(Listener listener, long progressPeriodMs) {
+    mListener = listener;
+    try {
+      mCastSession.setMessageReceivedCallbacks(NAMESPACE, this);
+    } catch (IOException e) {
+      Log.e(TAG, "Exception when creating channel", e);
+    }
+    RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
+    if (remoteMediaClient != null) {
+      remoteMediaClient.registerCallback(mMediaStatusCallback);
+      // A resumed session may already be playing, and report no status change for a while.
+      mMediaStatusCallback.onStatusUpdated();
+      remoteMediaClient.addProgressListener(this, progressPeriodMs);
+    }
+  }
+
+  @Override
+  public void disconnect() {
+    mDisconnected = true;
+    mListener = null;
+    RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
+    if (remoteMediaClient != null) {
+      remoteMediaClient.removeProgressListener(this);
+      remoteMediaClient.unregisterCallback(mMediaStatusCallback);
+    }
+    try {
+      mCastSession.removeMessageReceivedCallbacks(NAMESPACE);
+    } catch (IOException e) {
+      Log.e(TAG, "Exception when removing channel", e);
+    }
+  }
+
+  @Override
+  public boolean load(
+      MediaInfo mediaInfo, MediaLoadOptions mediaLoadOptions, final LoadCallback callback) {
+    try {
+      Log.d(TAG, "loading media");
+      mCastSession
+          .getRemoteMediaClient()
+          .load(mediaInfo, mediaLoadOptions)
+          .setResultCallback(
+              new ResultCallback<MediaChannelResult>() {
+                @Override
+                public void onResult(@NonNull MediaChannelResult mediaChannelResult) {
+                  if (!mDisconnected) {
+                    callback.onLoadResult(mediaChannelResult.getStatus());
+                  }
+                }
+              });
+      return true;
+    } catch (Exception e) {
+      Log.e(TAG, "Problem opening media during loading", e);
+      return false;
+    }
+  }
+
+  @Override
+  public void sendMessage(String message) {
+    try {
+      Log.d(TAG, "Sending message: " + message);
+      mCastSession
+          .sendMessage(NAMESPACE, message)
+          .setResultCallback(
+              new ResultCallback<Status>() {
+                @Override
+                public void onResult(Status result) {
+                  if (!result.isSuccess()) {
+                    Log.e(TAG, "Sending message failed");
+                  }
+                }
+              });
+    } catch (Exception e) {
+      Log.e(TAG, "Exception while sending message", e);
+    }
+  }
+
+  @Override
+  public long getApproximateStreamPosition() {
+    RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
+    return remoteMediaClient != null ? remoteMediaClient.getApproximateStreamPosition() : 0;
+  }
+
+  @Override
+  public long getStreamDuration() {
+    RemoteMediaClient remoteMediaClient = mCastSession.getRemoteMediaClient();
+    return remoteMediaClient != null ? remoteMediaClient.getStreamDuration() : -1;
+  }
+
+  @Override
+  public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
+    if (mListener != null) {
+      mListener.onMessageReceived(message);
+    }
+  }
+
+  @Override
+  public void onProgressUpdated(long progressMs, long durationMs) {
+    if (mListener != null) {
+      mListener.onProgressUpdated(progressMs, durationMs);
+    }
+  }
+}
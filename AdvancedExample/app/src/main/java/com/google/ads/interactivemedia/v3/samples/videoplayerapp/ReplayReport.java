@@ -0,0 +1,127 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Summary of an event trace replay: the transition latencies of the player, and the time and
+ * memory spent handling the replayed records. Reports are saved as properties files, so the report
+ * of one build can be compared with a baseline saved by an earlier build replaying the same trace.
+ */
+final class ReplayReport {
+
+  private static final String RECORDS = "records";
+  private static final String DISPATCH_NANOS = "dispatchNanos";
+  private static final String ALLOCATED_BYTES = "allocatedBytes";
+
+  // Keys of the values of each transition, after its name and a dot.
+  private static final String COUNT = "count";
+  private static final String MEAN_NANOS = "meanNanos";
+  private static final String P50_NANOS = "p50Nanos";
+  private static final String P95_NANOS = "p95Nanos";
+
+  private final Properties mValues;
+
+  private ReplayReport(Properties values) {
+    mValues = values;
+  }
+
+  /** Creates the report of a finished replay into a player with the given latencies. */
+  static ReplayReport create(EventTraceReplayer replayer, TransitionLatencyTracker latencies) {
+    Properties values = new Properties();
+    values.setProperty(RECORDS, Long.toString(replayer.getRecordCount()));
+    values.setProperty(DISPATCH_NANOS, Long.toString(replayer.getDispatchNanos()));
+    values.setProperty(ALLOCATED_BYTES, Long.toString(replayer.getAllocatedBytes()));
+    for (TransitionLatencyTracker.Transition transition :
+        TransitionLatencyTracker.Transition.values()) {
+      TransitionLatencyTracker.Histogram histogram = latencies.getHistogram(transition);
+      String prefix = transition.name() + ".";
+      values.setProperty(prefix + COUNT, Long.toString(histogram.getCount()));
+      values.setProperty(prefix + MEAN_NANOS, Long.toString(histogram.getMeanNanos()));
+      values.setProperty(prefix + P50_NANOS, Long.toString(histogram.getPercentileNanos(50)));
+      values.setProperty(prefix + P95_NANOS, Long.toString(histogram.getPercentileNanos(95)));
+    }
+    return new ReplayReport(values);
+  }
+
+  /** Reads a report written by writeTo. */
+  static ReplayReport readFrom(File file) throws IOException {
+    Properties values = new Properties();
+    InputStream inputStream = new FileInputStream(file);
+    try {
+      values.load(inputStream);
+    } finally {
+      inputStream.close();
+    }
+    return new ReplayReport(values);
+  }
+
+  /** Writes the report to a file. */
+  void writeTo(File file) throws IOException {
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      mValues.store(outputStream, "Event trace replay report");
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Returns one line per value, comparing the baseline's value with this report's, and the change
+   * in percent. Values missing from either report are compared with 0.
+   */
+  List<String> compareTo(ReplayReport baseline) {
+    List<String> lines = new ArrayList<String>();
+    lines.add(baseline.compare(this, RECORDS, 1, ""));
+    lines.add(baseline.compare(this, DISPATCH_NANOS, 1000000, "ms"));
+    lines.add(baseline.compare(this, ALLOCATED_BYTES, 1024, "KB"));
+    for (TransitionLatencyTracker.Transition transition :
+        TransitionLatencyTracker.Transition.values()) {
+      String prefix = transition.name() + ".";
+      lines.add(baseline.compare(this, prefix + COUNT, 1, ""));
+      lines.add(baseline.compare(this, prefix + MEAN_NANOS, 1000000, "ms"));
+      lines.add(baseline.compare(this, prefix + P50_NANOS, 1000000, "ms"));
+      lines.add(baseline.compare(this, prefix + P95_NANOS, 1000000, "ms"));
+    }
+    return lines;
+  }
+
+  private String compare(ReplayReport change, String key, double divisor, String unit) {
+    long baselineValue = getValue(key);
+    long changeValue = change.getValue(key);
+    String line =
+        String.format(
+            Locale.US,
+            "%s: %.1f%s -> %.1f%s",
+            key,
+            baselineValue / divisor,
+            unit,
+            changeValue / divisor,
+            unit);
+    if (baselineValue == 0) {
+      return line;
+    }
+    return String.format(
+        Locale.US, "%s (%+.1f%%)", line, (changeValue - baselineValue) * 100.0 / baselineValue);
+  }
+
+  private long getValue(String key) {
+    String value = mValues.getProperty(key);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
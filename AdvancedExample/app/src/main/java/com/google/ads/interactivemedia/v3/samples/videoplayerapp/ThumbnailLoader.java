@@ -0,0 +1,347 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads video thumbnails into ImageViews off the main thread. Images are decoded downsampled to
+ * the size they are shown at and kept in a memory cache bounded by bytes. Remote images are also
+ * kept in a bounded disk cache, so they are downloaded once. Loading another image into a view
+ * cancels the request it had, so recycled rows never show a stale thumbnail.
+ */
+final class ThumbnailLoader {
+
+  private static final String TAG = "ThumbnailLoader";
+
+  // Number of threads decoding and downloading thumbnails.
+  private static final int THREAD_COUNT = 2;
+
+  // Share of the app's heap the memory cache may use.
+  private static final int MEMORY_CACHE_HEAP_DIVISOR = 8;
+
+  // Most bytes of downloaded images kept on disk.
+  private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+  private static final int CONNECT_TIMEOUT_MS = 10000;
+  private static final int READ_TIMEOUT_MS = 10000;
+
+  // Suffix of files still being downloaded, which don't count towards the disk cache.
+  private static final String PART_FILE_SUFFIX = ".part";
+
+  // How long a partial download can go unwritten before it is taken as left over from a download
+  // that never finished.
+  private static final long STALE_PART_FILE_MS = 5 * 60 * 1000;
+
+  private static ThumbnailLoader sInstance;
+
+  private final Resources mResources;
+  private final File mDiskCacheDir;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+  private final LruCache<String, Bitmap> mMemoryCache;
+
+  // Bytes in the disk cache, or -1 until it has been measured. Guarded by this loader, which is
+  // only held to update it and to evict files, never while downloading.
+  private long mDiskCacheBytes = -1;
+
+  /** A pending load of one image into one view. */
+  private final class Request implements Runnable {
+    final ImageView view;
+    final String key;
+    final int resourceId;
+    final String url;
+    final int width;
+    final int height;
+    Future<?> future;
+
+    Request(ImageView view, String key, int resourceId, String url, int width, int height) {
+      this.view = view;
+      this.key = key;
+      this.resourceId = resourceId;
+      this.url = url;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public void run() {
+      final Bitmap bitmap = url != null ? loadUrl(url, width, height) : decodeResource(this);
+      if (bitmap == null) {
+        return;
+      }
+      mMemoryCache.put(key, bitmap);
+      mHandler.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              // The view may have been rebound to another image since.
+              if (view.getTag(R.id.thumbnailRequest) == Request.this) {
+                view.setTag(R.id.thumbnailRequest, null);
+                view.setImageBitmap(bitmap);
+              }
+            }
+          });
+    }
+  }
+
+  private ThumbnailLoader(Context context) {
+    mResources = context.getResources();
+    mDiskCacheDir = new File(context.getCacheDir(), "thumbnails");
+    int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_DIVISOR);
+    mMemoryCache =
+        new LruCache<String, Bitmap>(maxBytes) {
+          @Override
+          protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+          }
+        };
+  }
+
+  /** Returns the shared loader. Call on the main thread. */
+  static ThumbnailLoader get(Context context) {
+    if (sInstance == null) {
+      sInstance = new ThumbnailLoader(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  /** Loads an image resource into the view, decoded for the given size in pixels. */
+  void load(ImageView view, int resourceId, int width, int height) {
+    load(view, "res:" + resourceId, resourceId, null, width, height);
+  }
+
+  /** Loads a remote image into the view, decoded for the given size in pixels. */
+  void load(ImageView view, String url, int width, int height) {
+    load(view, url, 0, url, width, height);
+  }
+
+  private void load(
+      ImageView view, String source, int resourceId, String url, int width, int height) {
+    String key = source + "@" + width + "x" + height;
+    Object tag = view.getTag(R.id.thumbnailRequest);
+    if (tag instanceof Request && ((Request) tag).key.equals(key)) {
+      return;
+    }
+    cancel(view);
+    Bitmap bitmap = mMemoryCache.get(key);
+    if (bitmap != null) {
+      view.setImageBitmap(bitmap);
+      return;
+    }
+    view.setImageDrawable(null);
+    Request request = new Request(view, key, resourceId, url, width, height);
+    view.setTag(R.id.thumbnailRequest, request);
+    request.future = mExecutor.submit(request);
+  }
+
+  /** Cancels the pending load into the view, if any. */
+  void cancel(ImageView view) {
+    Object tag = view.getTag(R.id.thumbnailRequest);
+    if (tag instanceof Request) {
+      ((Request) tag).future.cancel(false);
+      view.setTag(R.id.thumbnailRequest, null);
+    }
+  }
+
+  private Bitmap decodeResource(Request request) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeResource(mResources, request.resourceId, options);
+    setDecodeOptions(options, request.width, request.height);
+    return BitmapFactory.decodeResource(mResources, request.resourceId, options);
+  }
+
+  private Bitmap loadUrl(String url, int width, int height) {
+    File file = new File(mDiskCacheDir, hash(url));
+    if (file.exists()) {
+      // Keep recently used files from being evicted first.
+      file.setLastModified(System.currentTimeMillis());
+    } else if (!download(url, file)) {
+      return null;
+    }
+    // If another thread evicted the file since, decoding fails and the view stays empty until it
+    // is bound again.
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(file.getPath(), options);
+    setDecodeOptions(options, width, height);
+    return BitmapFactory.decodeFile(file.getPath(), options);
+  }
+
+  /**
+   * Downloads the URL into the disk cache, evicting the least recently used files over budget. The
+   * download goes to a partial file of its own, so several threads can download at once, even the
+   * same URL.
+   */
+  private boolean download(String url, File file) {
+    if (!mDiskCacheDir.mkdirs() && !mDiskCacheDir.isDirectory()) {
+      return false;
+    }
+    File partFile;
+    try {
+      partFile = File.createTempFile(file.getName(), PART_FILE_SUFFIX, mDiskCacheDir);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to create a file for " + url, e);
+      return false;
+    }
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+      connection.setReadTimeout(READ_TIMEOUT_MS);
+      InputStream input = connection.getInputStream();
+      OutputStream output = new FileOutputStream(partFile);
+      try {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+          output.write(buffer, 0, count);
+        }
+      } finally {
+        output.close();
+        input.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to download " + url, e);
+      partFile.delete();
+      return false;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+    addToDiskCache(partFile, file);
+    return file.exists();
+  }
+
+  /** Moves a finished download into the disk cache, and evicts files until it is within budget. */
+  private synchronized void addToDiskCache(File partFile, File file) {
+    if (file.exists()) {
+      // Another thread downloaded the same URL first.
+      partFile.delete();
+      return;
+    }
+    if (!partFile.renameTo(file)) {
+      partFile.delete();
+      return;
+    }
+    if (mDiskCacheBytes < 0) {
+      mDiskCacheBytes = 0;
+      for (File cachedFile : listCachedFiles()) {
+        mDiskCacheBytes += cachedFile.length();
+      }
+      deleteStalePartFiles();
+    } else {
+      mDiskCacheBytes += file.length();
+    }
+    trimDiskCache(file);
+  }
+
+  private void trimDiskCache(File keptFile) {
+    if (mDiskCacheBytes <= MAX_DISK_CACHE_BYTES) {
+      return;
+    }
+    File[] files = listCachedFiles();
+    Arrays.sort(
+        files,
+        new Comparator<File>() {
+          @Override
+          public int compare(File a, File b) {
+            long difference = a.lastModified() - b.lastModified();
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+          }
+        });
+    for (File file : files) {
+      if (mDiskCacheBytes <= MAX_DISK_CACHE_BYTES) {
+        break;
+      }
+      if (!file.equals(keptFile)) {
+        long length = file.length();
+        if (file.delete()) {
+          mDiskCacheBytes -= length;
+        }
+      }
+    }
+  }
+
+  /** Lists the files in the disk cache, leaving out downloads in progress. */
+  private File[] listCachedFiles() {
+    File[] files =
+        mDiskCacheDir.listFiles(
+            new FilenameFilter() {
+              @Override
+              public boolean accept(File dir, String name) {
+                return !name.endsWith(PART_FILE_SUFFIX);
+              }
+            });
+    return files != null ? files : new File[0];
+  }
+
+  /** Deletes partial files left by downloads that were interrupted, such as by the app exiting. */
+  private void deleteStalePartFiles() {
+    File[] files = mDiskCacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long staleBeforeMs = System.currentTimeMillis() - STALE_PART_FILE_MS;
+    for (File file : files) {
+      if (file.getName().endsWith(PART_FILE_SUFFIX) && file.lastModified() < staleBeforeMs) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Sets the options to decode the image measured into them at the smallest power of two
+   * downsampling that still covers the requested size.
+   */
+  private static void setDecodeOptions(BitmapFactory.Options options, int width, int height) {
+    int sampleSize = 1;
+    if (width > 0 && height > 0) {
+      while (options.outWidth / (sampleSize * 2) >= width
+          && options.outHeight / (sampleSize * 2) >= height) {
+        sampleSize *= 2;
+      }
+    }
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize;
+    // Decode at the sampled size, without scaling for the screen density.
+    options.inScaled = false;
+    options.inPreferredConfig = Bitmap.Config.RGB_565;
+  }
+
+  private static String hash(String url) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+      StringBuilder builder = new StringBuilder(2 * digest.length);
+      for (byte b : digest) {
+        builder.append(String.format("%02x", b & 0xff));
+      }
+      return builder.toString();
+    } catch (NoSuchAlgorithmException | IOException e) {
+      return Integer.toHexString(url.hashCode());
+    }
+  }
+}
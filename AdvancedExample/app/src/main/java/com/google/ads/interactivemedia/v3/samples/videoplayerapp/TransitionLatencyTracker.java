@@ -0,0 +1,180 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records how long the transitions between content and ad playback take, using monotonic
+ * timestamps. Transitions are recorded on the main thread and can be queried from any thread.
+ */
+public final class TransitionLatencyTracker {
+
+  /** The transitions that are timed. */
+  public enum Transition {
+    /** From pausing content for an ad break to the first ad starting to play. */
+    CONTENT_PAUSE_TO_AD_PLAY,
+    /** From the last ad of a break completing to content playing again. */
+    AD_COMPLETE_TO_CONTENT_PLAY,
+    /** From an ad being loaded to its player being prepared. */
+    AD_LOAD_TO_PREPARED,
+    /**
+     * From a Cast session ending to content playing locally again, including any ad break
+     * requested on the way.
+     */
+    CAST_DISCONNECT_TO_CONTENT_PLAY
+  }
+
+  /**
+   * Latency distribution of one transition. Samples are counted in power-of-two buckets of
+   * nanoseconds, so percentiles are accurate to within a factor of two.
+   */
+  public static final class Histogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final long[] mBucketCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mTotalNanos;
+    private long mMinNanos = Long.MAX_VALUE;
+    private long mMaxNanos;
+
+    private Histogram() {}
+
+    synchronized void record(long nanos) {
+      long sample = Math.max(nanos, 1);
+      mBucketCounts[63 - Long.numberOfLeadingZeros(sample)]++;
+      mCount++;
+      mTotalNanos += sample;
+      mMinNanos = Math.min(mMinNanos, sample);
+      mMaxNanos = Math.max(mMaxNanos, sample);
+    }
+
+    /** Returns the number of recorded samples. */
+    public synchronized long getCount() {
+      return mCount;
+    }
+
+    /** Returns the shortest recorded latency in nanoseconds, or 0 if nothing was recorded. */
+    public synchronized long getMinNanos() {
+      return mCount == 0 ? 0 : mMinNanos;
+    }
+
+    /** Returns the longest recorded latency in nanoseconds. */
+    public synchronized long getMaxNanos() {
+      return mMaxNanos;
+    }
+
+    /** Returns the mean latency in nanoseconds, or 0 if nothing was recorded. */
+    public synchronized long getMeanNanos() {
+      return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile (0-100) of the recorded latencies in
+     * nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+      if (mCount == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(mCount * Math.min(Math.max(percentile, 0), 100) / 100.0);
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+        seen += mBucketCounts[bucket];
+        if (seen >= Math.max(rank, 1)) {
+          // The bucket holds samples in [2^bucket, 2^(bucket + 1)).
+          long bucketUpperBound = bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << (bucket + 1);
+          return Math.min(bucketUpperBound, mMaxNanos);
+        }
+      }
+      return mMaxNanos;
+    }
+
+    synchronized void reset() {
+      Arrays.fill(mBucketCounts, 0);
+      mCount = 0;
+      mTotalNanos = 0;
+      mMinNanos = Long.MAX_VALUE;
+      mMaxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return "count="
+          + mCount
+          + " mean="
+          + getMeanNanos() / 1000000
+          + "ms p50="
+          + getPercentileNanos(50) / 1000000
+          + "ms p95="
+          + getPercentileNanos(95) / 1000000
+          + "ms max="
+          + mMaxNanos / 1000000
+          + "ms";
+    }
+  }
+
+  private final Map<Transition, Histogram> mHistograms =
+      new EnumMap<Transition, Histogram>(Transition.class);
+
+  // Start timestamps of the transitions in progress, or 0 if a transition isn't in progress.
+  private final long[] mStartNanos = new long[Transition.values().length];
+
+  TransitionLatencyTracker() {
+    for (Transition transition : Transition.values()) {
+      mHistograms.put(transition, new Histogram());
+    }
+  }
+
+  /** Returns the current monotonic timestamp used for recording transitions. */
+  static long now() {
+    return System.nanoTime();
+  }
+
+  /** Marks the start of a transition, replacing any start that hasn't been ended. */
+  void start(Transition transition) {
+    mStartNanos[transition.ordinal()] = now();
+  }
+
+  /**
+   * Marks the end of a transition and records its latency, however long it took. Transitions that
+   * are abandoned along the way must be cancelled, so they aren't recorded when an unrelated event
+   * ends them.
+   */
+  void end(Transition transition) {
+    long startNanos = mStartNanos[transition.ordinal()];
+    if (startNanos == 0) {
+      return;
+    }
+    mStartNanos[transition.ordinal()] = 0;
+    record(transition, now() - startNanos);
+  }
+
+  /** Abandons a started transition, so a later unrelated event doesn't end it. */
+  void cancel(Transition transition) {
+    mStartNanos[transition.ordinal()] = 0;
+  }
+
+  /** Abandons all started transitions. */
+  void cancelAll() {
+    Arrays.fill(mStartNanos, 0);
+  }
+
+  /** Records a latency measured by the caller, for transitions that can overlap. */
+  void record(Transition transition, long nanos) {
+    mHistograms.get(transition).record(nanos);
+  }
+
+  /** Returns the latency distribution of the given transition. */
+  public Histogram getHistogram(Transition transition) {
+    return mHistograms.get(transition);
+  }
+
+  /** Discards all recorded latencies. */
+  public void reset() {
+    for (Histogram histogram : mHistograms.values()) {
+      histogram.reset();
+    }
+  }
+}
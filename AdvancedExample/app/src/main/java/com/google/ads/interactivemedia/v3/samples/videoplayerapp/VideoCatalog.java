@@ -0,0 +1,14 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.util.List;
+
+/** Supplies the videos of the playlist a page at a time, so large catalogs load incrementally. */
+public interface VideoCatalog {
+
+  /**
+   * Returns up to count videos starting at the given offset, and fewer once the end of the catalog
+   * is reached. Called on a background thread. A page that fails to load can throw a
+   * RuntimeException, and is requested again when the list next scrolls near its end.
+   */
+  List<VideoItem> loadPage(int offset, int count);
+}
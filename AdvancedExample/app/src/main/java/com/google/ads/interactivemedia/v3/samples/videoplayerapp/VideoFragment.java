@@ -1,5 +1,6 @@
 package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
 
+import android.content.Intent;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -11,11 +12,40 @@ import android.widget.TextView;
 import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.constraintlayout.widget.ConstraintSet;
 import androidx.fragment.app.Fragment;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 /** The main fragment for displaying video content. */
 public class VideoFragment extends Fragment {
 
+  /**
+   * Boolean intent extra of the activity that records each playback into an event trace, saved in
+   * the app's files when the fragment pauses.
+   */
+  public static final String EXTRA_RECORD_EVENT_TRACE = "recordEventTrace";
+
+  /**
+   * Float intent extra of the activity that makes Play replay the saved event trace at the given
+   * speed instead of requesting ads. The first replay's report is saved as the baseline, which
+   * later replays, for example by another build, are compared with in the log.
+   */
+  public static final String EXTRA_REPLAY_EVENT_TRACE_SPEED = "replayEventTraceSpeed";
+
+  private static final String LOG_TAG = "ImaExample";
+  private static final String EVENT_TRACE_FILE = "event_trace.bin";
+  private static final String REPLAY_BASELINE_FILE = "replay_baseline.properties";
+  private static final String REPLAY_REPORT_FILE = "replay_report.properties";
+
   private VideoPlayerController mVideoPlayerController;
+  private VideoPlayerWithAdPlayback mVideoPlayerWithAdPlayback;
+  private EventTraceRecorder mEventRecorder;
+  private EventTraceReplayer mEventTraceReplayer;
+  private BufferedLogger mLogger;
+
+  // Whether logged events are only counted, as set with setLogCountersOnly.
+  private boolean mLogCountersOnly;
   private VideoItem mVideoItem;
   private TextView mVideoTitle;
   private ScrollView mVideoExampleLayout;
@@ -48,14 +78,18 @@ public class VideoFragment extends Fragment {
       return;
     }
     mVideoItem = videoItem;
-    mVideoPlayerController.setContentVideo(mVideoItem.getVideoUrl());
-    mVideoPlayerController.setAdTagUrl(videoItem.getAdTagUrl());
+    mVideoPlayerController.setVideoItem(videoItem);
+    // Request the ads while the user decides to play, so they are ready when play is tapped.
+    mVideoPlayerController.prefetchAds(videoItem);
     mVideoTitle.setText(videoItem.getTitle());
   }
 
   private void initUi(View rootView) {
-    VideoPlayerWithAdPlayback mVideoPlayerWithAdPlayback =
-        rootView.findViewById(R.id.videoPlayerWithAdPlayback);
+    mVideoPlayerWithAdPlayback = rootView.findViewById(R.id.videoPlayerWithAdPlayback);
+    // Buffer the next ad of a pod while the current one plays.
+    mVideoPlayerWithAdPlayback.setPreloadingEnabled(true);
+    // Resume content after mid-rolls without reloading it.
+    mVideoPlayerWithAdPlayback.setKeepContentAlive(true);
     View playButton = rootView.findViewById(R.id.playButton);
     View playPauseToggle = rootView.findViewById(R.id.videoContainer);
     ViewGroup companionAdSlot = rootView.findViewById(R.id.companionAdSlot);
@@ -73,19 +107,12 @@ public class VideoFragment extends Fragment {
     forceHeight.constrainHeight(R.id.dummyScrollContent, displayMetrics.heightPixels);
     forceHeight.applyTo(constraintLayout);
 
-    final TextView logText = rootView.findViewById(R.id.logText);
+    TextView logText = rootView.findViewById(R.id.logText);
 
-    // Provide an implementation of a logger so we can output SDK events to the UI.
-    VideoPlayerController.Logger logger =
-        new VideoPlayerController.Logger() {
-          @Override
-          public void log(String message) {
-            Log.i("ImaExample", message);
-            if (logText != null) {
-              logText.append(message);
-            }
-          }
-        };
+    // Provide an implementation of a logger so we can output SDK events to the UI. Messages are
+    // batched and written out once per frame.
+    mLogger = new BufferedLogger("ImaExample", logText);
+    mLogger.setCountersOnly(mLogCountersOnly);
 
     mVideoPlayerController =
         new VideoPlayerController(
@@ -93,9 +120,24 @@ public class VideoFragment extends Fragment {
             mVideoPlayerWithAdPlayback,
             playButton,
             playPauseToggle,
-            getString(R.string.ad_ui_lang),
             companionAdSlot,
-            logger);
+            mLogger);
+
+    Intent intent = getActivity().getIntent();
+    if (intent.getBooleanExtra(EXTRA_RECORD_EVENT_TRACE, false)) {
+      mEventRecorder = new EventTraceRecorder();
+      mVideoPlayerController.setEventRecorder(mEventRecorder);
+    }
+    final float replaySpeed = intent.getFloatExtra(EXTRA_REPLAY_EVENT_TRACE_SPEED, 0);
+    if (replaySpeed > 0) {
+      playButton.setOnClickListener(
+          new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+              replayEventTrace(replaySpeed);
+            }
+          });
+    }
 
     // If we've already selected a video, load it now.
     if (mVideoItem != null) {
@@ -103,6 +145,55 @@ public class VideoFragment extends Fragment {
     }
   }
 
+  /** Replays the saved event trace into the controller, instead of requesting ads. */
+  private void replayEventTrace(float speed) {
+    File traceFile = new File(getActivity().getFilesDir(), EVENT_TRACE_FILE);
+    try {
+      mEventTraceReplayer =
+          EventTraceReplayer.fromFile(
+              traceFile,
+              mVideoPlayerController,
+              mVideoPlayerWithAdPlayback,
+              new EventTraceReplayer.Listener() {
+                @Override
+                public void onReplayedRecord(int source, int code, int arg, int value) {}
+
+                @Override
+                public void onReplayEnded() {
+                  reportReplay();
+                }
+              });
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Can't replay " + traceFile, e);
+      return;
+    }
+    mEventTraceReplayer.start(speed);
+  }
+
+  /**
+   * Compares the finished replay with the saved baseline in the log, or saves it as the baseline if
+   * there is none yet.
+   */
+  private void reportReplay() {
+    ReplayReport report =
+        ReplayReport.create(
+            mEventTraceReplayer, mVideoPlayerWithAdPlayback.getTransitionLatencies());
+    File baselineFile = new File(getActivity().getFilesDir(), REPLAY_BASELINE_FILE);
+    try {
+      if (!baselineFile.exists()) {
+        report.writeTo(baselineFile);
+        Log.i(LOG_TAG, "Saved replay baseline " + baselineFile);
+        return;
+      }
+      report.writeTo(new File(getActivity().getFilesDir(), REPLAY_REPORT_FILE));
+      for (String line : report.compareTo(ReplayReport.readFrom(baselineFile))) {
+        Log.i(LOG_TAG, "Replay vs baseline: " + line);
+      }
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Can't save the replay report", e);
+    }
+  }
+
   /** Shows or hides all non-video UI elements to make the video as large as possible. */
   public void makeFullscreen(boolean isFullscreen) {
     for (int i = 0; i < mVideoExampleLayout.getChildCount(); i++) {
@@ -118,6 +209,25 @@ public class VideoFragment extends Fragment {
     }
   }
 
+  /**
+   * Sets whether logged events are only counted instead of written to logcat and the UI. They are
+   * written out by default.
+   */
+  public void setLogCountersOnly(boolean countersOnly) {
+    mLogCountersOnly = countersOnly;
+    if (mLogger != null) {
+      mLogger.setCountersOnly(countersOnly);
+    }
+  }
+
+  /**
+   * Returns how many times each event was logged, keyed by event type or message, or an empty map
+   * before the view is created.
+   */
+  public Map<String, Integer> getLogCounts() {
+    return mLogger != null ? mLogger.getCounts() : Collections.<String, Integer>emptyMap();
+  }
+
   public VideoPlayerController getVideoPlayerController() {
     return mVideoPlayerController;
   }
@@ -127,6 +237,15 @@ public class VideoFragment extends Fragment {
     if (mVideoPlayerController != null) {
       mVideoPlayerController.pause();
     }
+    if (mEventRecorder != null) {
+      // Traces are a few kilobytes, so they are saved right away.
+      File traceFile = new File(getActivity().getFilesDir(), EVENT_TRACE_FILE);
+      try {
+        mEventRecorder.writeTo(traceFile);
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Can't save " + traceFile, e);
+      }
+    }
     super.onPause();
   }
 
@@ -140,9 +259,15 @@ public class VideoFragment extends Fragment {
 
   @Override
   public void onDestroy() {
+    if (mEventTraceReplayer != null) {
+      mEventTraceReplayer.stop();
+    }
     if (mVideoPlayerController != null) {
       mVideoPlayerController.destroy();
     }
+    if (mLogger != null) {
+      mLogger.release();
+    }
     super.onDestroy();
   }
 
@@ -1,29 +1,62 @@
 package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
 
+import java.util.Arrays;
+
 /** Information about a video playlist item that the user will select in a playlist. */
 public final class VideoItem {
 
+  private final long mId;
   private final int mThumbnailResourceId;
+  private final String mThumbnailUrl;
   private final String mTitle;
   private final String mVideoUrl;
   private final String mAdTagUrl;
   private final boolean mIsVmap;
 
   public VideoItem(
-      String videoUrl, String title, String adTagUrl, int thumbnailResourceId, boolean isVmap) {
+      long id,
+      String videoUrl,
+      String title,
+      String adTagUrl,
+      int thumbnailResourceId,
+      boolean isVmap) {
+    this(id, videoUrl, title, adTagUrl, thumbnailResourceId, null, isVmap);
+  }
+
+  /** Creates a video item whose thumbnail is downloaded from thumbnailUrl, if it isn't null. */
+  public VideoItem(
+      long id,
+      String videoUrl,
+      String title,
+      String adTagUrl,
+      int thumbnailResourceId,
+      String thumbnailUrl,
+      boolean isVmap) {
     super();
+    mId = id;
     mThumbnailResourceId = thumbnailResourceId;
+    mThumbnailUrl = thumbnailUrl;
     mTitle = title;
     mAdTagUrl = adTagUrl;
     mVideoUrl = videoUrl;
     mIsVmap = isVmap;
   }
 
+  /** Returns the ID of the video in its catalog, which stays the same while the item is listed. */
+  public long getId() {
+    return mId;
+  }
+
   /** Returns the video thumbnail image resource. */
   public int getImageResource() {
     return mThumbnailResourceId;
   }
 
+  /** Returns the URL of the video thumbnail image, or null to use the image resource. */
+  public String getImageUrl() {
+    return mThumbnailUrl;
+  }
+
   /** Returns the title of the video item. */
   public String getTitle() {
     return mTitle;
@@ -43,4 +76,34 @@ public final class VideoItem {
   public boolean getIsVmap() {
     return mIsVmap;
   }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof VideoItem)) {
+      return false;
+    }
+    VideoItem videoItem = (VideoItem) other;
+    return mId == videoItem.mId
+        && mThumbnailResourceId == videoItem.mThumbnailResourceId
+        && mIsVmap == videoItem.mIsVmap
+        && equal(mThumbnailUrl, videoItem.mThumbnailUrl)
+        && equal(mTitle, videoItem.mTitle)
+        && equal(mVideoUrl, videoItem.mVideoUrl)
+        && equal(mAdTagUrl, videoItem.mAdTagUrl);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(
+        new Object[] {
+          mId, mThumbnailResourceId, mThumbnailUrl, mTitle, mVideoUrl, mAdTagUrl, mIsVmap
+        });
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
 }
@@ -1,53 +1,118 @@
 package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.View.MeasureSpec;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
-import java.util.List;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
-/** Renders VideoItems into a GridView for displaying videos in a playlist format. */
-public class VideoItemAdapter extends ArrayAdapter<VideoItem> {
+/**
+ * Renders VideoItems into a RecyclerView for displaying videos in a playlist format. New lists are
+ * diffed against the current one on a background thread, so only the rows that changed are rebound.
+ * Thumbnails are loaded asynchronously at the size of the row's image.
+ */
+public class VideoItemAdapter extends ListAdapter<VideoItem, VideoItemAdapter.VideoItemHolder> {
 
-  private int mLayoutResourceId;
+  /** Listener called when the user clicks a video item. */
+  public interface OnVideoItemClickListener {
+    void onVideoItemClick(VideoItem videoItem);
+  }
+
+  // Items with the same ID are the same video, and only need rebinding if they changed.
+  private static final DiffUtil.ItemCallback<VideoItem> DIFF_CALLBACK =
+      new DiffUtil.ItemCallback<VideoItem>() {
+        @Override
+        public boolean areItemsTheSame(VideoItem oldItem, VideoItem newItem) {
+          return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(VideoItem oldItem, VideoItem newItem) {
+          return oldItem.equals(newItem);
+        }
+      };
+
+  private final int mLayoutResourceId;
+  private final OnVideoItemClickListener mClickListener;
+
+  // Size of the thumbnail images in pixels, measured from the first row.
+  private int mThumbnailWidth;
+  private int mThumbnailHeight;
 
-  public VideoItemAdapter(Context context, int layoutResourceId, List<VideoItem> data) {
-    super(context, layoutResourceId, data);
-    this.mLayoutResourceId = layoutResourceId;
+  public VideoItemAdapter(int layoutResourceId, OnVideoItemClickListener clickListener) {
+    super(DIFF_CALLBACK);
+    mLayoutResourceId = layoutResourceId;
+    mClickListener = clickListener;
+    setHasStableIds(true);
   }
 
   @Override
-  public View getView(int position, View convertView, ViewGroup parent) {
-    VideoItemHolder videoItemHolder;
-    View row = convertView;
-
-    // Check if it's recycled.
-    if (row == null) {
-      LayoutInflater inflater = LayoutInflater.from(getContext());
-      row = inflater.inflate(mLayoutResourceId, parent, false);
-      videoItemHolder = new VideoItemHolder();
-      videoItemHolder.title = (TextView) row.findViewById(R.id.videoItemText);
-      videoItemHolder.image = (ImageView) row.findViewById(R.id.videoItemImage);
-      row.setTag(videoItemHolder);
-    } else {
-      videoItemHolder = (VideoItemHolder) row.getTag();
+  public long getItemId(int position) {
+    return getItem(position).getId();
+  }
+
+  @Override
+  public VideoItemHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+    LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+    View row = inflater.inflate(mLayoutResourceId, parent, false);
+    VideoItemHolder videoItemHolder = new VideoItemHolder(row, mClickListener);
+    if (mThumbnailWidth == 0 && parent.getWidth() > 0) {
+      // Rows have a fixed layout, so one measurement gives the size every thumbnail is shown at.
+      row.measure(
+          MeasureSpec.makeMeasureSpec(parent.getWidth(), MeasureSpec.EXACTLY),
+          MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+      mThumbnailWidth = videoItemHolder.image.getMeasuredWidth();
+      mThumbnailHeight = videoItemHolder.image.getMeasuredHeight();
     }
+    return videoItemHolder;
+  }
 
+  @Override
+  public void onBindViewHolder(VideoItemHolder videoItemHolder, int position) {
     VideoItem item = getItem(position);
-
+    videoItemHolder.item = item;
     videoItemHolder.title.setText(item.getTitle());
-    videoItemHolder.image.setImageResource(item.getImageResource());
+    ThumbnailLoader thumbnailLoader = ThumbnailLoader.get(videoItemHolder.image.getContext());
+    if (item.getImageUrl() != null) {
+      thumbnailLoader.load(
+          videoItemHolder.image, item.getImageUrl(), mThumbnailWidth, mThumbnailHeight);
+    } else {
+      thumbnailLoader.load(
+          videoItemHolder.image, item.getImageResource(), mThumbnailWidth, mThumbnailHeight);
+    }
+  }
 
-    return row;
+  @Override
+  public void onViewRecycled(VideoItemHolder videoItemHolder) {
+    videoItemHolder.item = null;
+    ThumbnailLoader.get(videoItemHolder.image.getContext()).cancel(videoItemHolder.image);
   }
 
   /** Holds the UI element equivalents of a VideoItem. */
-  private class VideoItemHolder {
+  static class VideoItemHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+    final TextView title;
+    final ImageView image;
+    private final OnVideoItemClickListener clickListener;
+    VideoItem item;
 
-    TextView title;
-    ImageView image;
+    VideoItemHolder(View row, OnVideoItemClickListener clickListener) {
+      super(row);
+      this.title = (TextView) row.findViewById(R.id.videoItemText);
+      this.image = (ImageView) row.findViewById(R.id.videoItemImage);
+      this.clickListener = clickListener;
+      row.setOnClickListener(this);
+    }
+
+    @Override
+    public void onClick(View v) {
+      if (item != null && clickListener != null) {
+        clickListener.onVideoItemClick(item);
+      }
+    }
   }
 }
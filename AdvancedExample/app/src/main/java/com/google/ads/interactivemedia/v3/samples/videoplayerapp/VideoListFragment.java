@@ -4,24 +4,96 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
 import android.widget.CheckBox;
 import android.widget.EditText;
-import android.widget.ListView;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-/** Fragment for displaying a playlist of video thumbnails that the user can select from to play. */
+/**
+ * Fragment for displaying a playlist of video thumbnails that the user can select from to play. The
+ * playlist is loaded from its catalog a page at a time as the user scrolls, and the loaded items
+ * are kept while the fragment's view is destroyed and recreated.
+ */
 public class VideoListFragment extends Fragment {
 
+  private static final String LOG_TAG = "ImaExample";
+
+  // Number of videos loaded from the catalog at a time.
+  private static final int PAGE_SIZE = 50;
+
+  // How close to the end of the loaded videos scrolling has to get to load the next page.
+  private static final int PREFETCH_DISTANCE = 20;
+
+  // Delay of the first retry of a page that failed to load, doubled for each further failure.
+  private static final long PAGE_RETRY_INITIAL_DELAY_MS = 1000;
+  private static final long PAGE_RETRY_MAX_DELAY_MS = 60000;
+
+  // Loads catalog pages off the main thread, one at a time.
+  private static final Executor PAGE_LOADER = Executors.newSingleThreadExecutor();
+
+  // The app's sample videos, identified by their position in VideoMetadata.
+  private static final VideoCatalog APP_VIDEO_CATALOG =
+      new VideoCatalog() {
+        @Override
+        public List<VideoItem> loadPage(int offset, int count) {
+          int end = Math.min(offset + count, VideoMetadata.APP_VIDEOS.size());
+          List<VideoItem> videoItems = new ArrayList<VideoItem>(Math.max(end - offset, 0));
+          for (int i = offset; i < end; i++) {
+            VideoMetadata videoMetadata = VideoMetadata.APP_VIDEOS.get(i);
+            videoItems.add(
+                new VideoItem(
+                    i,
+                    videoMetadata.videoUrl,
+                    videoMetadata.title,
+                    videoMetadata.adTagUrl,
+                    videoMetadata.thumbnail,
+                    videoMetadata.isVmap));
+          }
+          return videoItems;
+        }
+      };
+
   private OnVideoSelectedListener mSelectedCallback;
   LayoutInflater mInflater;
   ViewGroup mContainer;
 
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private VideoCatalog mVideoCatalog = APP_VIDEO_CATALOG;
+
+  // The videos loaded from the catalog so far.
+  private final List<VideoItem> mVideoItems = new ArrayList<VideoItem>();
+  private boolean mPageLoading;
+  private boolean mCatalogEndReached;
+
+  // Incremented when the catalog changes, so pages of the previous catalog are dropped.
+  private int mCatalogGeneration;
+
+  // Delay of the next retry of a page that failed to load.
+  private long mPageRetryDelayMs = PAGE_RETRY_INITIAL_DELAY_MS;
+
+  // Loads the page again after it failed. A failed first page leaves nothing to scroll, so it
+  // wouldn't be requested again otherwise.
+  private final Runnable mPageRetry =
+      new Runnable() {
+        @Override
+        public void run() {
+          loadNextPage();
+        }
+      };
+
+  private VideoItemAdapter mVideoItemAdapter;
+
   /**
    * Listener called when the user selects a video from the list. Container activity must implement
    * this interface.
@@ -57,6 +129,21 @@ public class VideoListFragment extends Fragment {
     }
   }
 
+  /**
+   * Sets the catalog the playlist is loaded from, replacing the videos loaded so far. Videos that
+   * are in both catalogs with the same ID keep their rows.
+   */
+  public void setVideoCatalog(VideoCatalog videoCatalog) {
+    mVideoCatalog = videoCatalog;
+    mCatalogGeneration++;
+    mVideoItems.clear();
+    mPageLoading = false;
+    mCatalogEndReached = false;
+    mHandler.removeCallbacks(mPageRetry);
+    mPageRetryDelayMs = PAGE_RETRY_INITIAL_DELAY_MS;
+    loadNextPage();
+  }
+
   @Override
   public View onCreateView(
       LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -64,31 +151,122 @@ public class VideoListFragment extends Fragment {
     mContainer = container;
     View rootView = inflater.inflate(R.layout.fragment_video_list, container, false);
 
-    final ListView listView = (ListView) rootView.findViewById(R.id.videoListView);
-    VideoItemAdapter videoItemAdapter =
-        new VideoItemAdapter(rootView.getContext(), R.layout.video_item, getVideoItems());
-    listView.setAdapter(videoItemAdapter);
+    RecyclerView recyclerView = (RecyclerView) rootView.findViewById(R.id.videoListView);
+    final LinearLayoutManager layoutManager = new LinearLayoutManager(rootView.getContext());
+    recyclerView.setLayoutManager(layoutManager);
+    recyclerView.setHasFixedSize(true);
+    mVideoItemAdapter =
+        new VideoItemAdapter(
+            R.layout.video_item,
+            new VideoItemAdapter.OnVideoItemClickListener() {
+              @Override
+              public void onVideoItemClick(VideoItem selectedVideo) {
+                if (mSelectedCallback != null) {
+                  // If applicable, prompt the user to input a custom ad tag.
+                  if (selectedVideo
+                      .getAdTagUrl()
+                      .equals(getString(R.string.custom_ad_tag_value))) {
+                    getCustomAdTag(selectedVideo);
+                  } else {
+                    mSelectedCallback.onVideoSelected(selectedVideo);
+                  }
+                }
+              }
+            });
+    recyclerView.setAdapter(mVideoItemAdapter);
 
-    listView.setOnItemClickListener(
-        new AdapterView.OnItemClickListener() {
+    // Also called when a layout changes the visible rows, so a short page keeps loading more.
+    recyclerView.addOnScrollListener(
+        new RecyclerView.OnScrollListener() {
           @Override
-          public void onItemClick(AdapterView<?> parent, View v, int position, long id) {
-            if (mSelectedCallback != null) {
-              VideoItem selectedVideo = (VideoItem) listView.getItemAtPosition(position);
-
-              // If applicable, prompt the user to input a custom ad tag.
-              if (selectedVideo.getAdTagUrl().equals(getString(R.string.custom_ad_tag_value))) {
-                getCustomAdTag(selectedVideo);
-              } else {
-                mSelectedCallback.onVideoSelected(selectedVideo);
-              }
+          public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (layoutManager.findLastVisibleItemPosition()
+                >= mVideoItems.size() - PREFETCH_DISTANCE) {
+              loadNextPage();
             }
           }
         });
 
+    if (mVideoItems.isEmpty()) {
+      loadNextPage();
+    } else {
+      submitVideoItems();
+    }
     return rootView;
   }
 
+  @Override
+  public void onDestroyView() {
+    super.onDestroyView();
+    mVideoItemAdapter = null;
+  }
+
+  @Override
+  public void onDestroy() {
+    // Pages still loading belong to no catalog anymore, so they are dropped when they arrive.
+    mCatalogGeneration++;
+    mHandler.removeCallbacksAndMessages(null);
+    super.onDestroy();
+  }
+
+  private void loadNextPage() {
+    if (mPageLoading || mCatalogEndReached) {
+      return;
+    }
+    mPageLoading = true;
+    final VideoCatalog videoCatalog = mVideoCatalog;
+    final int generation = mCatalogGeneration;
+    final int offset = mVideoItems.size();
+    PAGE_LOADER.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            List<VideoItem> loadedPage;
+            try {
+              loadedPage = videoCatalog.loadPage(offset, PAGE_SIZE);
+            } catch (RuntimeException e) {
+              Log.w(LOG_TAG, "Can't load the videos from " + offset, e);
+              loadedPage = null;
+            }
+            final List<VideoItem> page = loadedPage;
+            mHandler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    onPageLoaded(generation, page);
+                  }
+                });
+          }
+        });
+  }
+
+  /** Adds a loaded page, or schedules loading it again if it is null because loading failed. */
+  private void onPageLoaded(int generation, List<VideoItem> page) {
+    if (generation != mCatalogGeneration) {
+      return;
+    }
+    mPageLoading = false;
+    if (page == null) {
+      // Scrolling near the end of the list also requests the page again, before the retry.
+      mHandler.removeCallbacks(mPageRetry);
+      mHandler.postDelayed(mPageRetry, mPageRetryDelayMs);
+      mPageRetryDelayMs = Math.min(mPageRetryDelayMs * 2, PAGE_RETRY_MAX_DELAY_MS);
+      return;
+    }
+    mHandler.removeCallbacks(mPageRetry);
+    mPageRetryDelayMs = PAGE_RETRY_INITIAL_DELAY_MS;
+    mVideoItems.addAll(page);
+    mCatalogEndReached = page.size() < PAGE_SIZE;
+    submitVideoItems();
+  }
+
+  private void submitVideoItems() {
+    if (mVideoItemAdapter != null) {
+      // The adapter diffs a copy, so loading more pages doesn't change a list it is diffing.
+      mVideoItemAdapter.submitList(new ArrayList<VideoItem>(mVideoItems));
+    }
+  }
+
   private void getCustomAdTag(VideoItem originalVideoItem) {
     View dialogueView = mInflater.inflate(R.layout.custom_ad_tag, mContainer, false);
     final EditText txtUrl = (EditText) dialogueView.findViewById(R.id.customTag);
@@ -106,10 +284,12 @@ public class VideoListFragment extends Fragment {
                 String customAdTagUrl = txtUrl.getText().toString();
                 VideoItem customAdTagVideoItem =
                     new VideoItem(
+                        videoItem.getId(),
                         videoItem.getVideoUrl(),
                         videoItem.getTitle(),
                         customAdTagUrl,
                         videoItem.getImageResource(),
+                        videoItem.getImageUrl(),
                         isVmap.isChecked());
 
                 if (mSelectedCallback != null) {
@@ -125,24 +305,6 @@ public class VideoListFragment extends Fragment {
         .show();
   }
 
-  private List<VideoItem> getVideoItems() {
-    final List<VideoItem> videoItems = new ArrayList<VideoItem>();
-
-    // Iterate through the videos' metadata and add video items to list.
-    for (int i = 0; i < VideoMetadata.APP_VIDEOS.size(); i++) {
-      VideoMetadata videoMetadata = VideoMetadata.APP_VIDEOS.get(i);
-      videoItems.add(
-          new VideoItem(
-              videoMetadata.videoUrl,
-              videoMetadata.title,
-              videoMetadata.adTagUrl,
-              videoMetadata.thumbnail,
-              videoMetadata.isVmap));
-    }
-
-    return videoItems;
-  }
-
   @Override
   public void onResume() {
     super.onResume();
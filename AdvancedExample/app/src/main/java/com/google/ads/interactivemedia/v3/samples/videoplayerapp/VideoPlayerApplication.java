@@ -0,0 +1,13 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.app.Application;
+
+/** Application that initializes the IMA SDK off the critical path of the first screen. */
+public class VideoPlayerApplication extends Application {
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    ImaSdkWarmUp.warmUp(this);
+  }
+}
@@ -3,6 +3,8 @@
 package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,23 +18,58 @@ import com.google.ads.interactivemedia.v3.api.AdsRenderingSettings;
 import com.google.ads.interactivemedia.v3.api.AdsRequest;
 import com.google.ads.interactivemedia.v3.api.CompanionAdSlot;
 import com.google.ads.interactivemedia.v3.api.ImaSdkFactory;
-import com.google.ads.interactivemedia.v3.api.ImaSdkSettings;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /** Ads logic for handling the IMA SDK integration code and events. */
 public class VideoPlayerController {
 
+  // How long content waits for the ad decision before it starts without ads.
+  private static final long DEFAULT_AD_REQUEST_TIMEOUT_MS = 4000;
+
+  // How long before a mid-roll is due it is announced in the log.
+  private static final long DEFAULT_AD_BREAK_LEAD_TIME_MS = 5000;
+
+  /** What to do with ads that load after the ad request timed out and content started. */
+  public enum LateAdsPolicy {
+    /** Destroy the late ads. */
+    DISCARD,
+    /**
+     * Play the late ads as a mid-roll at the current content position. A VAST ad, or the pre-roll
+     * of a VMAP playlist, interrupts the content as soon as it loads.
+     */
+    PLAY_AS_MIDROLL
+  }
+
   /** Log interface, so we can output the log commands to the UI or similar. */
   public interface Logger {
     void log(String logMessage);
+
+    /**
+     * Logs a message made of a constant prefix and a value. Loggers that buffer messages can
+     * override this to only format the message when it is written out.
+     */
+    default void log(String prefix, Object value) {
+      log(value != null ? prefix + value : prefix);
+    }
   }
 
-  // Container with references to video player and ad UI ViewGroup.
+  // Container with references to the ad UI container and the video player. It stays bound to them
+  // until the controller is destroyed, and so for the lifetime of every AdsManager loaded into it.
   private AdDisplayContainer mAdDisplayContainer;
 
-  // The AdsLoader instance exposes the requestAds method.
+  // The AdsLoader rendering into mAdDisplayContainer, which exposes the requestAds method. It is
+  // created once the main thread is idle after construction, or when ads are first requested.
   private AdsLoader mAdsLoader;
 
+  // Context the AdsLoader is created with.
+  private Context mContext;
+
+  // Listeners of the AdsLoader, removed again on destroy.
+  private AdErrorEvent.AdErrorListener mAdsLoaderErrorListener;
+  private AdsLoader.AdsLoadedListener mAdsLoadedListener;
+
   // AdsManager exposes methods to control ad playback and listen to ad events.
   private AdsManager mAdsManager;
 
@@ -64,80 +101,323 @@ public class VideoPlayerController {
   // View that we can write log messages to, to display in the UI.
   private Logger mLog;
 
+  // Records the ad events of this controller and its player, if set.
+  private EventTraceRecorder mEventRecorder;
+
+  // Cue points of the ads replayed from a trace, which has no AdsManager to get them from.
+  private List<Float> mReplayedCuePoints = Collections.emptyList();
+
   private double mPlayAdsAfterTime = -1;
 
   private boolean mVideoStarted;
 
+  // The video whose content and ad tag are currently set, if it was set as a VideoItem.
+  private VideoItem mVideoItem;
+
+  // The video whose ads were prefetched for playback, its AdsManager once loaded, and whether the
+  // prefetch is still in flight. Only the video loaded into this controller is prefetched, as the
+  // AdsManager is bound to this controller's ad display container.
+  private VideoItem mPrefetchedVideoItem;
+  private AdsManager mPrefetchedAdsManager;
+  private boolean mPrefetchPending;
+
+  // A pending prefetch that playback is waiting on, started as soon as its ads load.
+  private VideoItem mAwaitedPrefetch;
+
+  // Latency budget of the ad decision, or 0 to wait for it without a limit.
+  private long mAdRequestTimeoutMs = DEFAULT_AD_REQUEST_TIMEOUT_MS;
+
+  // Ad tags tried after the current one fails, and whether they are requested alongside it.
+  private List<String> mFallbackAdTagUrls = Collections.emptyList();
+  private boolean mHedgeFallbackAdTags;
+
+  private LateAdsPolicy mLateAdsPolicy = LateAdsPolicy.DISCARD;
+
+  // The ad decision of the current playback, which content start is waiting on until resolved.
+  private AdDecision mAdDecision;
+
+  // Runs the ad decision timeout and the ad break checks.
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  // The ad breaks of the current VMAP playlist, or null if it has no mid-rolls.
+  private AdCuePointIndex mAdCuePoints;
+
+  // How long before a mid-roll is due it is announced in the log.
+  private long mAdBreakLeadTimeMs = DEFAULT_AD_BREAK_LEAD_TIME_MS;
+
+  // Time in seconds of the mid-roll last announced, or NO_BREAK.
+  private double mAnnouncedAdBreakTime = AdCuePointIndex.NO_BREAK;
+
+  // Checks the content position against the next mid-roll. It is scheduled from the next cue
+  // point's time while content plays, and not at all during ad breaks.
+  private final Runnable mAdBreakCheck =
+      new Runnable() {
+        @Override
+        public void run() {
+          checkUpcomingAdBreak();
+        }
+      };
+
+  /**
+   * The ad decision for one playback. It covers an awaited prefetch, the requests for the ad tag
+   * and its fallbacks, and the timeout after which content starts without waiting any longer. It
+   * resolves with the first ads that load, or once every request failed.
+   */
+  private final class AdDecision implements Runnable {
+    final List<String> adTagUrls;
+    int nextAdTagIndex;
+    int outstandingRequests;
+    boolean isTimedOut;
+    boolean isResolved;
+
+    AdDecision(List<String> adTagUrls) {
+      this.adTagUrls = adTagUrls;
+    }
+
+    /** Called when the latency budget runs out. */
+    @Override
+    public void run() {
+      if (isResolved || this != mAdDecision) {
+        return;
+      }
+      isTimedOut = true;
+      if (mEventRecorder != null) {
+        mEventRecorder.recordAdDecisionTimedOut();
+      }
+      log("Ad request timed out, starting content");
+      if (mLateAdsPolicy == LateAdsPolicy.DISCARD) {
+        isResolved = true;
+        // Let an awaited prefetch finish, so the next playback of the video can use it.
+        mAwaitedPrefetch = null;
+      }
+      resumeContent();
+    }
+  }
+
+  /** User request context of the ad requests made by this controller. */
+  private final class AdRequestContext {
+    // The video whose ads are prefetched, or null for a request made for playback.
+    final VideoItem prefetchedVideoItem;
+
+    // The ad decision a playback request was made for.
+    final AdDecision adDecision;
+
+    AdRequestContext(VideoItem prefetchedVideoItem, AdDecision adDecision) {
+      this.prefetchedVideoItem = prefetchedVideoItem;
+      this.adDecision = adDecision;
+    }
+  }
+
+  /** Returns the context of a request made by this controller, or null if it isn't one. */
+  private AdRequestContext getOwnRequestContext(Object userRequestContext) {
+    if (userRequestContext instanceof AdRequestContext) {
+      return (AdRequestContext) userRequestContext;
+    }
+    return null;
+  }
+
   // Inner class implementation of AdsLoader.AdsLoaderListener.
   private class AdsLoadedListener implements AdsLoader.AdsLoadedListener {
     /** An event raised when ads are successfully loaded from the ad server via AdsLoader. */
     @Override
     public void onAdsManagerLoaded(AdsManagerLoadedEvent adsManagerLoadedEvent) {
-      // Ads were successfully loaded, so get the AdsManager instance. AdsManager has
-      // events for ad playback and errors.
-      mAdsManager = adsManagerLoadedEvent.getAdsManager();
-
-      // Attach event and error event listeners.
-      mAdsManager.addAdErrorListener(
-          new AdErrorEvent.AdErrorListener() {
-            /** An event raised when there is an error loading or playing ads. */
-            @Override
-            public void onAdError(AdErrorEvent adErrorEvent) {
-              log("Ad Error: " + adErrorEvent.getError().getMessage());
+      AdRequestContext requestContext =
+          getOwnRequestContext(adsManagerLoadedEvent.getUserRequestContext());
+      if (requestContext == null) {
+        adsManagerLoadedEvent.getAdsManager().destroy();
+        return;
+      }
+      if (requestContext.prefetchedVideoItem != null) {
+        VideoItem videoItem = requestContext.prefetchedVideoItem;
+        if (videoItem != mPrefetchedVideoItem) {
+          // The prefetch was discarded since, for another video or by invalidation.
+          adsManagerLoadedEvent.getAdsManager().destroy();
+        } else if (videoItem.equals(mAwaitedPrefetch)) {
+          mPrefetchPending = false;
+          mPrefetchedVideoItem = null;
+          mAwaitedPrefetch = null;
+          onAdDecisionLoaded(mAdDecision, adsManagerLoadedEvent.getAdsManager());
+        } else {
+          mPrefetchPending = false;
+          mPrefetchedAdsManager = adsManagerLoadedEvent.getAdsManager();
+        }
+        return;
+      }
+      onAdDecisionLoaded(requestContext.adDecision, adsManagerLoadedEvent.getAdsManager());
+    }
+  }
+
+  /**
+   * Handles ads loaded for an ad decision, depending on whether it is still waited on. The
+   * AdsManager is null when the ads are replayed from a trace.
+   */
+  private void onAdDecisionLoaded(AdDecision adDecision, AdsManager adsManager) {
+    adDecision.outstandingRequests--;
+    if (adDecision != mAdDecision || adDecision.isResolved) {
+      // Another request of the decision won, or the ads are no longer wanted.
+      if (adsManager != null) {
+        adsManager.destroy();
+      }
+      return;
+    }
+    adDecision.isResolved = true;
+    mHandler.removeCallbacks(adDecision);
+    if (adDecision.isTimedOut) {
+      log("Late ads loaded, playing them as a mid-roll");
+      // The play-ads-after time stays as requested. Setting it to the current content time would
+      // make IMA skip every break before it, including the VMAP pre-roll that is due right away.
+      startAdsManager(adsManager, false);
+    } else {
+      startAdsManager(adsManager, true);
+    }
+  }
+
+  /** Handles a failed request of an ad decision by falling back, or by starting content. */
+  private void onAdDecisionFailed(AdDecision adDecision, AdErrorEvent adErrorEvent) {
+    adDecision.outstandingRequests--;
+    if (adDecision != mAdDecision || adDecision.isResolved) {
+      return;
+    }
+    if (adDecision.nextAdTagIndex < adDecision.adTagUrls.size()) {
+      log("Trying fallback ad tag");
+      requestAds(adDecision);
+      return;
+    }
+    if (adDecision.outstandingRequests > 0) {
+      // Hedged requests are still in flight.
+      return;
+    }
+    adDecision.isResolved = true;
+    mHandler.removeCallbacks(adDecision);
+    if (mEventRecorder != null) {
+      // Only the error that decided the request is replayed, as fallbacks aren't requested then.
+      mEventRecorder.recordLoaderError(adErrorEvent);
+    }
+    if (!adDecision.isTimedOut) {
+      resumeContent();
+    }
+  }
+
+  /** Requests the next ad tag of an ad decision. */
+  private void requestAds(AdDecision adDecision) {
+    AdsRequest request = mSdkFactory.createAdsRequest();
+    request.setAdTagUrl(adDecision.adTagUrls.get(adDecision.nextAdTagIndex++));
+    request.setContentProgressProvider(mVideoPlayerWithAdPlayback.getContentProgressProvider());
+    request.setUserRequestContext(new AdRequestContext(null, adDecision));
+    adDecision.outstandingRequests++;
+
+    // Request the ad. After the ad is loaded, onAdsManagerLoaded() will be called.
+    getAdsLoader().requestAds(request);
+  }
+
+  // Listeners of the current AdsManager. The replayer of an event trace also dispatches to them.
+  private final AdErrorEvent.AdErrorListener mAdsManagerErrorListener =
+      new AdErrorEvent.AdErrorListener() {
+        /** An event raised when there is an error loading or playing ads. */
+        @Override
+        public void onAdError(AdErrorEvent adErrorEvent) {
+          log("Ad Error: ", adErrorEvent.getError().getMessage());
+          resumeContent();
+        }
+      };
+
+  private final AdEvent.AdEventListener mAdEventListener =
+      new AdEvent.AdEventListener() {
+        /** Responds to AdEvents. */
+        @Override
+        public void onAdEvent(AdEvent adEvent) {
+          log("Event: ", adEvent.getType());
+
+          // These are the suggested event types to handle. For full list of all ad
+          // event types, see the documentation for AdEvent.AdEventType.
+          switch (adEvent.getType()) {
+            case LOADED:
+              // AdEventType.LOADED will be fired when ads are ready to be
+              // played. AdsManager.start() begins ad playback. This method is
+              // ignored for VMAP or ad rules playlists, as the SDK will
+              // automatically start executing the playlist. There is no AdsManager when
+              // the event is replayed from a trace.
+              if (mAdsManager != null) {
+                mAdsManager.start();
+              }
+              break;
+            case CONTENT_PAUSE_REQUESTED:
+              // AdEventType.CONTENT_PAUSE_REQUESTED is fired immediately before
+              // a video ad is played.
+              pauseContent();
+              break;
+            case CONTENT_RESUME_REQUESTED:
+              // AdEventType.CONTENT_RESUME_REQUESTED is fired when the ad is
+              // completed and you should start playing your content.
               resumeContent();
-            }
-          });
-      mAdsManager.addAdEventListener(
-          new AdEvent.AdEventListener() {
-            /** Responds to AdEvents. */
-            @Override
-            public void onAdEvent(AdEvent adEvent) {
-              log("Event: " + adEvent.getType());
-
-              // These are the suggested event types to handle. For full list of all ad
-              // event types, see the documentation for AdEvent.AdEventType.
-              switch (adEvent.getType()) {
-                case LOADED:
-                  // AdEventType.LOADED will be fired when ads are ready to be
-                  // played. AdsManager.start() begins ad playback. This method is
-                  // ignored for VMAP or ad rules playlists, as the SDK will
-                  // automatically start executing the playlist.
-                  mAdsManager.start();
-                  break;
-                case CONTENT_PAUSE_REQUESTED:
-                  // AdEventType.CONTENT_PAUSE_REQUESTED is fired immediately before
-                  // a video ad is played.
-                  pauseContent();
-                  break;
-                case CONTENT_RESUME_REQUESTED:
-                  // AdEventType.CONTENT_RESUME_REQUESTED is fired when the ad is
-                  // completed and you should start playing your content.
-                  resumeContent();
-                  break;
-                case PAUSED:
-                  mIsAdPlaying = false;
-                  break;
-                case RESUMED:
-                  mIsAdPlaying = true;
-                  break;
-                case ALL_ADS_COMPLETED:
-                  if (mAdsManager != null) {
-                    mAdsManager.destroy();
-                    mAdsManager = null;
-                  }
-                  break;
-                default:
-                  break;
+              mAnnouncedAdBreakTime = AdCuePointIndex.NO_BREAK;
+              checkUpcomingAdBreak();
+              break;
+            case PAUSED:
+              mIsAdPlaying = false;
+              break;
+            case RESUMED:
+              mIsAdPlaying = true;
+              break;
+            case ALL_ADS_COMPLETED:
+              clearAdCuePoints();
+              if (mAdsManager != null) {
+                mAdsManager.destroy();
+                mAdsManager = null;
               }
-            }
-          });
-      AdsRenderingSettings adsRenderingSettings =
-          ImaSdkFactory.getInstance().createAdsRenderingSettings();
-      adsRenderingSettings.setPlayAdsAfterTime(mPlayAdsAfterTime);
-      mAdsManager.init(adsRenderingSettings);
+              break;
+            default:
+              break;
+          }
+        }
+      };
+
+  /**
+   * Attaches listeners to a loaded AdsManager and initializes it for playback. Content is seeked to
+   * the play-ads-after time when it hasn't started yet, and is left playing for late ads. Without
+   * an AdsManager, the ads are replayed from a trace and only their cue points are known.
+   */
+  private void startAdsManager(AdsManager adsManager, boolean seekContent) {
+    if (adsManager == null) {
+      startAdPlayback(mReplayedCuePoints, seekContent);
+      return;
+    }
+    // Ads were successfully loaded, so get the AdsManager instance. AdsManager has
+    // events for ad playback and errors.
+    mAdsManager = adsManager;
+    List<Float> cuePoints = mAdsManager.getAdCuePoints();
+    if (mEventRecorder != null) {
+      mEventRecorder.recordAdsLoaded(cuePoints);
+    }
+
+    // Attach event and error event listeners.
+    mAdsManager.addAdErrorListener(mAdsManagerErrorListener);
+    mAdsManager.addAdEventListener(mAdEventListener);
+    if (mEventRecorder != null) {
+      mAdsManager.addAdErrorListener(mEventRecorder);
+      mAdsManager.addAdEventListener(mEventRecorder);
+    }
+    AdsRenderingSettings adsRenderingSettings =
+        ImaSdkFactory.getInstance().createAdsRenderingSettings();
+    adsRenderingSettings.setPlayAdsAfterTime(mPlayAdsAfterTime);
+    // Let IMA load upcoming ads while the current one plays when the player can buffer them.
+    adsRenderingSettings.setEnablePreloading(mVideoPlayerWithAdPlayback.isPreloadingEnabled());
+    mAdsManager.init(adsRenderingSettings);
+    startAdPlayback(cuePoints, seekContent);
+  }
+
+  /** Schedules the mid-rolls of the started ads, and seeks content to where ads start playing. */
+  private void startAdPlayback(List<Float> cuePoints, boolean seekContent) {
+    AdCuePointIndex adCuePoints = new AdCuePointIndex(cuePoints);
+    clearAdCuePoints();
+    if (adCuePoints.hasMidrolls()) {
+      mAdCuePoints = adCuePoints;
+      checkUpcomingAdBreak();
+    }
+    if (seekContent) {
       seek(mPlayAdsAfterTime);
-      mVideoStarted = true;
     }
+    mVideoStarted = true;
   }
 
   public VideoPlayerController(
@@ -145,9 +425,30 @@ public class VideoPlayerController {
       VideoPlayerWithAdPlayback videoPlayerWithAdPlayback,
       View playButton,
       View playPauseToggle,
-      String language,
       ViewGroup companionViewGroup,
       Logger log) {
+    this(
+        context,
+        videoPlayerWithAdPlayback,
+        playButton,
+        playPauseToggle,
+        companionViewGroup,
+        log,
+        null);
+  }
+
+  /**
+   * Creates a controller that requests ads through the given AdsLoader, such as a fake one in
+   * tests, or through an AdsLoader of its own if it is null.
+   */
+  VideoPlayerController(
+      Context context,
+      VideoPlayerWithAdPlayback videoPlayerWithAdPlayback,
+      View playButton,
+      View playPauseToggle,
+      ViewGroup companionViewGroup,
+      Logger log,
+      AdsLoader adsLoader) {
     mVideoPlayerWithAdPlayback = videoPlayerWithAdPlayback;
     mPlayButton = playButton;
     mPlayPauseToggle = playPauseToggle;
@@ -155,28 +456,62 @@ public class VideoPlayerController {
     mCompanionViewGroup = companionViewGroup;
     mLog = log;
 
-    // Create an AdsLoader and optionally set the language.
+    mContext = context;
     mSdkFactory = ImaSdkFactory.getInstance();
-    ImaSdkSettings imaSdkSettings = mSdkFactory.createImaSdkSettings();
-    imaSdkSettings.setLanguage(language);
-
     mAdDisplayContainer =
         ImaSdkFactory.createAdDisplayContainer(
             mVideoPlayerWithAdPlayback.getAdUiContainer(),
             mVideoPlayerWithAdPlayback.getVideoAdPlayer());
-    mAdsLoader = mSdkFactory.createAdsLoader(context, imaSdkSettings, mAdDisplayContainer);
 
-    mAdsLoader.addAdErrorListener(
+    mAdsLoaderErrorListener =
         new AdErrorEvent.AdErrorListener() {
           /** An event raised when there is an error loading or playing ads. */
           @Override
           public void onAdError(AdErrorEvent adErrorEvent) {
-            log("Ad Error: " + adErrorEvent.getError().getMessage());
-            resumeContent();
+            AdRequestContext requestContext =
+                getOwnRequestContext(adErrorEvent.getUserRequestContext());
+            if (requestContext == null) {
+              return;
+            }
+            if (requestContext.prefetchedVideoItem != null) {
+              VideoItem videoItem = requestContext.prefetchedVideoItem;
+              if (videoItem != mPrefetchedVideoItem) {
+                return;
+              }
+              mPrefetchPending = false;
+              mPrefetchedVideoItem = null;
+              log("Ad prefetch error: ", adErrorEvent.getError().getMessage());
+              if (!videoItem.equals(mAwaitedPrefetch)) {
+                // Nothing is waiting on the prefetch yet; playback will request the ads again.
+                return;
+              }
+              mAwaitedPrefetch = null;
+              onAdDecisionFailed(mAdDecision, adErrorEvent);
+              return;
+            }
+            log("Ad Error: ", adErrorEvent.getError().getMessage());
+            onAdDecisionFailed(requestContext.adDecision, adErrorEvent);
           }
-        });
+        };
+    mAdsLoadedListener = new VideoPlayerController.AdsLoadedListener();
 
-    mAdsLoader.addAdsLoadedListener(new VideoPlayerController.AdsLoadedListener());
+    if (adsLoader != null) {
+      mAdsLoader = adsLoader;
+      mAdsLoader.addAdErrorListener(mAdsLoaderErrorListener);
+      mAdsLoader.addAdsLoadedListener(mAdsLoadedListener);
+    } else {
+      // Creating the AdsLoader initializes the SDK, so keep it out of the way of showing the
+      // player.
+      ImaSdkWarmUp.runWhenIdle(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (mAdDisplayContainer != null) {
+                getAdsLoader();
+              }
+            }
+          });
+    }
 
     // When Play is clicked, request ads and hide the button.
     mPlayButton.setOnClickListener(
@@ -188,13 +523,31 @@ public class VideoPlayerController {
         });
   }
 
+  /** Returns the AdsLoader of this controller, creating it if it doesn't exist yet. */
+  private AdsLoader getAdsLoader() {
+    if (mAdsLoader == null) {
+      mAdsLoader = ImaSdkWarmUp.get(mContext).createAdsLoader(mContext, mAdDisplayContainer);
+      mAdsLoader.addAdErrorListener(mAdsLoaderErrorListener);
+      mAdsLoader.addAdsLoadedListener(mAdsLoadedListener);
+    }
+    return mAdsLoader;
+  }
+
   private void log(String message) {
     if (mLog != null) {
-      mLog.log(message + "\n");
+      mLog.log(message);
+    }
+  }
+
+  private void log(String prefix, Object value) {
+    if (mLog != null) {
+      mLog.log(prefix, value);
     }
   }
 
   private void pauseContent() {
+    // Content doesn't advance during the break. CONTENT_RESUME_REQUESTED checks again.
+    mHandler.removeCallbacks(mAdBreakCheck);
     mVideoPlayerWithAdPlayback.pauseContentForAdPlayback();
     mIsAdPlaying = true;
     setPlayPauseOnAdTouch();
@@ -209,6 +562,54 @@ public class VideoPlayerController {
   /** Set the ad tag URL the player should use to request ads when playing a content video. */
   public void setAdTagUrl(String adTagUrl) {
     mCurrentAdTagUrl = adTagUrl;
+    if (mVideoItem != null && !mVideoItem.getAdTagUrl().equals(adTagUrl)) {
+      mVideoItem = null;
+    }
+  }
+
+  /** Sets the content video and ad tag URL from a video item. */
+  public void setVideoItem(VideoItem videoItem) {
+    setContentVideo(videoItem.getVideoUrl());
+    setAdTagUrl(videoItem.getAdTagUrl());
+    mVideoItem = videoItem;
+  }
+
+  /**
+   * Requests the ads for a video ahead of playback, for example when it is selected, and discards
+   * the ads prefetched for another video. When the video is played, requestAndPlayAds uses the
+   * loaded ads, or waits for them, instead of requesting them again.
+   */
+  public void prefetchAds(VideoItem videoItem) {
+    String adTagUrl = videoItem.getAdTagUrl();
+    if (adTagUrl == null || adTagUrl.isEmpty() || videoItem.equals(mPrefetchedVideoItem)) {
+      return;
+    }
+    discardPrefetchedAds();
+    mPrefetchedVideoItem = videoItem;
+    mPrefetchPending = true;
+    AdsRequest request = mSdkFactory.createAdsRequest();
+    request.setAdTagUrl(adTagUrl);
+    request.setContentProgressProvider(mVideoPlayerWithAdPlayback.getContentProgressProvider());
+    // The context tells the listeners that the response belongs to a prefetch of this video.
+    request.setUserRequestContext(new AdRequestContext(videoItem, null));
+    getAdsLoader().requestAds(request);
+  }
+
+  /** Discards the prefetched ads of a video, for example when its ad targeting changed. */
+  public void invalidatePrefetchedAds(VideoItem videoItem) {
+    if (videoItem.equals(mPrefetchedVideoItem) && !videoItem.equals(mAwaitedPrefetch)) {
+      discardPrefetchedAds();
+    }
+  }
+
+  /** Destroys the prefetched ads, and drops the response of a prefetch still in flight. */
+  private void discardPrefetchedAds() {
+    if (mPrefetchedAdsManager != null) {
+      mPrefetchedAdsManager.destroy();
+      mPrefetchedAdsManager = null;
+    }
+    mPrefetchedVideoItem = null;
+    mPrefetchPending = false;
   }
 
   public String getAdTagUrl() {
@@ -227,19 +628,167 @@ public class VideoPlayerController {
     if (mAdsManager != null) {
       mAdsManager.destroy();
     }
-    mAdsLoader.contentComplete();
+    if (mAdsLoader != null) {
+      mAdsLoader.contentComplete();
+    }
 
     mPlayButton.setVisibility(View.GONE);
 
-    // Create the ads request.
-    AdsRequest request = mSdkFactory.createAdsRequest();
-    request.setAdTagUrl(mCurrentAdTagUrl);
-    request.setContentProgressProvider(mVideoPlayerWithAdPlayback.getContentProgressProvider());
-
     mPlayAdsAfterTime = playAdsAfterTime;
 
-    // Request the ad. After the ad is loaded, onAdsManagerLoaded() will be called.
-    mAdsLoader.requestAds(request);
+    // A trace covers one playback, from its ad request on.
+    if (mEventRecorder != null) {
+      mEventRecorder.reset();
+    }
+
+    // Responses to an earlier decision are no longer waited on.
+    cancelAdDecision();
+    clearAdCuePoints();
+
+    if (mPrefetchedAdsManager != null && mPrefetchedVideoItem.equals(mVideoItem)) {
+      AdsManager prefetchedAdsManager = mPrefetchedAdsManager;
+      mPrefetchedAdsManager = null;
+      mPrefetchedVideoItem = null;
+      log("Using prefetched ads");
+      startAdsManager(prefetchedAdsManager, true);
+      return;
+    }
+
+    List<String> adTagUrls = new ArrayList<String>(mFallbackAdTagUrls.size() + 1);
+    adTagUrls.add(mCurrentAdTagUrl);
+    adTagUrls.addAll(mFallbackAdTagUrls);
+    mAdDecision = new AdDecision(adTagUrls);
+    if (mAdRequestTimeoutMs > 0) {
+      mHandler.postDelayed(mAdDecision, mAdRequestTimeoutMs);
+    }
+
+    if (mPrefetchPending && mPrefetchedVideoItem.equals(mVideoItem)) {
+      // The ads are already on their way, so wait for them instead of requesting them again.
+      mAwaitedPrefetch = mVideoItem;
+      mAdDecision.nextAdTagIndex = 1;
+      mAdDecision.outstandingRequests = 1;
+    } else {
+      requestAds(mAdDecision);
+    }
+    if (mHedgeFallbackAdTags) {
+      while (mAdDecision.nextAdTagIndex < adTagUrls.size()) {
+        requestAds(mAdDecision);
+      }
+    }
+  }
+
+  /** Stops waiting on the current ad decision. Its responses are destroyed when they arrive. */
+  private void cancelAdDecision() {
+    if (mAdDecision != null) {
+      mHandler.removeCallbacks(mAdDecision);
+      mAdDecision.isResolved = true;
+      mAdDecision = null;
+    }
+    mAwaitedPrefetch = null;
+  }
+
+  /**
+   * Sets how long content start waits for the ad decision, or 0 to wait without a limit. When the
+   * budget runs out content starts, and ads that load later are handled by the LateAdsPolicy.
+   */
+  public void setAdRequestTimeoutMs(long adRequestTimeoutMs) {
+    mAdRequestTimeoutMs = adRequestTimeoutMs;
+  }
+
+  /** Sets ad tags tried in order when the ad request of the current ad tag fails. */
+  public void setFallbackAdTagUrls(List<String> fallbackAdTagUrls) {
+    mFallbackAdTagUrls = new ArrayList<String>(fallbackAdTagUrls);
+  }
+
+  /**
+   * Sets whether fallback ad tags are requested in parallel with the current ad tag instead of
+   * after it fails. The first ads to load are played and the others are destroyed.
+   */
+  public void setHedgeFallbackAdTags(boolean hedgeFallbackAdTags) {
+    mHedgeFallbackAdTags = hedgeFallbackAdTags;
+  }
+
+  /**
+   * Sets a recorder for the ad events and player events of the following sessions, or null to stop
+   * recording. Each call to requestAndPlayAds starts a new trace.
+   */
+  void setEventRecorder(EventTraceRecorder eventRecorder) {
+    mEventRecorder = eventRecorder;
+    mVideoPlayerWithAdPlayback.setEventRecorder(eventRecorder);
+  }
+
+  /**
+   * Starts playing the content with ads replayed by an EventTraceReplayer. It takes the place of
+   * requestAndPlayAds: no ads are requested, and the replayer reports how the recorded request was
+   * decided, and then the ad events and player events.
+   */
+  void startReplay() {
+    if (mAdsManager != null) {
+      mAdsManager.destroy();
+      mAdsManager = null;
+    }
+    mPlayButton.setVisibility(View.GONE);
+    mPlayAdsAfterTime = -1;
+    cancelAdDecision();
+    clearAdCuePoints();
+    if (mEventRecorder != null) {
+      mEventRecorder.reset();
+    }
+    mReplayedCuePoints = Collections.emptyList();
+    // The recorded decision is replayed, so there are no fallbacks to request and no timeout.
+    mAdDecision = new AdDecision(Collections.singletonList(mCurrentAdTagUrl));
+    mAdDecision.nextAdTagIndex = 1;
+    mAdDecision.outstandingRequests = 1;
+    mVideoPlayerWithAdPlayback.setReplaying(true);
+  }
+
+  /** Ends a replay, so the players' own events are handled again. */
+  void stopReplay() {
+    mVideoPlayerWithAdPlayback.setReplaying(false);
+  }
+
+  /** Handles the replayed loading of the ads of the replayed request. */
+  void replayAdsLoaded(List<Float> cuePoints) {
+    if (mAdDecision == null) {
+      return;
+    }
+    mReplayedCuePoints = cuePoints;
+    onAdDecisionLoaded(mAdDecision, null);
+  }
+
+  /** Handles the replayed timeout of the replayed request. */
+  void replayAdDecisionTimedOut() {
+    if (mAdDecision != null) {
+      mAdDecision.run();
+    }
+  }
+
+  /**
+   * Returns the user request context of the replayed request, for the ad errors replayed to the
+   * AdsLoader listener, or null if no request is replayed.
+   */
+  Object getReplayRequestContext() {
+    return mAdDecision != null ? new AdRequestContext(null, mAdDecision) : null;
+  }
+
+  /** Returns the listener that handles the ad events of the current AdsManager. */
+  AdEvent.AdEventListener getAdEventListener() {
+    return mAdEventListener;
+  }
+
+  /** Returns the listener that handles the ad errors of the current AdsManager. */
+  AdErrorEvent.AdErrorListener getAdErrorListener() {
+    return mAdsManagerErrorListener;
+  }
+
+  /** Returns the listener that handles failed ad requests of the AdsLoader. */
+  AdErrorEvent.AdErrorListener getAdsLoaderErrorListener() {
+    return mAdsLoaderErrorListener;
+  }
+
+  /** Sets what happens to ads that load after the ad request timed out. */
+  public void setLateAdsPolicy(LateAdsPolicy lateAdsPolicy) {
+    mLateAdsPolicy = lateAdsPolicy;
   }
 
   /** Touch to toggle play/pause during ad play instead of seeking. */
@@ -250,7 +799,7 @@ public class VideoPlayerController {
         new View.OnTouchListener() {
           public boolean onTouch(View view, MotionEvent event) {
             // If an ad is playing, touching it will toggle playback.
-            if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            if (event.getAction() == MotionEvent.ACTION_DOWN && mAdsManager != null) {
               if (mIsAdPlaying) {
                 mAdsManager.pause();
               } else {
@@ -305,24 +854,107 @@ public class VideoPlayerController {
       mAdsManager.resume();
     } else {
       mVideoPlayerWithAdPlayback.play();
+      if (mAdCuePoints != null) {
+        checkUpcomingAdBreak();
+      }
     }
   }
 
   public void destroy() {
+    discardPrefetchedAds();
+    cancelAdDecision();
+    clearAdCuePoints();
     if (mAdsManager != null) {
       mAdsManager.destroy();
       mAdsManager = null;
     }
 
+    if (mAdsLoader != null) {
+      mAdsLoader.removeAdErrorListener(mAdsLoaderErrorListener);
+      mAdsLoader.removeAdsLoadedListener(mAdsLoadedListener);
+      mAdsLoader = null;
+    }
+    // No AdsManager uses the display container anymore.
     if (mAdDisplayContainer != null) {
       mAdDisplayContainer.destroy();
       mAdDisplayContainer = null;
     }
+    mVideoPlayerWithAdPlayback.release();
   }
 
   /** Seeks to time in content video in seconds. */
   public void seek(double time) {
     mVideoPlayerWithAdPlayback.seek((int) (time * 1000.0));
+    if (mAdCuePoints != null) {
+      checkUpcomingAdBreak();
+    }
+  }
+
+  /**
+   * Returns the time in seconds of the first mid-roll of the current VMAP playlist after the given
+   * content time, or -1 if there is none. Use this to handle seeks across ad breaks.
+   */
+  public double getNextAdBreakAfter(double time) {
+    return mAdCuePoints != null ? mAdCuePoints.getNextBreakAfter(time) : AdCuePointIndex.NO_BREAK;
+  }
+
+  /** Sets how long before a mid-roll is due it is announced in the log. */
+  public void setAdBreakLeadTimeMs(long adBreakLeadTimeMs) {
+    mAdBreakLeadTimeMs = adBreakLeadTimeMs;
+    if (mAdCuePoints != null) {
+      checkUpcomingAdBreak();
+    }
+  }
+
+  /**
+   * Announces the next mid-roll once it is within the lead time, and schedules the next check from
+   * the next cue point's time: when its lead time begins, or just after the break is due once it
+   * is announced, in case the break doesn't play. Seeks, resumes and the end of an ad break check
+   * again, as content time doesn't advance at the scheduled rate then. The ad media itself is
+   * loaded by IMA, ahead of the break when preloading is enabled.
+   */
+  private void checkUpcomingAdBreak() {
+    mHandler.removeCallbacks(mAdBreakCheck);
+    if (mAdCuePoints == null) {
+      return;
+    }
+    double contentTime = getCurrentContentTime();
+    double nextBreakTime = mAdCuePoints.getNextBreakAfter(contentTime);
+    if (nextBreakTime == AdCuePointIndex.NO_BREAK) {
+      // Only a post-roll can follow, which IMA starts from the content complete event.
+      return;
+    }
+    if (mIsAdPlaying || mVideoPlayerWithAdPlayback.getIsAdDisplayed()) {
+      return;
+    }
+    long untilBreakMs = (long) Math.ceil((nextBreakTime - contentTime) * 1000);
+    long untilLeadTimeMs = untilBreakMs - mAdBreakLeadTimeMs;
+    if (untilLeadTimeMs > 0) {
+      mHandler.postDelayed(mAdBreakCheck, untilLeadTimeMs);
+      return;
+    }
+    if (nextBreakTime != mAnnouncedAdBreakTime) {
+      mAnnouncedAdBreakTime = nextBreakTime;
+      log("Ad break coming up at ", nextBreakTime);
+    }
+    mHandler.postDelayed(mAdBreakCheck, untilBreakMs + 1);
+  }
+
+  private void clearAdCuePoints() {
+    mHandler.removeCallbacks(mAdBreakCheck);
+    mAdCuePoints = null;
+    mAnnouncedAdBreakTime = AdCuePointIndex.NO_BREAK;
+  }
+
+  /**
+   * Positions the paused content at the given time in seconds, so it buffers there while it plays
+   * elsewhere, for example on a Cast receiver, and local playback resumes without a long seek.
+   */
+  public void prebufferContentAt(double time) {
+    if (!mVideoStarted || mVideoPlayerWithAdPlayback.getIsAdDisplayed()) {
+      return;
+    }
+    seek(time);
   }
 
   /** Returns the current time of the content video in seconds. */
@@ -333,4 +965,9 @@ public class VideoPlayerController {
   public boolean hasVideoStarted() {
     return mVideoStarted;
   }
+
+  /** Returns the latencies recorded for the transitions of the controlled player. */
+  public TransitionLatencyTracker getTransitionLatencies() {
+    return mVideoPlayerWithAdPlayback.getTransitionLatencies();
+  }
 }
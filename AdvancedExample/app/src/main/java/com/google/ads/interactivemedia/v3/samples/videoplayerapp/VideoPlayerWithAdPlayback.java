@@ -5,6 +5,7 @@ package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
 import android.content.Context;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.View;
 import android.view.ViewGroup;
 import android.widget.RelativeLayout;
 import com.google.ads.interactivemedia.v3.api.AdPodInfo;
@@ -12,30 +13,101 @@ import com.google.ads.interactivemedia.v3.api.player.AdMediaInfo;
 import com.google.ads.interactivemedia.v3.api.player.ContentProgressProvider;
 import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
 import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+import com.google.ads.interactivemedia.v3.samples.samplevideoplayer.ExoVideoPlayer;
+import com.google.ads.interactivemedia.v3.samples.samplevideoplayer.PlaybackReportingVideoPlayer;
+import com.google.ads.interactivemedia.v3.samples.samplevideoplayer.SampleVideoPlayer;
 import com.google.ads.interactivemedia.v3.samples.samplevideoplayer.VideoPlayer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 
 /** Video player that can play content video and ads. */
 public class VideoPlayerWithAdPlayback extends RelativeLayout {
 
-  // The wrapped video player.
+  // Default time before the end of an ad break at which the content starts buffering again.
+  private static final int DEFAULT_CONTENT_PREBUFFER_MS = 5000;
+
+  // How often the clocks are re-anchored to the player while it plays, to correct for stalls.
+  // Players that push their progress are asked for position updates at this period instead.
+  private static final int CONTENT_CLOCK_SYNC_PERIOD_MS = 1000;
+
+  // The wrapped video player, used for content playback.
   private VideoPlayer mVideoPlayer;
 
-  // A Timer to help track media updates
-  private Timer timer;
+  // The player that is currently shown, either the content player or the player of the displayed
+  // ad.
+  private VideoPlayer mActivePlayer;
+
+  // Players created next to the content player, one for preloading and one to play ads while the
+  // content is kept alive.
+  private final List<VideoPlayer> mExtraPlayers = new ArrayList<VideoPlayer>(2);
+
+  // Players that ads can be loaded into. The content player is part of the pool unless it is kept
+  // alive during ad breaks.
+  private final List<VideoPlayer> mAdPlayerPool = new ArrayList<VideoPlayer>(3);
+
+  // The player each loaded ad has been assigned to.
+  private final Map<AdMediaInfo, VideoPlayer> mLoadedAds = new HashMap<AdMediaInfo, VideoPlayer>(2);
+
+  // The pod position of each loaded ad, used to recognize the last ad of a break.
+  private final Map<AdMediaInfo, AdPodInfo> mLoadedAdPods = new HashMap<AdMediaInfo, AdPodInfo>(2);
+
+  // Whether the next ad is loaded into a spare player while the current one plays.
+  private boolean mPreloadingEnabled;
+
+  // Whether the content player stays prepared and paused while ads play on another player.
+  private boolean mKeepContentAlive;
+
+  // Whether the content player currently holds the content video, so resuming needs no reload.
+  private boolean mContentLoaded;
+
+  // How long before the end of the last ad in a pod the content starts buffering, or 0 to wait for
+  // the end of the break.
+  private int mContentPrebufferMs = DEFAULT_CONTENT_PREBUFFER_MS;
+
+  // How far a content seek may land from its target, or 0 to seek as the player does by default.
+  private int mSeekToleranceMs;
+
+  // Target of a content seek to a sync frame, until it is known where the seek landed, or -1, and
+  // the player the seek was issued to. Completions of other seeks are ignored.
+  private int mContentSeekTargetMs = -1;
+  private VideoPlayer mContentSeekPlayer;
+
+  // Times the transitions between content and ads.
+  private final TransitionLatencyTracker mTransitionLatencies = new TransitionLatencyTracker();
+
+  // When each player was last given an ad to load, for timing how long it takes to prepare.
+  private final Map<VideoPlayer, Long> mAdLoadStartNanos = new HashMap<VideoPlayer, Long>(3);
+
+  // Published positions of the content and of the displayed ad, readable from any thread.
+  private final PlaybackClock mContentClock = new PlaybackClock();
+  private final PlaybackClock mAdClock = new PlaybackClock();
 
-  // Track the currently playing media file. If doing preloading, this will need to be an
-  // array or other data structure.
+  // Re-anchors the content clock while content plays, for a content player that doesn't push its
+  // progress. Publishing the clock schedules the next sync.
+  private final Runnable mContentClockSync =
+      new Runnable() {
+        @Override
+        public void run() {
+          getEventRouter(mVideoPlayer).pollClock();
+        }
+      };
+
+  // Reports ad progress to IMA while an ad is playing.
+  private AdProgressTracker mAdProgressTracker;
+
+  // Track the currently playing media file. Ads that are preloaded but not playing yet are tracked
+  // in mLoadedAds.
   private AdMediaInfo adMediaInfo;
 
   // The SDK will render ad playback UI elements into this ViewGroup.
   private ViewGroup mAdUiContainer;
 
-  // Used to track if the current video is an ad (as opposed to a content video).
-  private boolean mIsAdDisplayed;
+  // Used to track if the current video is an ad (as opposed to a content video). Read by the
+  // progress providers on the SDK's threads.
+  private volatile boolean mIsAdDisplayed;
 
   // Used to track the current content video URL to resume content playback.
   private String mContentVideoUrl;
@@ -56,8 +128,17 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
   // ContentProgressProvider interface implementation for the SDK to check content progress.
   private ContentProgressProvider mContentProgressProvider;
 
-  private final List<VideoAdPlayer.VideoAdPlayerCallback> mAdCallbacks =
-      new ArrayList<VideoAdPlayer.VideoAdPlayerCallback>(1);
+  // Callbacks registered by the SDK, notified on the main thread.
+  private final VideoAdPlayerCallbackRegistry mAdCallbacks = new VideoAdPlayerCallbackRegistry();
+
+  // Records the VideoAdPlayer callbacks and player events, if set.
+  private EventTraceRecorder mEventRecorder;
+
+  // The event router of each player, indexed by the id identifying the player in recorded events.
+  private final List<PlayerEventRouter> mEventRouters = new ArrayList<PlayerEventRouter>(3);
+
+  // Whether the player events come from a replayed trace instead of from the players.
+  private boolean mReplaying;
 
   public VideoPlayerWithAdPlayback(Context context, AttributeSet attrs, int defStyle) {
     super(context, attrs, defStyle);
@@ -77,40 +158,14 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
     init();
   }
 
-  private void startTracking() {
-    if (timer != null) {
-      return;
-    }
-    timer = new Timer();
-    TimerTask updateTimerTask =
-        new TimerTask() {
-          @Override
-          public void run() {
-            // Tell IMA the current video progress. A better implementation would be
-            // reactive to events from the media player, instead of polling.
-            for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-              callback.onAdProgress(adMediaInfo, mVideoAdPlayer.getAdProgress());
-            }
-          }
-        };
-    int initialDelayMs = 250;
-    int pollingTimeMs = 250;
-    timer.schedule(updateTimerTask, pollingTimeMs, initialDelayMs);
-  }
-
-  private void stopTracking() {
-    if (timer != null) {
-      timer.cancel();
-      timer = null;
-    }
-  }
-
   private void init() {
     mIsAdDisplayed = false;
     contentHasCompleted = false;
     mSavedAdPosition = 0;
     mSavedContentPosition = 0;
     mVideoPlayer = (VideoPlayer) this.getRootView().findViewById(R.id.videoPlayer);
+    mActivePlayer = mVideoPlayer;
+    updateAdPlayerPool();
     mAdUiContainer = (ViewGroup) this.getRootView().findViewById(R.id.adUiContainer);
 
     // Define VideoAdPlayer connector.
@@ -123,37 +178,60 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
 
           @Override
           public void playAd(AdMediaInfo info) {
-            startTracking();
-            if (mIsAdDisplayed) {
-              mVideoPlayer.resume();
+            recordAdPlayerCall(EventTraceRecorder.AD_PLAYER_CALL_PLAY, info, null);
+            VideoPlayer player = getAdPlayer(info);
+            if (mIsAdDisplayed && info == adMediaInfo) {
+              player.resume();
             } else {
+              // A preloaded ad only needs its player to be shown before it starts.
+              mAdClock.reset();
+              adMediaInfo = info;
               mIsAdDisplayed = true;
-              mVideoPlayer.play();
+              setActivePlayer(player);
+              player.play();
             }
           }
 
           @Override
           public void loadAd(AdMediaInfo info, AdPodInfo api) {
-            adMediaInfo = info;
-            mIsAdDisplayed = false;
-            mVideoPlayer.setVideoPath(info.getUrl());
+            recordAdPlayerCall(EventTraceRecorder.AD_PLAYER_CALL_LOAD, info, api);
+            VideoPlayer player = acquireAdPlayer();
+            if (player == mVideoPlayer) {
+              mContentLoaded = false;
+            }
+            mLoadedAds.put(info, player);
+            mLoadedAdPods.put(info, api);
+            mAdLoadStartNanos.put(player, TransitionLatencyTracker.now());
+            player.setVideoPath(info.getUrl());
           }
 
           @Override
           public void stopAd(AdMediaInfo info) {
-            stopTracking();
-            mVideoPlayer.stopPlayback();
+            recordAdPlayerCall(EventTraceRecorder.AD_PLAYER_CALL_STOP, info, null);
+            if (info == adMediaInfo) {
+              mAdProgressTracker.stop();
+            }
+            mLoadedAdPods.remove(info);
+            VideoPlayer player = mLoadedAds.remove(info);
+            if (player != null) {
+              // An ad stopped before it was prepared doesn't time whatever the player loads next.
+              mAdLoadStartNanos.remove(player);
+              player.stopPlayback();
+            }
           }
 
           @Override
           public void pauseAd(AdMediaInfo info) {
-            stopTracking();
-            mVideoPlayer.pause();
+            recordAdPlayerCall(EventTraceRecorder.AD_PLAYER_CALL_PAUSE, info, null);
+            getAdPlayer(info).pause();
           }
 
           @Override
           public void release() {
-            // any clean up that needs to be done
+            recordAdPlayerCall(EventTraceRecorder.AD_PLAYER_CALL_RELEASE, null, null);
+            mAdProgressTracker.stop();
+            mTransitionLatencies.cancelAll();
+            mAdLoadStartNanos.clear();
           }
 
           @Override
@@ -168,85 +246,649 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
 
           @Override
           public VideoProgressUpdate getAdProgress() {
-            if (!mIsAdDisplayed || mVideoPlayer.getDuration() <= 0) {
+            if (!mIsAdDisplayed) {
               return VideoProgressUpdate.VIDEO_TIME_NOT_READY;
             }
-            return new VideoProgressUpdate(
-                mVideoPlayer.getCurrentPosition(), mVideoPlayer.getDuration());
+            return mAdClock.getProgress();
           }
         };
 
+    // Progress is reported while the ad is playing, so tracking follows the player callbacks below.
+    mAdProgressTracker =
+        new AdProgressTracker(
+            new AdProgressTracker.Listener() {
+              @Override
+              public VideoProgressUpdate getAdProgress() {
+                // Progress ticks are the one place an ad player that doesn't push its progress is
+                // sampled, which also keeps the published ad clock from drifting while it stalls.
+                if (!(mActivePlayer instanceof PlaybackReportingVideoPlayer)) {
+                  getEventRouter(mActivePlayer).pollClock();
+                }
+                return mVideoAdPlayer.getAdProgress();
+              }
+
+              @Override
+              public void onAdProgress(VideoProgressUpdate progressUpdate) {
+                mAdCallbacks.onAdProgress(adMediaInfo, progressUpdate);
+                maybePrebufferContent(progressUpdate);
+              }
+            });
+
     mContentProgressProvider =
         new ContentProgressProvider() {
           @Override
           public VideoProgressUpdate getContentProgress() {
-            if (mIsAdDisplayed || mVideoPlayer.getDuration() <= 0) {
+            if (mIsAdDisplayed) {
               return VideoProgressUpdate.VIDEO_TIME_NOT_READY;
             }
-            return new VideoProgressUpdate(
-                mVideoPlayer.getCurrentPosition(), mVideoPlayer.getDuration());
+            return mContentClock.getProgress();
           }
         };
 
     // Set player callbacks for delegating major video events.
-    mVideoPlayer.addPlayerCallback(
-        new VideoPlayer.PlayerCallback() {
-          @Override
-          public void onPlay() {
-            if (mIsAdDisplayed) {
-              for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-                callback.onPlay(adMediaInfo);
-              }
-            }
-          }
+    addEventRouter(mVideoPlayer);
+  }
 
-          @Override
-          public void onPause() {
-            if (mIsAdDisplayed) {
-              for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-                callback.onPause(adMediaInfo);
-              }
-            }
-          }
+  /** Routes the events of a player, and its pushed progress if it reports any. */
+  private void addEventRouter(VideoPlayer player) {
+    PlayerEventRouter router = new PlayerEventRouter(player);
+    mEventRouters.add(router);
+    if (!mReplaying) {
+      router.attach();
+    }
+  }
 
-          @Override
-          public void onResume() {
-            if (mIsAdDisplayed) {
-              for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-                callback.onResume(adMediaInfo);
-              }
-            }
-          }
+  /** Records a call IMA made to the VideoAdPlayer, if a recorder is set. */
+  private void recordAdPlayerCall(int code, AdMediaInfo info, AdPodInfo adPodInfo) {
+    if (mEventRecorder != null) {
+      mEventRecorder.recordAdPlayerCall(code, info, adPodInfo);
+    }
+  }
 
-          @Override
-          public void onError() {
-            if (mIsAdDisplayed) {
-              for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-                callback.onError(adMediaInfo);
-              }
-            }
-          }
+  /**
+   * Enables loading the next ad into a spare player while the current ad plays, so consecutive ads
+   * in a pod start without a prepare and buffering gap. IMA only loads ads ahead of time if
+   * preloading is also enabled in the AdsRenderingSettings. Call this before requesting ads.
+   */
+  public void setPreloadingEnabled(boolean preloadingEnabled) {
+    mPreloadingEnabled = preloadingEnabled;
+    updateAdPlayerPool();
+  }
 
-          @Override
-          public void onCompleted() {
-            if (mIsAdDisplayed) {
-              for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-                callback.onEnded(adMediaInfo);
-              }
-            } else {
-              contentHasCompleted = true;
-              // Alert an external listener that our content video is complete.
-              for (VideoAdPlayer.VideoAdPlayerCallback callback : mAdCallbacks) {
-                callback.onContentComplete();
-              }
-            }
-          }
-        });
+  /** Returns if ads are loaded into a spare player ahead of time. */
+  public boolean isPreloadingEnabled() {
+    return mPreloadingEnabled;
+  }
+
+  /**
+   * Keeps the content video prepared and paused on its own player while ads play on a separate
+   * one, so content resumes after an ad break without reloading and seeking. Call this before
+   * requesting ads.
+   */
+  public void setKeepContentAlive(boolean keepContentAlive) {
+    mKeepContentAlive = keepContentAlive;
+    updateAdPlayerPool();
+  }
+
+  /** Returns if the content player is kept prepared during ad breaks. */
+  public boolean isKeepContentAlive() {
+    return mKeepContentAlive;
+  }
+
+  /**
+   * Sets how long before the end of the last ad in a pod the content starts buffering at its resume
+   * position, so it is ready to play when the break ends. Pass 0 to load content only once the
+   * break has ended.
+   */
+  public void setContentPrebufferMs(int contentPrebufferMs) {
+    mContentPrebufferMs = contentPrebufferMs;
+  }
+
+  /** Returns how long before the end of an ad break the content starts buffering. */
+  public int getContentPrebufferMs() {
+    return mContentPrebufferMs;
+  }
+
+  /**
+   * Sets how far content seeks, such as the one resuming content after an ad break, may land from
+   * the requested position. Within the tolerance, a seek lands on the nearest sync frame instead
+   * of decoding up to the position, and is repeated exactly if the sync frame is too far off. Only
+   * players that report where their seeks land seek to sync frames. Pass 0 to seek as the player
+   * does by default.
+   */
+  public void setSeekToleranceMs(int seekToleranceMs) {
+    mSeekToleranceMs = seekToleranceMs;
+  }
+
+  /** Returns how far content seeks may land from the requested position. */
+  public int getSeekToleranceMs() {
+    return mSeekToleranceMs;
+  }
+
+  /** Seeks the content player with the fastest seek mode the seek tolerance allows. */
+  private void seekContent(int positionMs) {
+    if (mSeekToleranceMs <= 0 || !(mVideoPlayer instanceof PlaybackReportingVideoPlayer)) {
+      clearContentSeek();
+      mVideoPlayer.seekTo(positionMs);
+      return;
+    }
+    // Where the seek landed is checked once the player reports it, which it does for every seek.
+    mContentSeekTargetMs = positionMs;
+    mContentSeekPlayer = mVideoPlayer;
+    mVideoPlayer.seekTo(positionMs, VideoPlayer.SeekMode.CLOSEST_SYNC);
+  }
+
+  /** Stops waiting for a content seek, whose completion won't come or no longer matters. */
+  private void clearContentSeek() {
+    mContentSeekTargetMs = -1;
+    mContentSeekPlayer = null;
+  }
+
+  /**
+   * Loads the content at its saved position once the final ad of the pod is within the prebuffer
+   * window. The content is prepared on a player that isn't shown, and resumed from there when the
+   * break ends.
+   */
+  private void maybePrebufferContent(VideoProgressUpdate progressUpdate) {
+    if (mContentPrebufferMs <= 0
+        || mContentLoaded
+        || contentHasCompleted
+        || mContentVideoUrl == null
+        || mContentVideoUrl.isEmpty()) {
+      return;
+    }
+    AdPodInfo adPodInfo = mLoadedAdPods.get(adMediaInfo);
+    if (adPodInfo == null || adPodInfo.getAdPosition() < adPodInfo.getTotalAds()) {
+      return;
+    }
+    long remainingMs = progressUpdate.getDurationMs() - progressUpdate.getCurrentTimeMs();
+    if (remainingMs > mContentPrebufferMs) {
+      return;
+    }
+    if (mVideoPlayer == mActivePlayer) {
+      // The content player is showing the ad, so an idle extra player takes over the content.
+      VideoPlayer idlePlayer = null;
+      for (VideoPlayer extraPlayer : mExtraPlayers) {
+        if (extraPlayer != mActivePlayer && !mLoadedAds.containsValue(extraPlayer)) {
+          idlePlayer = extraPlayer;
+          break;
+        }
+      }
+      if (idlePlayer == null) {
+        // Without a spare view, the content can still be prepared on a spare MediaPlayer of the
+        // content player, which takes over when the content is set again after the break.
+        if (mVideoPlayer instanceof SampleVideoPlayer) {
+          ((SampleVideoPlayer) mVideoPlayer)
+              .queueVideoPath(mContentVideoUrl, mSavedContentPosition);
+        }
+        return;
+      }
+      mExtraPlayers.set(mExtraPlayers.indexOf(idlePlayer), mVideoPlayer);
+      mVideoPlayer = idlePlayer;
+      updateAdPlayerPool();
+    }
+    releaseAdPlayer(mVideoPlayer);
+    mVideoPlayer.setVideoPath(mContentVideoUrl);
+    seekContent(mSavedContentPosition);
+    mContentLoaded = true;
+  }
+
+  /**
+   * Creates an extra player of the same kind as the content player, so the player implementation
+   * is chosen once, by the videoPlayer view in the layout. An extra ExoVideoPlayer runs its own
+   * ExoPlayer, next to the content player's. Tests override it to add fake players.
+   */
+  VideoPlayer createExtraPlayer() {
+    if (mVideoPlayer instanceof ExoVideoPlayer) {
+      return new ExoVideoPlayer(getContext());
+    }
+    return new SampleVideoPlayer(getContext());
+  }
+
+  /** Creates or removes extra players to match the enabled modes, and rebuilds the ad pool. */
+  private void updateAdPlayerPool() {
+    int extraPlayerCount = (mPreloadingEnabled ? 1 : 0) + (mKeepContentAlive ? 1 : 0);
+    while (mExtraPlayers.size() < extraPlayerCount) {
+      VideoPlayer player = createExtraPlayer();
+      LayoutParams layoutParams =
+          new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+      layoutParams.addRule(CENTER_HORIZONTAL);
+      // Keep the extra players directly above the content player, below the ad UI. They are
+      // hidden until they play something.
+      View playerView = (View) player;
+      playerView.setVisibility(INVISIBLE);
+      addView(playerView, indexOfChild((View) mVideoPlayer) + 1, layoutParams);
+      addEventRouter(player);
+      mExtraPlayers.add(player);
+    }
+    while (mExtraPlayers.size() > extraPlayerCount) {
+      VideoPlayer player = mExtraPlayers.remove(mExtraPlayers.size() - 1);
+      if (player == mActivePlayer) {
+        setActivePlayer(mVideoPlayer);
+      }
+      releaseAdPlayer(player);
+      player.stopPlayback();
+      releasePlayer(player);
+      removeView((View) player);
+    }
+    mAdPlayerPool.clear();
+    if (!mKeepContentAlive) {
+      mAdPlayerPool.add(mVideoPlayer);
+    }
+    mAdPlayerPool.addAll(mExtraPlayers);
+  }
+
+  /**
+   * Releases what the players hold beyond their views, such as the ExoPlayer of an ExoVideoPlayer.
+   * Call it once nothing will be played anymore.
+   */
+  public void release() {
+    releasePlayer(mVideoPlayer);
+    for (VideoPlayer player : mExtraPlayers) {
+      releasePlayer(player);
+    }
+  }
+
+  private static void releasePlayer(VideoPlayer player) {
+    if (player instanceof ExoVideoPlayer) {
+      ((ExoVideoPlayer) player).release();
+    }
+  }
+
+  /** Returns the player the given ad was loaded into. */
+  private VideoPlayer getAdPlayer(AdMediaInfo info) {
+    VideoPlayer player = mLoadedAds.get(info);
+    return player != null ? player : mActivePlayer;
+  }
+
+  /**
+   * Picks the player to load the next ad into. A player that isn't shown and doesn't hold another
+   * ad is preferred, so the displayed media is never replaced while a spare player is available.
+   */
+  private VideoPlayer acquireAdPlayer() {
+    VideoPlayer spare = null;
+    for (VideoPlayer player : mAdPlayerPool) {
+      if (player == mActivePlayer || (player == mVideoPlayer && mContentLoaded)) {
+        continue;
+      }
+      if (!mLoadedAds.containsValue(player)) {
+        return player;
+      }
+      if (spare == null) {
+        spare = player;
+      }
+    }
+    VideoPlayer player = spare != null ? spare : mActivePlayer;
+    releaseAdPlayer(player);
+    return player;
+  }
+
+  /** Forgets any ad that was loaded into the given player. */
+  private void releaseAdPlayer(VideoPlayer player) {
+    Iterator<Map.Entry<AdMediaInfo, VideoPlayer>> iterator = mLoadedAds.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<AdMediaInfo, VideoPlayer> loadedAd = iterator.next();
+      if (loadedAd.getValue() == player) {
+        mLoadedAdPods.remove(loadedAd.getKey());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Shows the given player and hides the others. The players' surfaces are all in the default
+   * layer, as a surface's z-order can only be set before its window is attached, so visibility
+   * decides which one is seen. A hidden player keeps its prepared media and only reconnects it to
+   * the new surface once shown.
+   */
+  private void setActivePlayer(VideoPlayer player) {
+    if (player == mActivePlayer) {
+      return;
+    }
+    mActivePlayer = player;
+    // Show the new player before hiding the old one, so no frame shows neither.
+    ((View) player).setVisibility(VISIBLE);
+    if (mVideoPlayer != player) {
+      ((View) mVideoPlayer).setVisibility(INVISIBLE);
+    }
+    for (VideoPlayer extraPlayer : mExtraPlayers) {
+      if (extraPlayer != player) {
+        ((View) extraPlayer).setVisibility(INVISIBLE);
+      }
+    }
+  }
+
+  /** Returns the event router of the given player. */
+  private PlayerEventRouter getEventRouter(VideoPlayer player) {
+    for (PlayerEventRouter router : mEventRouters) {
+      if (router.mPlayer == player) {
+        return router;
+      }
+    }
+    throw new IllegalArgumentException("Not a player of this view");
+  }
+
+  /**
+   * Forwards the events of one player to IMA or to the content listeners, based on its role. The
+   * progress pushed by players that report it keeps the clocks anchored without polling, and only
+   * their preparation is timed.
+   */
+  private class PlayerEventRouter
+      implements VideoPlayer.PlayerCallback, PlaybackReportingVideoPlayer.PlaybackListener {
+
+    private final VideoPlayer mPlayer;
+    private final int mPlayerId;
+
+    // Whether the player pushes its position, so the clocks needn't be re-anchored by polling.
+    private final boolean mReportsProgress;
+
+    // Whether playback was requested, and whether the player has stalled to buffer.
+    private boolean mPlaying;
+    private boolean mBuffering;
+
+    // The position of the last poll of a player that doesn't push its progress, or -1, and whether
+    // its position hadn't moved since the poll before, which is taken as a stall.
+    private int mPolledPositionMs = -1;
+    private boolean mPollStalled;
+
+    // The position and duration of the player in the replayed trace, used instead of the live
+    // player's while replaying.
+    private int mReplayedPositionMs;
+    private int mReplayedDurationMs;
+
+    PlayerEventRouter(VideoPlayer player) {
+      mPlayer = player;
+      mPlayerId = mEventRouters.size();
+      mReportsProgress = player instanceof PlaybackReportingVideoPlayer;
+    }
+
+    /** Starts receiving the events of the player. */
+    void attach() {
+      mPlayer.addPlayerCallback(this);
+      if (mReportsProgress) {
+        ((PlaybackReportingVideoPlayer) mPlayer)
+            .addPlaybackListener(this, CONTENT_CLOCK_SYNC_PERIOD_MS);
+      }
+    }
+
+    /** Stops receiving the events of the player, whose events are replayed instead. */
+    void detach() {
+      mPlayer.removePlayerCallback(this);
+      if (mReportsProgress) {
+        ((PlaybackReportingVideoPlayer) mPlayer).removePlaybackListener(this);
+      }
+    }
+
+    /** Handles an event of this player read from a trace, as if the player had sent it. */
+    void replay(int code, int valueMs) {
+      if (code == EventTraceRecorder.PLAYER_PREPARED) {
+        mReplayedPositionMs = 0;
+        mReplayedDurationMs = valueMs;
+      } else {
+        mReplayedPositionMs = valueMs;
+      }
+      switch (code) {
+        case EventTraceRecorder.PLAYER_PREPARED:
+          onPrepared(valueMs);
+          break;
+        case EventTraceRecorder.PLAYER_PLAY:
+          onPlay();
+          break;
+        case EventTraceRecorder.PLAYER_PAUSE:
+          onPause();
+          break;
+        case EventTraceRecorder.PLAYER_RESUME:
+          onResume();
+          break;
+        case EventTraceRecorder.PLAYER_COMPLETED:
+          onCompleted();
+          break;
+        case EventTraceRecorder.PLAYER_ERROR:
+          onError();
+          break;
+        case EventTraceRecorder.PLAYER_POSITION_UPDATE:
+          onPositionUpdate(valueMs, mReplayedDurationMs);
+          break;
+        case EventTraceRecorder.PLAYER_SEEK_COMPLETED:
+          onSeekCompleted(valueMs);
+          break;
+        case EventTraceRecorder.PLAYER_BUFFERING_START:
+          onBufferingStart();
+          break;
+        case EventTraceRecorder.PLAYER_BUFFERING_END:
+          onBufferingEnd();
+          break;
+        default:
+          break;
+      }
+    }
+
+    private int getPosition() {
+      return mReplaying ? mReplayedPositionMs : mPlayer.getCurrentPosition();
+    }
+
+    private int getDuration() {
+      return mReplaying ? mReplayedDurationMs : mPlayer.getDuration();
+    }
+
+    /** Records an event with the player's position. */
+    private void record(int code) {
+      if (mEventRecorder != null) {
+        record(code, getPosition());
+      }
+    }
+
+    private void record(int code, int valueMs) {
+      if (mEventRecorder != null) {
+        mEventRecorder.recordPlayerEvent(mPlayerId, code, valueMs);
+      }
+    }
+
+    private boolean isDisplayedAd() {
+      return mIsAdDisplayed && mPlayer == mActivePlayer;
+    }
+
+    private boolean isDisplayedContent() {
+      return !mIsAdDisplayed && mPlayer == mVideoPlayer;
+    }
+
+    /**
+     * Publishes the position of a player that doesn't push its progress to the clock of its
+     * current role. Such a player doesn't report buffering either, so it is taken to have stalled
+     * while its position doesn't move between polls.
+     */
+    void pollClock() {
+      int positionMs = getPosition();
+      mPollStalled = mPlaying && positionMs == mPolledPositionMs;
+      mPolledPositionMs = positionMs;
+      publishClock(positionMs, getDuration());
+    }
+
+    /** Publishes this player's position to the clock of its current role, if it has one. */
+    private void publishClock(boolean playing) {
+      mPlaying = playing;
+      // Polling starts over from the new playing state.
+      mPolledPositionMs = -1;
+      mPollStalled = false;
+      publishClock(getPosition(), getDuration());
+    }
+
+    private void publishClock(int positionMs, int durationMs) {
+      // A stalled player isn't advancing, so readers shouldn't extrapolate its position.
+      boolean advancing = mPlaying && !mBuffering && !mPollStalled;
+      if (isDisplayedAd()) {
+        mAdClock.publish(positionMs, durationMs, advancing);
+      } else if (isDisplayedContent()) {
+        removeCallbacks(mContentClockSync);
+        mContentClock.publish(positionMs, durationMs, advancing);
+        if (mPlaying && !mReportsProgress) {
+          // Keep polling while stalled, to notice when the player advances again.
+          postDelayed(mContentClockSync, CONTENT_CLOCK_SYNC_PERIOD_MS);
+        }
+      }
+    }
+
+    @Override
+    public void onPrepared(int durationMs) {
+      record(EventTraceRecorder.PLAYER_PREPARED, durationMs);
+      mBuffering = false;
+      // The duration is only known once prepared, and playback may have been requested earlier.
+      publishClock(mPlaying);
+      Long loadStartNanos = mAdLoadStartNanos.remove(mPlayer);
+      if (loadStartNanos != null) {
+        mTransitionLatencies.record(
+            TransitionLatencyTracker.Transition.AD_LOAD_TO_PREPARED,
+            TransitionLatencyTracker.now() - loadStartNanos);
+      }
+    }
+
+    @Override
+    public void onPlay() {
+      record(EventTraceRecorder.PLAYER_PLAY);
+      publishClock(true);
+      if (isDisplayedContent()) {
+        mTransitionLatencies.end(TransitionLatencyTracker.Transition.AD_COMPLETE_TO_CONTENT_PLAY);
+        mTransitionLatencies.end(
+            TransitionLatencyTracker.Transition.CAST_DISCONNECT_TO_CONTENT_PLAY);
+      }
+      if (isDisplayedAd()) {
+        mTransitionLatencies.end(TransitionLatencyTracker.Transition.CONTENT_PAUSE_TO_AD_PLAY);
+        mAdProgressTracker.start();
+        mAdCallbacks.onPlay(adMediaInfo);
+      }
+    }
+
+    @Override
+    public void onPause() {
+      record(EventTraceRecorder.PLAYER_PAUSE);
+      publishClock(false);
+      if (isDisplayedAd()) {
+        mAdProgressTracker.stop();
+        mAdCallbacks.onPause(adMediaInfo);
+      }
+    }
+
+    @Override
+    public void onResume() {
+      record(EventTraceRecorder.PLAYER_RESUME);
+      publishClock(true);
+      if (isDisplayedContent()) {
+        mTransitionLatencies.end(TransitionLatencyTracker.Transition.AD_COMPLETE_TO_CONTENT_PLAY);
+        mTransitionLatencies.end(
+            TransitionLatencyTracker.Transition.CAST_DISCONNECT_TO_CONTENT_PLAY);
+      }
+      if (isDisplayedAd()) {
+        mAdProgressTracker.start();
+        mAdCallbacks.onResume(adMediaInfo);
+      }
+    }
+
+    @Override
+    public void onError() {
+      record(EventTraceRecorder.PLAYER_ERROR);
+      mBuffering = false;
+      publishClock(false);
+      mAdLoadStartNanos.remove(mPlayer);
+      if (mPlayer == mVideoPlayer) {
+        mContentLoaded = false;
+        clearContentSeek();
+      }
+      if (isDisplayedContent()) {
+        mTransitionLatencies.cancel(
+            TransitionLatencyTracker.Transition.AD_COMPLETE_TO_CONTENT_PLAY);
+        mTransitionLatencies.cancel(
+            TransitionLatencyTracker.Transition.CAST_DISCONNECT_TO_CONTENT_PLAY);
+      }
+      if (isDisplayedAd()) {
+        // Whatever plays next after a failed ad, its start isn't the transition that was timed.
+        mTransitionLatencies.cancel(TransitionLatencyTracker.Transition.CONTENT_PAUSE_TO_AD_PLAY);
+        mTransitionLatencies.cancel(
+            TransitionLatencyTracker.Transition.AD_COMPLETE_TO_CONTENT_PLAY);
+        mAdProgressTracker.stop();
+        mAdCallbacks.onError(adMediaInfo);
+        return;
+      }
+      // A preloading player can fail before its ad is played.
+      for (Map.Entry<AdMediaInfo, VideoPlayer> loadedAd : mLoadedAds.entrySet()) {
+        if (loadedAd.getValue() == mPlayer) {
+          mAdCallbacks.onError(loadedAd.getKey());
+        }
+      }
+    }
+
+    @Override
+    public void onCompleted() {
+      record(EventTraceRecorder.PLAYER_COMPLETED);
+      mBuffering = false;
+      publishClock(false);
+      if (isDisplayedAd()) {
+        // Each completion restarts the timer, so the sample runs from the last ad of the break.
+        mTransitionLatencies.start(TransitionLatencyTracker.Transition.AD_COMPLETE_TO_CONTENT_PLAY);
+        mAdProgressTracker.stop();
+        mAdCallbacks.onEnded(adMediaInfo);
+      } else if (mPlayer == mVideoPlayer) {
+        // A finished video can't be resumed, so the content has to be loaded again.
+        mContentLoaded = false;
+        contentHasCompleted = true;
+        // Alert an external listener that our content video is complete.
+        mAdCallbacks.onContentComplete();
+      }
+    }
+
+    @Override
+    public void onPositionUpdate(int positionMs, int durationMs) {
+      record(EventTraceRecorder.PLAYER_POSITION_UPDATE, positionMs);
+      publishClock(positionMs, durationMs);
+    }
+
+    @Override
+    public void onSeekCompleted(int positionMs) {
+      record(EventTraceRecorder.PLAYER_SEEK_COMPLETED, positionMs);
+      if (mPlayer == mVideoPlayer && mPlayer == mContentSeekPlayer && mContentSeekTargetMs >= 0) {
+        int targetMs = mContentSeekTargetMs;
+        clearContentSeek();
+        if (Math.abs(positionMs - targetMs) > mSeekToleranceMs) {
+          // The nearest sync frame is too far off, so the content has to be decoded up to it.
+          mPlayer.seekTo(targetMs, VideoPlayer.SeekMode.EXACT);
+          return;
+        }
+      }
+      publishClock(positionMs, getDuration());
+    }
+
+    @Override
+    public void onBufferedPositionUpdate(int bufferedPositionMs) {}
+
+    @Override
+    public void onBufferingStart() {
+      record(EventTraceRecorder.PLAYER_BUFFERING_START);
+      mBuffering = true;
+      publishClock(getPosition(), getDuration());
+      if (isDisplayedAd()) {
+        // Nothing advances while the ad stalls, so progress isn't checked until it continues.
+        mAdProgressTracker.stop();
+      }
+    }
+
+    @Override
+    public void onBufferingEnd() {
+      record(EventTraceRecorder.PLAYER_BUFFERING_END);
+      mBuffering = false;
+      publishClock(getPosition(), getDuration());
+      if (isDisplayedAd() && mPlaying) {
+        mAdProgressTracker.start();
+      }
+    }
   }
 
   /** Set the path of the video to be played as content. */
   public void setContentVideoPath(String contentVideoUrl) {
+    // Transitions started for the previous video, such as after its post-roll, never end.
+    mTransitionLatencies.cancelAll();
     mContentVideoUrl = contentVideoUrl;
+    mContentLoaded = false;
+    clearContentSeek();
+    mContentClock.reset();
     contentHasCompleted = false;
   }
 
@@ -256,7 +898,7 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
    */
   public void savePosition() {
     if (mIsAdDisplayed) {
-      mSavedAdPosition = mVideoPlayer.getCurrentPosition();
+      mSavedAdPosition = mActivePlayer.getCurrentPosition();
     } else {
       mSavedContentPosition = mVideoPlayer.getCurrentPosition();
     }
@@ -268,9 +910,9 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
    */
   public void restorePosition() {
     if (mIsAdDisplayed) {
-      mVideoPlayer.seekTo(mSavedAdPosition);
+      mActivePlayer.seekTo(mSavedAdPosition);
     } else {
-      mVideoPlayer.seekTo(mSavedContentPosition);
+      seekContent(mSavedContentPosition);
     }
   }
 
@@ -288,7 +930,8 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
   public void seek(int time) {
     // Seek only if an ad is not playing. Save the content position either way.
     if (!mIsAdDisplayed) {
-      mVideoPlayer.seekTo(time);
+      seekContent(time);
+      mContentClock.publishPosition(time);
     }
     mSavedContentPosition = time;
   }
@@ -298,7 +941,7 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
     if (mIsAdDisplayed) {
       return mSavedContentPosition;
     } else {
-      return mVideoPlayer.getCurrentPosition();
+      return (int) mContentClock.getPositionMs();
     }
   }
 
@@ -307,9 +950,19 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
    * media controller.
    */
   public void pauseContentForAdPlayback() {
+    mTransitionLatencies.start(TransitionLatencyTracker.Transition.CONTENT_PAUSE_TO_AD_PLAY);
     mVideoPlayer.disablePlaybackControls();
     savePosition();
-    mVideoPlayer.stopPlayback();
+    removeCallbacks(mContentClockSync);
+    mContentClock.publish(mSavedContentPosition, mContentClock.getDurationMs(), false);
+    if (mKeepContentAlive) {
+      // The ads play on another player, so the content only pauses and keeps its buffers.
+      mVideoPlayer.pause();
+    } else {
+      mVideoPlayer.stopPlayback();
+      mContentLoaded = false;
+      clearContentSeek();
+    }
   }
 
   /**
@@ -321,11 +974,28 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
       Log.w("ImaExample", "No content URL specified.");
       return;
     }
+    // Without an ad having played, the break was skipped or failed and there is nothing to time.
+    mTransitionLatencies.cancel(TransitionLatencyTracker.Transition.CONTENT_PAUSE_TO_AD_PLAY);
+    if (contentHasCompleted) {
+      // After a post-roll the content isn't played again, only shown at its end.
+      mTransitionLatencies.cancel(TransitionLatencyTracker.Transition.AD_COMPLETE_TO_CONTENT_PLAY);
+    }
     mIsAdDisplayed = false;
-    mVideoPlayer.setVideoPath(mContentVideoUrl);
+    releaseAdPlayer(mVideoPlayer);
+    setActivePlayer(mVideoPlayer);
     mVideoPlayer.enablePlaybackControls();
-    mVideoPlayer.seekTo(mSavedContentPosition);
-    mVideoPlayer.play();
+    if (mContentLoaded) {
+      // The content player was paused in place, so it only has to be shown again.
+      if (Math.abs(mVideoPlayer.getCurrentPosition() - mSavedContentPosition) > mSeekToleranceMs) {
+        seekContent(mSavedContentPosition);
+      }
+      mVideoPlayer.resume();
+    } else {
+      mVideoPlayer.setVideoPath(mContentVideoUrl);
+      mContentLoaded = true;
+      seekContent(mSavedContentPosition);
+      mVideoPlayer.play();
+    }
 
     if (contentHasCompleted) {
       mVideoPlayer.pause();
@@ -350,4 +1020,47 @@ public class VideoPlayerWithAdPlayback extends RelativeLayout {
   public ContentProgressProvider getContentProgressProvider() {
     return mContentProgressProvider;
   }
+
+  /** Sets a recorder for the VideoAdPlayer callbacks and player events, or null to stop it. */
+  void setEventRecorder(EventTraceRecorder eventRecorder) {
+    if (mEventRecorder != null) {
+      mAdCallbacks.remove(mEventRecorder.getAdPlayerCallback());
+    }
+    mEventRecorder = eventRecorder;
+    if (eventRecorder != null) {
+      mAdCallbacks.add(eventRecorder.getAdPlayerCallback());
+    }
+  }
+
+  /**
+   * Sets whether the player events are replayed from a trace. While replaying, the events of the
+   * live players are ignored, and replayPlayerEvent drives the same handling instead. The players
+   * are still controlled as usual, so a trace should be replayed with the preloading and
+   * keep-alive modes it was recorded with.
+   */
+  void setReplaying(boolean replaying) {
+    if (replaying == mReplaying) {
+      return;
+    }
+    mReplaying = replaying;
+    for (PlayerEventRouter router : mEventRouters) {
+      if (replaying) {
+        router.detach();
+      } else {
+        router.attach();
+      }
+    }
+  }
+
+  /** Handles a recorded event of the player with the given id, while replaying. */
+  void replayPlayerEvent(int playerId, int code, int valueMs) {
+    if (mReplaying && playerId >= 0 && playerId < mEventRouters.size()) {
+      mEventRouters.get(playerId).replay(code, valueMs);
+    }
+  }
+
+  /** Returns the latencies recorded for the transitions between content and ads. */
+  public TransitionLatencyTracker getTransitionLatencies() {
+    return mTransitionLatencies;
+  }
 }
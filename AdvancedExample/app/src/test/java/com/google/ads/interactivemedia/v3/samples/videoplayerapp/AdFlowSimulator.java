@@ -0,0 +1,449 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.FrameLayout;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.player.AdMediaInfo;
+import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
+import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+import com.google.ads.interactivemedia.v3.samples.samplevideoplayer.VideoPlayer;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Drives a VideoPlayerController and its VideoPlayerWithAdPlayback through scripted ad sessions.
+ * The players and the IMA SDK are fakes timed by Robolectric's paused main looper, whose clock only
+ * advances when the simulator idles it, so a session plays out the same way on every run and only
+ * takes the CPU time of the code under test and the fakes. Must be used from a test running with
+ * LooperMode.Mode.PAUSED.
+ */
+final class AdFlowSimulator
+    implements FakeVideoPlayer.Observer, AdEvent.AdEventListener, AdErrorEvent.AdErrorListener {
+
+  static final String AD_TAG_URL = "fake://adtag";
+  static final String CONTENT_URL = "fake://content";
+  static final String AD_URL_PREFIX = "fake://ad/";
+
+  // How far the clock is advanced between checks of whether the session is over.
+  private static final long STEP_MS = 250;
+
+  // Slack added to the scripted length of a session before it is considered stuck.
+  private static final long SESSION_SLACK_MS = 60000;
+
+  // How long the first ad plays before a scripted pause.
+  private static final long PAUSE_AFTER_AD_START_MS = 1000;
+
+  // ThreadMXBean.getThreadAllocatedBytes() of HotSpot, looked up reflectively as the management
+  // classes aren't part of the Android API the tests compile against.
+  private static final Object sThreadMxBean;
+  private static final Method sGetThreadAllocatedBytes;
+
+  static {
+    Object threadMxBean = null;
+    Method getThreadAllocatedBytes = null;
+    try {
+      threadMxBean =
+          Class.forName("java.lang.management.ManagementFactory")
+              .getMethod("getThreadMXBean")
+              .invoke(null);
+      getThreadAllocatedBytes =
+          Class.forName("com.sun.management.ThreadMXBean")
+              .getMethod("getThreadAllocatedBytes", long.class);
+      if (!getThreadAllocatedBytes.getDeclaringClass().isInstance(threadMxBean)) {
+        getThreadAllocatedBytes = null;
+      }
+    } catch (ReflectiveOperationException e) {
+      getThreadAllocatedBytes = null;
+    }
+    sThreadMxBean = threadMxBean;
+    sGetThreadAllocatedBytes = getThreadAllocatedBytes;
+  }
+
+  /** What happened in one session. Latencies are in virtual milliseconds. */
+  static final class SessionResult {
+    final List<AdEvent.AdEventType> adEvents = new ArrayList<AdEvent.AdEventType>();
+
+    // Content position when each break started.
+    final List<Long> contentPositionsAtBreakMs = new ArrayList<Long>();
+
+    // From a break starting to its first ad playing, from an ad completing to the next ad of the
+    // break playing, and from content resuming to it playing.
+    final List<Long> pauseToAdPlayMs = new ArrayList<Long>();
+    final List<Long> adToAdMs = new ArrayList<Long>();
+    final List<Long> resumeToContentPlayMs = new ArrayList<Long>();
+
+    int adErrorCount;
+
+    // Ad events, ad errors, VideoAdPlayer callbacks and player events.
+    int eventCount;
+
+    // Whether content and its ad breaks finished before the session was considered stuck.
+    boolean completed;
+
+    long virtualDurationMs;
+    long wallNanos;
+
+    // Bytes allocated on the main thread during the session, or -1 if the JVM doesn't tell.
+    long allocatedBytes;
+
+    int count(AdEvent.AdEventType type) {
+      int count = 0;
+      for (AdEvent.AdEventType adEvent : adEvents) {
+        if (adEvent == type) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final VideoPlayerWithAdPlayback mPlayer;
+  private final VideoPlayerController mController;
+  private final FakeAdsLoader mAdsLoader;
+
+  private SessionResult mResult;
+  private AdScript mScript;
+  private boolean mContentCompleted;
+  private boolean mAdPauseScheduled;
+
+  // When the pending transitions began, or -1.
+  private long mBreakStartMs = -1;
+  private long mAdCompleteMs = -1;
+  private long mContentResumeMs = -1;
+
+  // When content last started playing, or -1.
+  private long mContentPlayStartedMs = -1;
+
+  private final VideoAdPlayer.VideoAdPlayerCallback mAdPlayerCallback =
+      new VideoAdPlayer.VideoAdPlayerCallback() {
+        @Override
+        public void onPlay(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onPause(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onResume(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onEnded(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onError(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onLoaded(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onBuffering(AdMediaInfo adMediaInfo) {
+          countEvent();
+        }
+
+        @Override
+        public void onContentComplete() {
+          countEvent();
+          mContentCompleted = true;
+        }
+
+        @Override
+        public void onAdProgress(AdMediaInfo adMediaInfo, VideoProgressUpdate progressUpdate) {
+          countEvent();
+        }
+
+        @Override
+        public void onVolumeChanged(AdMediaInfo adMediaInfo, int percentage) {
+          countEvent();
+        }
+      };
+
+  private final Runnable mPauseAd =
+      new Runnable() {
+        @Override
+        public void run() {
+          mController.pause();
+          mHandler.postDelayed(mResumeAd, mScript.pauseDuringAdMs);
+        }
+      };
+
+  private final Runnable mResumeAd =
+      new Runnable() {
+        @Override
+        public void run() {
+          mController.resume();
+        }
+      };
+
+  /**
+   * Builds the player views the way fragment_video.xml lays them out, and a controller loading its
+   * ads from a FakeAdsLoader.
+   */
+  AdFlowSimulator(Context context, boolean preloadingEnabled, boolean keepContentAlive) {
+    FrameLayout root = new FrameLayout(context);
+    mPlayer = new SimulatedVideoPlayerWithAdPlayback(context, this);
+    mPlayer.setId(R.id.videoPlayerWithAdPlayback);
+    FakeVideoPlayer contentPlayer = new FakeVideoPlayer(context);
+    contentPlayer.setId(R.id.videoPlayer);
+    contentPlayer.setObserver(this);
+    mPlayer.addView(contentPlayer);
+    FrameLayout adUiContainer = new FrameLayout(context);
+    adUiContainer.setId(R.id.adUiContainer);
+    mPlayer.addView(adUiContainer);
+    root.addView(mPlayer);
+    View playButton = new View(context);
+    root.addView(playButton);
+    FrameLayout companionAdSlot = new FrameLayout(context);
+    root.addView(companionAdSlot);
+    mPlayer.onFinishInflate();
+    mPlayer.setPreloadingEnabled(preloadingEnabled);
+    mPlayer.setKeepContentAlive(keepContentAlive);
+    mPlayer.getVideoAdPlayer().addCallback(mAdPlayerCallback);
+
+    mAdsLoader = new FakeAdsLoader(mPlayer.getVideoAdPlayer());
+    mAdsLoader.setObservers(this, this);
+    mController =
+        new VideoPlayerController(
+            context,
+            mPlayer,
+            playButton,
+            mPlayer,
+            companionAdSlot,
+            null,
+            mAdsLoader.getAdsLoader());
+  }
+
+  VideoPlayerController getController() {
+    return mController;
+  }
+
+  VideoPlayerWithAdPlayback getPlayer() {
+    return mPlayer;
+  }
+
+  FakeAdsLoader getAdsLoader() {
+    return mAdsLoader;
+  }
+
+  /**
+   * Plays content of the given duration with the ads of a script, until content and its ad breaks
+   * are over or the session is stuck.
+   */
+  SessionResult runSession(AdScript script, int contentDurationMs) {
+    SessionResult result = new SessionResult();
+    mResult = result;
+    mScript = script;
+    mContentCompleted = false;
+    mAdPauseScheduled = false;
+    mBreakStartMs = -1;
+    mAdCompleteMs = -1;
+    mContentResumeMs = -1;
+    mHandler.removeCallbacksAndMessages(null);
+
+    int adCount = script.getFirstAdIndex(script.adsPerBreak.length);
+    long limitMs =
+        contentDurationMs
+            + (long) adCount * script.adDurationMs
+            + script.pauseDuringAdMs
+            + SESSION_SLACK_MS;
+    ShadowLooper looper = shadowOf(Looper.getMainLooper());
+    long startUptimeMs = SystemClock.uptimeMillis();
+    long startAllocatedBytes = getAllocatedBytes();
+    long startNanos = System.nanoTime();
+
+    startContent(script, contentDurationMs);
+    while (!isSessionOver() && SystemClock.uptimeMillis() - startUptimeMs < limitMs) {
+      looper.idleFor(STEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    result.wallNanos = System.nanoTime() - startNanos;
+    long endAllocatedBytes = getAllocatedBytes();
+    result.allocatedBytes =
+        startAllocatedBytes < 0 ? -1 : endAllocatedBytes - startAllocatedBytes;
+    result.virtualDurationMs = SystemClock.uptimeMillis() - startUptimeMs;
+    result.completed = isSessionOver();
+    mHandler.removeCallbacksAndMessages(null);
+    mResult = null;
+    return result;
+  }
+
+  /**
+   * Requests the ads of a script and starts content of the given duration, without waiting for
+   * anything to play.
+   */
+  void startContent(AdScript script, int contentDurationMs) {
+    mAdsLoader.setScript(AD_TAG_URL, script);
+    mController.setContentVideo(FakeVideoPlayer.url(CONTENT_URL, contentDurationMs, false));
+    mController.setAdTagUrl(AD_TAG_URL);
+    mController.requestAndPlayAds(-1);
+  }
+
+  /** Returns when content last started playing, in SystemClock.uptimeMillis() time, or -1. */
+  long getContentPlayStartedMs() {
+    return mContentPlayStartedMs;
+  }
+
+  /**
+   * Replays a trace recorded from a session into the controller, with content of the given
+   * duration as runSession sets it. Returns the finished replayer, or null if the replay was
+   * considered stuck.
+   */
+  EventTraceReplayer replay(byte[] trace, int contentDurationMs) throws IOException {
+    final boolean[] ended = new boolean[1];
+    EventTraceReplayer replayer =
+        new EventTraceReplayer(
+            trace,
+            mController,
+            mPlayer,
+            new EventTraceReplayer.Listener() {
+              @Override
+              public void onReplayedRecord(int source, int code, int arg, int value) {}
+
+              @Override
+              public void onReplayEnded() {
+                ended[0] = true;
+              }
+            });
+    mHandler.removeCallbacksAndMessages(null);
+    mController.setContentVideo(FakeVideoPlayer.url(CONTENT_URL, contentDurationMs, false));
+    mController.setAdTagUrl(AD_TAG_URL);
+    ShadowLooper looper = shadowOf(Looper.getMainLooper());
+    long startUptimeMs = SystemClock.uptimeMillis();
+    replayer.start(1f);
+    long limitMs = contentDurationMs + SESSION_SLACK_MS;
+    while (!ended[0] && SystemClock.uptimeMillis() - startUptimeMs < limitMs) {
+      looper.idleFor(STEP_MS, TimeUnit.MILLISECONDS);
+    }
+    replayer.stop();
+    return ended[0] ? replayer : null;
+  }
+
+  private boolean isSessionOver() {
+    return mContentCompleted && !mAdsLoader.isBreakInProgress() && !mPlayer.getIsAdDisplayed();
+  }
+
+  private void countEvent() {
+    if (mResult != null) {
+      mResult.eventCount++;
+    }
+  }
+
+  @Override
+  public void onAdEvent(AdEvent adEvent) {
+    if (mResult == null) {
+      return;
+    }
+    mResult.eventCount++;
+    mResult.adEvents.add(adEvent.getType());
+    switch (adEvent.getType()) {
+      case CONTENT_PAUSE_REQUESTED:
+        mBreakStartMs = SystemClock.uptimeMillis();
+        mResult.contentPositionsAtBreakMs.add((long) mPlayer.getCurrentContentTime());
+        break;
+      case CONTENT_RESUME_REQUESTED:
+        mBreakStartMs = -1;
+        mAdCompleteMs = -1;
+        mContentResumeMs = SystemClock.uptimeMillis();
+        break;
+      case COMPLETED:
+        mAdCompleteMs = SystemClock.uptimeMillis();
+        break;
+      case STARTED:
+        if (mScript.pauseDuringAdMs > 0 && !mAdPauseScheduled) {
+          mAdPauseScheduled = true;
+          mHandler.postDelayed(mPauseAd, PAUSE_AFTER_AD_START_MS);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void onAdError(AdErrorEvent adErrorEvent) {
+    if (mResult != null) {
+      mResult.eventCount++;
+      mResult.adErrorCount++;
+    }
+  }
+
+  @Override
+  public void onPlayerEvent(FakeVideoPlayer player) {
+    countEvent();
+  }
+
+  @Override
+  public void onPlaybackStarted(FakeVideoPlayer player) {
+    long nowMs = SystemClock.uptimeMillis();
+    String url = player.getUrl();
+    if (url.startsWith(CONTENT_URL)) {
+      mContentPlayStartedMs = nowMs;
+    }
+    if (mResult == null) {
+      return;
+    }
+    if (url.startsWith(AD_URL_PREFIX)) {
+      if (mBreakStartMs >= 0) {
+        mResult.pauseToAdPlayMs.add(nowMs - mBreakStartMs);
+        mBreakStartMs = -1;
+      } else if (mAdCompleteMs >= 0) {
+        mResult.adToAdMs.add(nowMs - mAdCompleteMs);
+      }
+      mAdCompleteMs = -1;
+    } else if (url.startsWith(CONTENT_URL) && mContentResumeMs >= 0) {
+      mResult.resumeToContentPlayMs.add(nowMs - mContentResumeMs);
+      mContentResumeMs = -1;
+    }
+  }
+
+  /** Returns the bytes allocated by the current thread so far, or -1 if the JVM doesn't tell. */
+  static long getAllocatedBytes() {
+    if (sGetThreadAllocatedBytes == null) {
+      return -1;
+    }
+    try {
+      return (Long) sGetThreadAllocatedBytes.invoke(sThreadMxBean, Thread.currentThread().getId());
+    } catch (ReflectiveOperationException e) {
+      return -1;
+    }
+  }
+
+  /** A player whose extra players are fakes reporting to the simulator. */
+  private static final class SimulatedVideoPlayerWithAdPlayback extends VideoPlayerWithAdPlayback {
+    private final FakeVideoPlayer.Observer mObserver;
+
+    SimulatedVideoPlayerWithAdPlayback(Context context, FakeVideoPlayer.Observer observer) {
+      super(context);
+      mObserver = observer;
+    }
+
+    @Override
+    VideoPlayer createExtraPlayer() {
+      FakeVideoPlayer player = new FakeVideoPlayer(getContext());
+      player.setObserver(mObserver);
+      return player;
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.google.ads.interactivemedia.v3.api.AdEvent.AdEventType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+/**
+ * Plays scripted ad sessions through VideoPlayerController and VideoPlayerWithAdPlayback with fake
+ * players and a fake IMA SDK. Latencies are in virtual time, so they only depend on the fakes'
+ * prepare delay and on how the code under test sequences the players.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class AdFlowSimulatorTest {
+
+  private static final int CONTENT_DURATION_MS = 30000;
+
+  private static final long PREPARE_MS = FakeVideoPlayer.PREPARE_DELAY_MS;
+
+  // Number of sessions of the benchmark, set with -DadFlowBenchmark.sessions. The benchmark is
+  // skipped without it, so it doesn't slow down or clutter every test run.
+  private static final int BENCHMARK_SESSIONS = Integer.getInteger("adFlowBenchmark.sessions", 0);
+
+  private static AdFlowSimulator newSimulator(boolean preloadingEnabled, boolean keepContentAlive) {
+    return new AdFlowSimulator(
+        ApplicationProvider.getApplicationContext(), preloadingEnabled, keepContentAlive);
+  }
+
+  @Test
+  public void preroll_playsBeforeContent() {
+    AdFlowSimulator simulator = newSimulator(false, false);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vast(1), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(1, result.count(AdEventType.CONTENT_PAUSE_REQUESTED));
+    assertEquals(1, result.count(AdEventType.STARTED));
+    assertEquals(1, result.count(AdEventType.COMPLETED));
+    assertEquals(1, result.count(AdEventType.ALL_ADS_COMPLETED));
+    assertEquals(Arrays.asList(0L), result.contentPositionsAtBreakMs);
+    // Without spare players, the ad and then the content are each prepared once the other ends.
+    assertEquals(Arrays.asList(PREPARE_MS), result.pauseToAdPlayMs);
+    assertEquals(Arrays.asList(PREPARE_MS), result.resumeToContentPlayMs);
+  }
+
+  @Test
+  public void pod_withoutPreloading_preparesEachAd() {
+    AdFlowSimulator simulator = newSimulator(false, false);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vast(3), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(3, result.count(AdEventType.STARTED));
+    assertEquals(3, result.count(AdEventType.COMPLETED));
+    assertEquals(Arrays.asList(PREPARE_MS, PREPARE_MS), result.adToAdMs);
+  }
+
+  @Test
+  public void pod_withPreloading_startsNextAdsWithoutPrepareGap() {
+    AdFlowSimulator simulator = newSimulator(true, true);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vast(3), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(3, result.count(AdEventType.STARTED));
+    assertEquals(3, result.count(AdEventType.COMPLETED));
+    assertEquals(Arrays.asList(0L, 0L), result.adToAdMs);
+    // The content was prepared on its own player during the last ad.
+    assertEquals(Arrays.asList(0L), result.resumeToContentPlayMs);
+  }
+
+  @Test
+  public void vmap_playsMidrollAtCuePointAndPostrollAfterContent() {
+    AdFlowSimulator simulator = newSimulator(false, true);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vmap(new float[] {10, -1}, 1), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(2, result.count(AdEventType.STARTED));
+    assertEquals(1, result.count(AdEventType.ALL_ADS_COMPLETED));
+    assertEquals(2, result.contentPositionsAtBreakMs.size());
+    long midrollPositionMs = result.contentPositionsAtBreakMs.get(0);
+    assertTrue(
+        "Mid-roll started at " + midrollPositionMs,
+        midrollPositionMs >= 10000
+            && midrollPositionMs < 10000 + FakeAdsManager.CONTENT_POLL_PERIOD_MS);
+    assertEquals(CONTENT_DURATION_MS, (long) result.contentPositionsAtBreakMs.get(1));
+    // Content starts once prepared, and resumes in place after the mid-roll.
+    assertEquals(Arrays.asList(PREPARE_MS, 0L), result.resumeToContentPlayMs);
+  }
+
+  @Test
+  public void lateVmapPreroll_playsOnceItLoads() {
+    AdFlowSimulator simulator = newSimulator(false, true);
+    simulator.getController().setAdRequestTimeoutMs(1000);
+    simulator.getController().setLateAdsPolicy(VideoPlayerController.LateAdsPolicy.PLAY_AS_MIDROLL);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(
+            AdScript.vmap(new float[] {0}, 1).withResponseDelayMs(3000), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(1, result.count(AdEventType.STARTED));
+    assertEquals(1, result.contentPositionsAtBreakMs.size());
+    // Content started at the timeout, and had played until the pre-roll loaded.
+    long breakPositionMs = result.contentPositionsAtBreakMs.get(0);
+    assertTrue("Pre-roll started at " + breakPositionMs, breakPositionMs > 0);
+  }
+
+  @Test
+  public void adRequestError_startsContentWithoutAds() {
+    AdFlowSimulator simulator = newSimulator(false, false);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vast(1).withLoadError(), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(1, result.adErrorCount);
+    assertEquals(0, result.count(AdEventType.CONTENT_PAUSE_REQUESTED));
+  }
+
+  @Test
+  public void adMediaError_resumesContent() {
+    AdFlowSimulator simulator = newSimulator(false, false);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vast(2).withFailingAd(0), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(1, result.adErrorCount);
+    assertEquals(0, result.count(AdEventType.COMPLETED));
+    assertEquals(1, result.count(AdEventType.CONTENT_RESUME_REQUESTED));
+  }
+
+  @Test
+  public void pauseAndResumeDuringAd_finishesTheBreak() {
+    AdFlowSimulator simulator = newSimulator(true, true);
+
+    AdFlowSimulator.SessionResult result =
+        simulator.runSession(AdScript.vast(1).withPauseDuringAd(3000), CONTENT_DURATION_MS);
+
+    assertTrue(result.completed);
+    assertEquals(1, result.count(AdEventType.PAUSED));
+    assertTrue(result.count(AdEventType.RESUMED) >= 1);
+    assertEquals(1, result.count(AdEventType.COMPLETED));
+  }
+
+  @Test
+  public void sessionsOnOneController_allComplete() {
+    AdFlowSimulator simulator = newSimulator(true, true);
+    AdScript[] scripts = getBenchmarkScripts();
+
+    for (AdScript script : scripts) {
+      assertTrue(simulator.runSession(script, CONTENT_DURATION_MS).completed);
+    }
+    assertEquals(scripts.length, simulator.getAdsLoader().getRequestCount());
+  }
+
+  /**
+   * Plays many sessions of mixed scripts on one controller and reports the throughput, the
+   * allocations and the transition latencies of the integration layer. Run it before and after a
+   * change to compare them, with -DadFlowBenchmark.sessions=1000 for example.
+   */
+  @Test
+  public void benchmark() {
+    assumeTrue("Set adFlowBenchmark.sessions to run the benchmark", BENCHMARK_SESSIONS > 0);
+    AdFlowSimulator simulator = newSimulator(true, true);
+    AdScript[] scripts = getBenchmarkScripts();
+    // Let the JIT compile the paths under test before measuring.
+    for (AdScript script : scripts) {
+      simulator.runSession(script, CONTENT_DURATION_MS);
+    }
+    simulator.getPlayer().getTransitionLatencies().reset();
+
+    long eventCount = 0;
+    long wallNanos = 0;
+    long allocatedBytes = 0;
+    long virtualMs = 0;
+    List<Long> pauseToAdPlayMs = new ArrayList<Long>();
+    List<Long> resumeToContentPlayMs = new ArrayList<Long>();
+    for (int i = 0; i < BENCHMARK_SESSIONS; i++) {
+      AdFlowSimulator.SessionResult result =
+          simulator.runSession(scripts[i % scripts.length], CONTENT_DURATION_MS);
+      assertTrue("Session " + i + " did not complete", result.completed);
+      eventCount += result.eventCount;
+      wallNanos += result.wallNanos;
+      allocatedBytes = result.allocatedBytes < 0 ? -1 : allocatedBytes + result.allocatedBytes;
+      virtualMs += result.virtualDurationMs;
+      pauseToAdPlayMs.addAll(result.pauseToAdPlayMs);
+      resumeToContentPlayMs.addAll(result.resumeToContentPlayMs);
+    }
+
+    TransitionLatencyTracker latencies = simulator.getPlayer().getTransitionLatencies();
+    System.out.println(
+        "Ad flow benchmark: "
+            + BENCHMARK_SESSIONS
+            + " sessions, "
+            + virtualMs / 1000
+            + " s simulated in "
+            + wallNanos / 1000000
+            + " ms\n  events/s: "
+            + (eventCount * 1000000000L / Math.max(wallNanos, 1))
+            + "\n  bytes allocated/session: "
+            + (allocatedBytes < 0 ? "unknown" : allocatedBytes / BENCHMARK_SESSIONS)
+            + "\n  content pause to ad play (virtual): "
+            + describe(pauseToAdPlayMs)
+            + "\n  content resume to content play (virtual): "
+            + describe(resumeToContentPlayMs));
+    for (TransitionLatencyTracker.Transition transition :
+        TransitionLatencyTracker.Transition.values()) {
+      System.out.println("  " + transition + " (wall): " + latencies.getHistogram(transition));
+    }
+    assertTrue(eventCount > 0);
+  }
+
+  private static AdScript[] getBenchmarkScripts() {
+    return new AdScript[] {
+      AdScript.vast(1),
+      AdScript.vast(3),
+      AdScript.vmap(new float[] {0, 10, -1}, 2),
+      AdScript.vast(1).withLoadError(),
+      AdScript.vast(2).withFailingAd(1),
+      AdScript.vast(1).withPauseDuringAd(2000)
+    };
+  }
+
+  private static String describe(List<Long> samplesMs) {
+    if (samplesMs.isEmpty()) {
+      return "no samples";
+    }
+    List<Long> sorted = new ArrayList<Long>(samplesMs);
+    Collections.sort(sorted);
+    return "count="
+        + sorted.size()
+        + " p50="
+        + sorted.get(sorted.size() / 2)
+        + "ms p95="
+        + sorted.get(sorted.size() * 95 / 100)
+        + "ms max="
+        + sorted.get(sorted.size() - 1)
+        + "ms";
+  }
+}
@@ -0,0 +1,95 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ad response a FakeAdsLoader returns for an ad tag: either a single VAST ad break started by
+ * AdsManager.start(), or the ad breaks of a VMAP playlist at their cue points.
+ */
+final class AdScript {
+
+  // Cue points in seconds, where 0 is a pre-roll and -1 a post-roll, or empty for VAST.
+  final List<Float> cuePoints;
+
+  // Number of ads in each break, in the order of cuePoints.
+  final int[] adsPerBreak;
+
+  int adDurationMs = 5000;
+  int responseDelayMs = 200;
+
+  // Whether the ad request fails.
+  boolean loadError;
+
+  // Index of the ad, counted across all breaks, whose media fails to load, or -1.
+  int failingAd = -1;
+
+  // How long the ads are paused once the first ad has played for a second, or 0.
+  int pauseDuringAdMs;
+
+  private AdScript(List<Float> cuePoints, int[] adsPerBreak) {
+    this.cuePoints = cuePoints;
+    this.adsPerBreak = adsPerBreak;
+  }
+
+  /** Returns a VAST response with a single break of the given number of ads. */
+  static AdScript vast(int adCount) {
+    return new AdScript(Collections.<Float>emptyList(), new int[] {adCount});
+  }
+
+  /** Returns a VMAP response with breaks of the given number of ads at the given cue points. */
+  static AdScript vmap(float[] cuePoints, int adsPerBreak) {
+    List<Float> cuePointList = new ArrayList<Float>(cuePoints.length);
+    int[] adCounts = new int[cuePoints.length];
+    for (int i = 0; i < cuePoints.length; i++) {
+      cuePointList.add(cuePoints[i]);
+      adCounts[i] = adsPerBreak;
+    }
+    return new AdScript(Collections.unmodifiableList(cuePointList), adCounts);
+  }
+
+  AdScript withLoadError() {
+    loadError = true;
+    return this;
+  }
+
+  AdScript withFailingAd(int adIndex) {
+    failingAd = adIndex;
+    return this;
+  }
+
+  AdScript withPauseDuringAd(int pauseMs) {
+    pauseDuringAdMs = pauseMs;
+    return this;
+  }
+
+  AdScript withResponseDelayMs(int delayMs) {
+    responseDelayMs = delayMs;
+    return this;
+  }
+
+  AdScript withAdDurationMs(int durationMs) {
+    adDurationMs = durationMs;
+    return this;
+  }
+
+  boolean isVmap() {
+    return !cuePoints.isEmpty();
+  }
+
+  /** Returns the index of the first ad of a break, counted across all breaks. */
+  int getFirstAdIndex(int breakIndex) {
+    int adIndex = 0;
+    for (int i = 0; i < breakIndex; i++) {
+      adIndex += adsPerBreak[i];
+    }
+    return adIndex;
+  }
+
+  /** Returns the media URL of an ad. */
+  String getAdUrl(int breakIndex, int adInBreak) {
+    int adIndex = getFirstAdIndex(breakIndex) + adInBreak;
+    return FakeVideoPlayer.url("fake://ad/" + adIndex, adDurationMs, adIndex == failingAd);
+  }
+}
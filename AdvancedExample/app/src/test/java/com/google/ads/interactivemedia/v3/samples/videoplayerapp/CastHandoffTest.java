@@ -0,0 +1,229 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.test.core.app.ApplicationProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+/**
+ * Hands simulated playback over to a loopback Cast receiver and back, through CastApplication. The
+ * receiver runs on the same virtual clock as the fake players, so latencies only depend on the
+ * configured receiver delays and on how the handoff sequences the players.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class CastHandoffTest {
+
+  // Long enough for content to outlast every benchmark session.
+  private static final int CONTENT_DURATION_MS = 24 * 60 * 60 * 1000;
+
+  private static final long LOAD_DELAY_MS = 1000;
+  private static final long AD_DECISION_DELAY_MS = 500;
+  private static final long AD_BREAK_DURATION_MS = 5000;
+
+  // Later than the first progress update of the break, so ad progress arrives before the message.
+  private static final long AD_BREAK_MESSAGE_DELAY_MS = 1200;
+
+  // How long content plays on the receiver before casting stops.
+  private static final long CAST_PLAY_MS = 20000;
+
+  private static final long STEP_MS = 50;
+  private static final long LIMIT_MS = 60000;
+
+  // Number of handoffs of the benchmark, which only runs when set with
+  // -DcastHandoffBenchmark.sessions.
+  private static final int BENCHMARK_SESSIONS =
+      Integer.getInteger("castHandoffBenchmark.sessions", 0);
+
+  /** A video fragment with no view, for the controller of the simulation. */
+  public static final class SimulatedVideoFragment extends VideoFragment {
+    private final VideoPlayerController mController;
+
+    public SimulatedVideoFragment(VideoPlayerController controller) {
+      mController = controller;
+    }
+
+    @Override
+    public VideoPlayerController getVideoPlayerController() {
+      return mController;
+    }
+
+    @Override
+    public boolean isVmap() {
+      // The receiver is asked for ads on every handoff, so each session has an ad break.
+      return true;
+    }
+  }
+
+  private AdFlowSimulator mSimulator;
+  private CastApplication mCastApplication;
+  private LoopbackCastReceiver mReceiver;
+
+  @Before
+  public void setUp() {
+    mSimulator = new AdFlowSimulator(ApplicationProvider.getApplicationContext(), true, true);
+    Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+    mCastApplication = new CastApplication(activity, null);
+    mCastApplication.setVideoFragment(new SimulatedVideoFragment(mSimulator.getController()));
+    mReceiver = new LoopbackCastReceiver(CastMessageCodec.VERSION_1);
+    mReceiver.setLoadDelayMs(LOAD_DELAY_MS);
+    mReceiver.setAdDecisionDelayMs(AD_DECISION_DELAY_MS);
+    mReceiver.setAdBreakDurationMs(AD_BREAK_DURATION_MS);
+    mReceiver.setAdBreakMessageDelayMs(AD_BREAK_MESSAGE_DELAY_MS);
+
+    // Play the pre-roll locally, then some content.
+    mSimulator.startContent(AdScript.vast(1), CONTENT_DURATION_MS);
+    idleUntilContentPlaysAfter(SystemClock.uptimeMillis());
+    idleFor(5000);
+  }
+
+  @Test
+  public void handoff_resumesLocallyWhereTheReceiverLeftOff() {
+    long connectToPlayingMs = connect();
+    assertEquals(LOAD_DELAY_MS, connectToPlayingMs);
+    idleFor(CAST_PLAY_MS);
+    long receiverPositionMs = mReceiver.getContentPositionMs();
+
+    long disconnectToResumeMs = disconnect();
+
+    assertTrue("Resumed after " + disconnectToResumeMs + " ms", disconnectToResumeMs < LIMIT_MS);
+    long localPositionMs = (long) (mSimulator.getController().getCurrentContentTime() * 1000);
+    // The receiver's ad break, and the ad progress reported before its message, don't count.
+    assertTrue(
+        "Local content at " + localPositionMs + " ms, receiver at " + receiverPositionMs + " ms",
+        Math.abs(localPositionMs - receiverPositionMs) <= FakeVideoPlayer.SYNC_FRAME_INTERVAL_MS);
+  }
+
+  @Test
+  public void handoff_receiverVersion0_resumesLocally() {
+    mReceiver = new LoopbackCastReceiver(CastMessageCodec.VERSION_LEGACY);
+    mReceiver.setLoadDelayMs(LOAD_DELAY_MS);
+
+    assertEquals(LOAD_DELAY_MS, connect());
+    idleFor(CAST_PLAY_MS);
+
+    assertTrue(disconnect() < LIMIT_MS);
+  }
+
+  @Test
+  public void mediaLoad_marksStagesInOrder() {
+    connect();
+    idleFor(AD_DECISION_DELAY_MS);
+
+    CastStartupTimings timings = mCastApplication.getStartupTimings();
+    assertEquals(0, timings.getElapsedMs(CastStartupTimings.Stage.MEDIA_LOAD_SENT));
+    assertEquals(LOAD_DELAY_MS, timings.getElapsedMs(CastStartupTimings.Stage.MEDIA_LOADED));
+    assertEquals(LOAD_DELAY_MS, timings.getElapsedMs(CastStartupTimings.Stage.AD_REQUEST_SENT));
+    assertEquals(-1, timings.getElapsedMs(CastStartupTimings.Stage.MEDIA_LOAD_FAILED));
+  }
+
+  /**
+   * Hands playback over to the receiver and back many times, and reports the connect-to-playing
+   * and disconnect-to-resume latencies. Run it before and after a change to compare them.
+   */
+  @Test
+  public void benchmark() {
+    assumeTrue(BENCHMARK_SESSIONS > 0);
+    List<Long> connectToPlayingMs = new ArrayList<Long>();
+    List<Long> disconnectToResumeMs = new ArrayList<Long>();
+    long wallNanos = 0;
+    mSimulator.getController().getTransitionLatencies().reset();
+    for (int i = 0; i < BENCHMARK_SESSIONS; i++) {
+      long startNanos = System.nanoTime();
+      connectToPlayingMs.add(connect());
+      idleFor(CAST_PLAY_MS);
+      disconnectToResumeMs.add(disconnect());
+      wallNanos += System.nanoTime() - startNanos;
+      idleFor(1000);
+    }
+
+    TransitionLatencyTracker.Histogram histogram =
+        mSimulator
+            .getController()
+            .getTransitionLatencies()
+            .getHistogram(TransitionLatencyTracker.Transition.CAST_DISCONNECT_TO_CONTENT_PLAY);
+    System.out.println(
+        "Cast handoff benchmark: "
+            + BENCHMARK_SESSIONS
+            + " sessions in "
+            + wallNanos / 1000000
+            + " ms\n  connect to playing (virtual): "
+            + describe(connectToPlayingMs)
+            + "\n  disconnect to local resume (virtual): "
+            + describe(disconnectToResumeMs)
+            + "\n  disconnect to local resume (wall): "
+            + histogram);
+    assertEquals(BENCHMARK_SESSIONS, histogram.getCount());
+  }
+
+  /**
+   * Starts a session with the loopback receiver, as the Cast framework starts one, and returns how
+   * long the receiver took to start playing.
+   */
+  private long connect() {
+    mCastApplication.onReceiverConnecting();
+    mCastApplication.onReceiverConnected(mReceiver);
+    CastStartupTimings timings = mCastApplication.getStartupTimings();
+    long startMs = SystemClock.uptimeMillis();
+    while (timings.getElapsedMs(CastStartupTimings.Stage.FIRST_FRAME) < 0
+        && SystemClock.uptimeMillis() - startMs < LIMIT_MS) {
+      idleFor(STEP_MS);
+    }
+    return timings.getElapsedMs(CastStartupTimings.Stage.FIRST_FRAME);
+  }
+
+  /**
+   * Ends the session with the loopback receiver, as the Cast framework ends one, and returns how
+   * long content took to play locally again.
+   */
+  private long disconnect() {
+    long startMs = SystemClock.uptimeMillis();
+    mCastApplication.onReceiverDisconnecting();
+    mCastApplication.onReceiverDisconnected();
+    return idleUntilContentPlaysAfter(startMs) - startMs;
+  }
+
+  /** Advances the clock until content starts playing at or after the given time. */
+  private long idleUntilContentPlaysAfter(long sinceMs) {
+    while (mSimulator.getContentPlayStartedMs() < sinceMs
+        && SystemClock.uptimeMillis() - sinceMs < LIMIT_MS) {
+      idleFor(STEP_MS);
+    }
+    return mSimulator.getContentPlayStartedMs();
+  }
+
+  private static void idleFor(long ms) {
+    shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS);
+  }
+
+  private static String describe(List<Long> samplesMs) {
+    List<Long> sorted = new ArrayList<Long>(samplesMs);
+    Collections.sort(sorted);
+    return "count="
+        + sorted.size()
+        + " p50="
+        + sorted.get(sorted.size() / 2)
+        + "ms p95="
+        + sorted.get(sorted.size() * 95 / 100)
+        + "ms max="
+        + sorted.get(sorted.size() - 1)
+        + "ms";
+  }
+}
@@ -0,0 +1,178 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Encodes commands on one side of the Cast channel and decodes them on the other, in both
+ * versions, and checks that malformed messages and unknown commands are ignored.
+ */
+public class CastMessageCodecTest {
+
+  /** Collects the sent messages and the decoded commands, one string each. */
+  private static final class Recorder
+      implements CastMessageCodec.Sender,
+          CastMessageCodec.Receiver,
+          CastMessageCodec.CommandReceiver {
+
+    final List<String> messages = new ArrayList<String>();
+    final List<String> commands = new ArrayList<String>();
+
+    @Override
+    public void sendMessage(String message) {
+      messages.add(message);
+    }
+
+    @Override
+    public void onContentPauseRequested(double contentTimeSec) {
+      commands.add("pause " + contentTimeSec);
+    }
+
+    @Override
+    public void onContentResumeRequested() {
+      commands.add("resume");
+    }
+
+    @Override
+    public void onRequestAd(String adTagUrl, double contentTimeSec) {
+      commands.add("requestAd " + adTagUrl + " " + contentTimeSec);
+    }
+
+    @Override
+    public void onSeek(double contentTimeSec) {
+      commands.add("seek " + contentTimeSec);
+    }
+  }
+
+  private static List<String> decodeCommands(String message) {
+    Recorder recorder = new Recorder();
+    new CastMessageCodec().decodeCommands(message, recorder);
+    return recorder.commands;
+  }
+
+  @Test
+  public void legacy_sendsOneMessagePerCommand() {
+    CastMessageCodec sender = new CastMessageCodec();
+    Recorder recorder = new Recorder();
+
+    sender.requestAd("https://ads.example/tag", 12.5);
+    sender.seek(30);
+    sender.flush(recorder);
+
+    assertEquals(
+        Arrays.asList("requestAd,https://ads.example/tag,12.5", "seek,30.0"), recorder.messages);
+    CastMessageCodec receiver = new CastMessageCodec();
+    for (String message : recorder.messages) {
+      receiver.decodeCommands(message, recorder);
+    }
+    assertEquals(
+        Arrays.asList("requestAd https://ads.example/tag 12.5", "seek 30.0"), recorder.commands);
+    assertEquals(CastMessageCodec.VERSION_LEGACY, receiver.getVersion());
+  }
+
+  @Test
+  public void legacy_requestAdWithCommasInTag_keepsTheWholeTag() {
+    String adTagUrl = "https://ads.example/tag?sz=640x480,320x240&cust_params=a%3D1,b";
+
+    assertEquals(
+        Collections.singletonList("requestAd " + adTagUrl + " 7.25"),
+        decodeCommands("requestAd," + adTagUrl + ",7.25"));
+  }
+
+  @Test
+  public void legacy_requestAdWithoutTime_isIgnored() {
+    assertEquals(Collections.<String>emptyList(), decodeCommands("requestAd,tag"));
+  }
+
+  @Test
+  public void legacy_receiverMessages_areDecoded() {
+    Recorder recorder = new Recorder();
+    CastMessageCodec codec = new CastMessageCodec();
+
+    codec.decode("onContentPauseRequested,42.5", recorder);
+    codec.decode("onContentResumeRequested", recorder);
+
+    assertEquals(Arrays.asList("pause 42.5", "resume"), recorder.commands);
+  }
+
+  @Test
+  public void version1_batchesCommandsIntoOneMessage() {
+    CastMessageCodec sender = new CastMessageCodec();
+    sender.setVersion(CastMessageCodec.VERSION_1);
+    Recorder recorder = new Recorder();
+
+    sender.requestAd("tag,with,commas", 1.5);
+    sender.seek(0.25);
+    sender.flush(recorder);
+
+    assertEquals(
+        Collections.singletonList("#135:9:requestAd15:tag,with,commas4:150011:4:seek3:250"),
+        recorder.messages);
+    CastMessageCodec receiver = new CastMessageCodec();
+    receiver.decodeCommands(recorder.messages.get(0), recorder);
+    assertEquals(Arrays.asList("requestAd tag,with,commas 1.5", "seek 0.25"), recorder.commands);
+    assertEquals(CastMessageCodec.VERSION_1, receiver.getVersion());
+  }
+
+  @Test
+  public void version1_receivedMessage_switchesTheSenderToVersion1() {
+    CastMessageCodec codec = new CastMessageCodec();
+    Recorder recorder = new Recorder();
+    CastMessageCodec receiver = new CastMessageCodec();
+    receiver.setVersion(CastMessageCodec.VERSION_1);
+    receiver.contentPauseRequested(10);
+    receiver.contentResumeRequested();
+    receiver.flush(recorder);
+
+    codec.decode(recorder.messages.get(0), recorder);
+    codec.seek(3);
+    codec.flush(recorder);
+
+    assertEquals(Arrays.asList("pause 10.0", "resume"), recorder.commands);
+    assertEquals(CastMessageCodec.VERSION_1, codec.getVersion());
+    assertEquals("#112:4:seek4:3000", recorder.messages.get(1));
+  }
+
+  @Test
+  public void version1_truncatedFrame_isIgnoredAfterTheFramesBeforeIt() {
+    String seek = "12:4:seek4:3000";
+
+    assertEquals(
+        Collections.singletonList("seek 3.0"), decodeCommands("#1" + seek + "12:4:seek4:30"));
+    assertEquals(Collections.<String>emptyList(), decodeCommands("#113:4:seek4:3000"));
+    assertEquals(Collections.<String>emptyList(), decodeCommands("#111"));
+  }
+
+  @Test
+  public void version1_truncatedField_isIgnored() {
+    assertEquals(Collections.<String>emptyList(), decodeCommands("#112:4:seek9:3000"));
+  }
+
+  @Test
+  public void version1_oversizedLengthPrefix_isIgnored() {
+    assertEquals(
+        Collections.<String>emptyList(), decodeCommands("#19999999999999999999:4:seek4:3000"));
+    assertEquals(Collections.<String>emptyList(), decodeCommands("#12147483648:4:seek4:3000"));
+    assertEquals(Collections.<String>emptyList(), decodeCommands("#1x:4:seek4:3000"));
+  }
+
+  @Test
+  public void unknownCommands_areSkipped() {
+    assertEquals(
+        Collections.singletonList("seek 3.0"),
+        decodeCommands("#112:4:skip4:300012:4:seek4:3000"));
+    assertEquals(Collections.<String>emptyList(), decodeCommands("skip,3.0"));
+    assertEquals(Collections.<String>emptyList(), decodeCommands(""));
+    // Each side ignores the commands meant for the other.
+    assertEquals(Collections.<String>emptyList(), decodeCommands("onContentResumeRequested"));
+    Recorder recorder = new Recorder();
+    new CastMessageCodec().decode("seek,3.0", recorder);
+    assertTrue(recorder.commands.isEmpty());
+  }
+}
@@ -0,0 +1,73 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Feeds receiver progress and ad break messages to the tracker in the orders a session sees. */
+public class CastPositionTrackerTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void progress_whileContentPlays_isTracked() {
+    CastPositionTracker tracker = new CastPositionTracker(null);
+    tracker.setContentPlaying(true);
+
+    tracker.onProgressUpdated(12500, 60000);
+
+    assertTrue(tracker.hasContentTime());
+    assertEquals(12.5, tracker.getContentTimeSec(), DELTA);
+  }
+
+  @Test
+  public void progress_beforeContentPlays_isIgnored() {
+    CastPositionTracker tracker = new CastPositionTracker(null);
+
+    tracker.onProgressUpdated(0, 60000);
+
+    assertFalse(tracker.hasContentTime());
+  }
+
+  @Test
+  public void adProgress_beforeAdBreakMessage_keepsTheContentTime() {
+    CastPositionTracker tracker = new CastPositionTracker(null);
+    tracker.setContentPlaying(true);
+    tracker.onProgressUpdated(30000, 60000);
+
+    // The receiver's status shows the ad before the ad break message arrives.
+    tracker.setContentPlaying(false);
+    tracker.onProgressUpdated(2000, 15000);
+    tracker.onAdBreakStarted(30);
+    tracker.onProgressUpdated(3000, 15000);
+
+    assertEquals(30, tracker.getContentTimeSec(), DELTA);
+  }
+
+  @Test
+  public void progress_afterAdBreak_isTrackedAgain() {
+    CastPositionTracker tracker = new CastPositionTracker(null);
+    tracker.setContentPlaying(true);
+    tracker.onAdBreakStarted(30);
+    tracker.onProgressUpdated(5000, 15000);
+
+    tracker.onAdBreakEnded();
+    tracker.onProgressUpdated(31000, 60000);
+
+    assertEquals(31, tracker.getContentTimeSec(), DELTA);
+  }
+
+  @Test
+  public void reset_forgetsTheContentState() {
+    CastPositionTracker tracker = new CastPositionTracker(null);
+    tracker.setContentPlaying(true);
+    tracker.onProgressUpdated(12500, 60000);
+
+    tracker.reset();
+    tracker.onProgressUpdated(2000, 15000);
+
+    assertFalse(tracker.hasContentTime());
+  }
+}
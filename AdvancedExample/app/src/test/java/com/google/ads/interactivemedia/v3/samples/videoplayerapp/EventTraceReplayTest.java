@@ -0,0 +1,118 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.core.app.ApplicationProvider;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+/**
+ * Records simulated sessions and replays their traces into a fresh controller and player, which
+ * must report the same VideoAdPlayer callbacks to IMA as the recorded session did.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class EventTraceReplayTest {
+
+  private static final int CONTENT_DURATION_MS = 30000;
+
+  private static AdFlowSimulator newSimulator() {
+    return new AdFlowSimulator(ApplicationProvider.getApplicationContext(), false, false);
+  }
+
+  private static byte[] record(AdScript script) {
+    AdFlowSimulator simulator = newSimulator();
+    EventTraceRecorder recorder = new EventTraceRecorder();
+    simulator.getController().setEventRecorder(recorder);
+    assertTrue(simulator.runSession(script, CONTENT_DURATION_MS).completed);
+    return recorder.toByteArray();
+  }
+
+  private static byte[] replay(byte[] trace) throws Exception {
+    AdFlowSimulator simulator = newSimulator();
+    EventTraceRecorder recorder = new EventTraceRecorder();
+    simulator.getController().setEventRecorder(recorder);
+    assertNotNull(simulator.replay(trace, CONTENT_DURATION_MS));
+    return recorder.toByteArray();
+  }
+
+  @Test
+  public void replay_pod_reportsTheRecordedCallbacks() throws Exception {
+    byte[] trace = record(AdScript.vast(2));
+
+    List<String> callbacks = getAdPlayerCallbacks(trace);
+    assertEquals(callbacks, getAdPlayerCallbacks(replay(trace)));
+    assertTrue(callbacks.contains(EventTraceRecorder.AD_PLAYER_ENDED + ":2"));
+    assertTrue(callbacks.contains(EventTraceRecorder.AD_PLAYER_CONTENT_COMPLETE + ":0"));
+  }
+
+  @Test
+  public void replay_adRequestError_startsContent() throws Exception {
+    byte[] trace = record(AdScript.vast(1).withLoadError());
+
+    List<String> callbacks = getAdPlayerCallbacks(trace);
+    assertEquals(callbacks, getAdPlayerCallbacks(replay(trace)));
+    assertTrue(callbacks.contains(EventTraceRecorder.AD_PLAYER_CONTENT_COMPLETE + ":0"));
+  }
+
+  @Test
+  public void replayReport_comparesWithBaseline() throws Exception {
+    byte[] trace = record(AdScript.vast(1));
+    AdFlowSimulator simulator = newSimulator();
+    EventTraceReplayer replayer = simulator.replay(trace, CONTENT_DURATION_MS);
+    assertNotNull(replayer);
+    ReplayReport report =
+        ReplayReport.create(replayer, simulator.getPlayer().getTransitionLatencies());
+    File file = File.createTempFile("replay_report", ".properties");
+    file.deleteOnExit();
+    report.writeTo(file);
+
+    List<String> lines = report.compareTo(ReplayReport.readFrom(file));
+
+    String records = Integer.toString(replayer.getRecordCount());
+    assertEquals("records: " + records + ".0 -> " + records + ".0 (+0.0%)", lines.get(0));
+  }
+
+  /**
+   * Returns the VideoAdPlayer callbacks of a trace as "code:ad id", leaving out progress, volume
+   * and buffering, which are reported on a timer rather than in response to the replayed inputs.
+   */
+  private static List<String> getAdPlayerCallbacks(byte[] trace) {
+    List<String> callbacks = new ArrayList<String>();
+    int[] position = {8};
+    while (position[0] < trace.length) {
+      int source = trace[position[0]++];
+      readVarint(trace, position);
+      int code = (int) readVarint(trace, position);
+      int adId = (int) readVarint(trace, position);
+      readVarint(trace, position);
+      if (source == EventTraceRecorder.SOURCE_AD_PLAYER
+          && code != EventTraceRecorder.AD_PLAYER_PROGRESS
+          && code != EventTraceRecorder.AD_PLAYER_VOLUME_CHANGED
+          && code != EventTraceRecorder.AD_PLAYER_BUFFERING) {
+        callbacks.add(code + ":" + adId);
+      }
+    }
+    return callbacks;
+  }
+
+  private static long readVarint(byte[] buffer, int[] position) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = buffer[position[0]++];
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+}
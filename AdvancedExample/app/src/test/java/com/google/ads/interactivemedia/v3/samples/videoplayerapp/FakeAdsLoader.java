@@ -0,0 +1,182 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.ads.interactivemedia.v3.api.AdError;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.AdsLoader;
+import com.google.ads.interactivemedia.v3.api.AdsManagerLoadedEvent;
+import com.google.ads.interactivemedia.v3.api.AdsRequest;
+import com.google.ads.interactivemedia.v3.api.player.ContentProgressProvider;
+import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An AdsLoader answering each ad request with the AdScript set for its ad tag, after the script's
+ * response delay. Ad tags without a script fail to load. The loaded FakeAdsManagers play their ads
+ * through the given VideoAdPlayer.
+ */
+final class FakeAdsLoader extends FakeInterface {
+
+  private final VideoAdPlayer mVideoAdPlayer;
+  private final AdsLoader mAdsLoader;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Map<String, AdScript> mScripts = new HashMap<String, AdScript>();
+  private final List<AdErrorEvent.AdErrorListener> mErrorListeners =
+      new ArrayList<AdErrorEvent.AdErrorListener>(2);
+  private final List<AdsLoader.AdsLoadedListener> mLoadedListeners =
+      new ArrayList<AdsLoader.AdsLoadedListener>(2);
+  private AdEvent.AdEventListener mEventObserver;
+  private AdErrorEvent.AdErrorListener mErrorObserver;
+
+  private FakeAdsManager mLastAdsManager;
+  private int mRequestCount;
+  private int mContentCompleteCount;
+
+  FakeAdsLoader(VideoAdPlayer videoAdPlayer) {
+    mVideoAdPlayer = videoAdPlayer;
+    mAdsLoader = newProxy(AdsLoader.class, this);
+  }
+
+  AdsLoader getAdsLoader() {
+    return mAdsLoader;
+  }
+
+  /** Sets the response to the requests of an ad tag. */
+  void setScript(String adTagUrl, AdScript script) {
+    mScripts.put(adTagUrl, script);
+  }
+
+  /**
+   * Sets listeners that receive the ad events and errors of the loaded AdsManagers, and the load
+   * errors, before the app does.
+   */
+  void setObservers(
+      AdEvent.AdEventListener eventObserver, AdErrorEvent.AdErrorListener errorObserver) {
+    mEventObserver = eventObserver;
+    mErrorObserver = errorObserver;
+  }
+
+  /** Returns the AdsManager loaded last, or null. */
+  FakeAdsManager getLastAdsManager() {
+    return mLastAdsManager;
+  }
+
+  /** Returns if the AdsManager loaded last is playing an ad break. */
+  boolean isBreakInProgress() {
+    return mLastAdsManager != null && mLastAdsManager.isBreakInProgress();
+  }
+
+  int getRequestCount() {
+    return mRequestCount;
+  }
+
+  int getContentCompleteCount() {
+    return mContentCompleteCount;
+  }
+
+  @Override
+  Object handle(String methodName, Object[] args, Class<?> returnType) {
+    switch (methodName) {
+      case "addAdErrorListener":
+        mErrorListeners.add((AdErrorEvent.AdErrorListener) args[0]);
+        return null;
+      case "removeAdErrorListener":
+        mErrorListeners.remove(args[0]);
+        return null;
+      case "addAdsLoadedListener":
+        mLoadedListeners.add((AdsLoader.AdsLoadedListener) args[0]);
+        return null;
+      case "removeAdsLoadedListener":
+        mLoadedListeners.remove(args[0]);
+        return null;
+      case "requestAds":
+        requestAds((AdsRequest) args[0]);
+        return null;
+      case "contentComplete":
+        mContentCompleteCount++;
+        return null;
+      default:
+        return defaultValue(returnType);
+    }
+  }
+
+  private void requestAds(AdsRequest adsRequest) {
+    mRequestCount++;
+    final AdScript script = mScripts.get(adsRequest.getAdTagUrl());
+    final Object userRequestContext = adsRequest.getUserRequestContext();
+    final ContentProgressProvider contentProgressProvider =
+        adsRequest.getContentProgressProvider();
+    mHandler.postDelayed(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (script == null || script.loadError) {
+              fireLoadError(userRequestContext);
+            } else {
+              fireLoaded(script, contentProgressProvider, userRequestContext);
+            }
+          }
+        },
+        script != null ? script.responseDelayMs : 0);
+  }
+
+  private void fireLoaded(
+      AdScript script,
+      ContentProgressProvider contentProgressProvider,
+      final Object userRequestContext) {
+    final FakeAdsManager adsManager =
+        new FakeAdsManager(
+            script, mVideoAdPlayer, contentProgressProvider, mEventObserver, mErrorObserver);
+    mLastAdsManager = adsManager;
+    AdsManagerLoadedEvent loadedEvent =
+        newProxy(
+            AdsManagerLoadedEvent.class,
+            new FakeInterface() {
+              @Override
+              Object handle(String methodName, Object[] args, Class<?> returnType) {
+                switch (methodName) {
+                  case "getAdsManager":
+                    return adsManager.getAdsManager();
+                  case "getUserRequestContext":
+                    return userRequestContext;
+                  default:
+                    return defaultValue(returnType);
+                }
+              }
+            });
+    for (int i = 0; i < mLoadedListeners.size(); i++) {
+      mLoadedListeners.get(i).onAdsManagerLoaded(loadedEvent);
+    }
+  }
+
+  private void fireLoadError(final Object userRequestContext) {
+    final AdError adError =
+        new AdError(
+            AdError.AdErrorType.LOAD,
+            AdError.AdErrorCode.FAILED_TO_REQUEST_ADS,
+            "Fake ad request failure");
+    AdErrorEvent adErrorEvent =
+        new AdErrorEvent() {
+          @Override
+          public AdError getError() {
+            return adError;
+          }
+
+          @Override
+          public Object getUserRequestContext() {
+            return userRequestContext;
+          }
+        };
+    if (mErrorObserver != null) {
+      mErrorObserver.onAdError(adErrorEvent);
+    }
+    for (int i = 0; i < mErrorListeners.size(); i++) {
+      mErrorListeners.get(i).onAdError(adErrorEvent);
+    }
+  }
+}
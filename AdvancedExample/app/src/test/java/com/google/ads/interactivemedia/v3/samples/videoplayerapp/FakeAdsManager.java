@@ -0,0 +1,524 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.ads.interactivemedia.v3.api.Ad;
+import com.google.ads.interactivemedia.v3.api.AdError;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.AdPodInfo;
+import com.google.ads.interactivemedia.v3.api.AdsManager;
+import com.google.ads.interactivemedia.v3.api.AdsRenderingSettings;
+import com.google.ads.interactivemedia.v3.api.player.AdMediaInfo;
+import com.google.ads.interactivemedia.v3.api.player.ContentProgressProvider;
+import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
+import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An AdsManager playing an AdScript through the app's VideoAdPlayer, the way IMA does for client
+ * side ads: it pauses content for each break, loads and plays its ads one after another, preloads
+ * the next ad when preloading is enabled, polls the content progress for mid-rolls and plays the
+ * post-roll once content completes. Ad events are sent to an optional observer before the
+ * listeners added by the app.
+ */
+final class FakeAdsManager extends FakeInterface {
+
+  // How often the content progress is checked against the mid-roll cue points.
+  static final int CONTENT_POLL_PERIOD_MS = 200;
+
+  private final AdScript mScript;
+  private final VideoAdPlayer mVideoAdPlayer;
+  private final ContentProgressProvider mContentProgressProvider;
+  private final AdEvent.AdEventListener mEventObserver;
+  private final AdErrorEvent.AdErrorListener mErrorObserver;
+  private final AdsManager mAdsManager;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final List<AdEvent.AdEventListener> mEventListeners =
+      new ArrayList<AdEvent.AdEventListener>(2);
+  private final List<AdErrorEvent.AdErrorListener> mErrorListeners =
+      new ArrayList<AdErrorEvent.AdErrorListener>(2);
+
+  private final boolean[] mBreakPlayed;
+  private boolean mPreloading;
+  private boolean mInitialized;
+  private boolean mStarted;
+  private boolean mAllAdsCompleted;
+  private boolean mDestroyed;
+
+  // The break in progress, or -1, and the index in it of the current ad.
+  private int mBreak = -1;
+  private int mAdInBreak;
+
+  // The ad being played, whether it has started, and how many of its quartiles were reached.
+  private AdMediaInfo mCurrentAd;
+  private boolean mCurrentAdStarted;
+  private int mCurrentAdQuartiles;
+
+  // The next ad, if it was loaded ahead of time, and whether its media failed.
+  private AdMediaInfo mNextAd;
+  private boolean mNextAdFailed;
+
+  private final Runnable mInit =
+      new Runnable() {
+        @Override
+        public void run() {
+          onInit();
+        }
+      };
+
+  private final Runnable mContentPoll =
+      new Runnable() {
+        @Override
+        public void run() {
+          pollContent();
+        }
+      };
+
+  private final VideoAdPlayer.VideoAdPlayerCallback mPlayerCallback =
+      new VideoAdPlayer.VideoAdPlayerCallback() {
+        @Override
+        public void onPlay(AdMediaInfo adMediaInfo) {
+          if (adMediaInfo != mCurrentAd) {
+            return;
+          }
+          if (mCurrentAdStarted) {
+            fireEvent(AdEvent.AdEventType.RESUMED);
+            return;
+          }
+          mCurrentAdStarted = true;
+          fireEvent(AdEvent.AdEventType.STARTED);
+          preloadNextAd();
+        }
+
+        @Override
+        public void onPause(AdMediaInfo adMediaInfo) {
+          if (adMediaInfo == mCurrentAd) {
+            fireEvent(AdEvent.AdEventType.PAUSED);
+          }
+        }
+
+        @Override
+        public void onResume(AdMediaInfo adMediaInfo) {
+          if (adMediaInfo == mCurrentAd) {
+            fireEvent(AdEvent.AdEventType.RESUMED);
+          }
+        }
+
+        @Override
+        public void onEnded(AdMediaInfo adMediaInfo) {
+          if (adMediaInfo == mCurrentAd) {
+            onCurrentAdEnded();
+          }
+        }
+
+        @Override
+        public void onError(AdMediaInfo adMediaInfo) {
+          if (adMediaInfo == mCurrentAd) {
+            failCurrentAd();
+          } else if (adMediaInfo == mNextAd) {
+            mNextAdFailed = true;
+          }
+        }
+
+        @Override
+        public void onLoaded(AdMediaInfo adMediaInfo) {}
+
+        @Override
+        public void onBuffering(AdMediaInfo adMediaInfo) {}
+
+        @Override
+        public void onContentComplete() {
+          onContentCompleted();
+        }
+
+        @Override
+        public void onAdProgress(AdMediaInfo adMediaInfo, VideoProgressUpdate progressUpdate) {
+          if (adMediaInfo != mCurrentAd || progressUpdate.getDurationMs() <= 0) {
+            return;
+          }
+          long quartiles = progressUpdate.getCurrentTimeMs() * 4 / progressUpdate.getDurationMs();
+          while (mCurrentAdQuartiles < Math.min(quartiles, 3) && !mDestroyed) {
+            mCurrentAdQuartiles++;
+            fireEvent(
+                mCurrentAdQuartiles == 1
+                    ? AdEvent.AdEventType.FIRST_QUARTILE
+                    : mCurrentAdQuartiles == 2
+                        ? AdEvent.AdEventType.MIDPOINT
+                        : AdEvent.AdEventType.THIRD_QUARTILE);
+          }
+        }
+
+        @Override
+        public void onVolumeChanged(AdMediaInfo adMediaInfo, int percentage) {}
+      };
+
+  FakeAdsManager(
+      AdScript script,
+      VideoAdPlayer videoAdPlayer,
+      ContentProgressProvider contentProgressProvider,
+      AdEvent.AdEventListener eventObserver,
+      AdErrorEvent.AdErrorListener errorObserver) {
+    mScript = script;
+    mVideoAdPlayer = videoAdPlayer;
+    mContentProgressProvider = contentProgressProvider;
+    mEventObserver = eventObserver;
+    mErrorObserver = errorObserver;
+    mBreakPlayed = new boolean[script.adsPerBreak.length];
+    mAdsManager = newProxy(AdsManager.class, this);
+  }
+
+  AdsManager getAdsManager() {
+    return mAdsManager;
+  }
+
+  boolean isBreakInProgress() {
+    return mBreak >= 0 && !mDestroyed;
+  }
+
+  boolean isDestroyed() {
+    return mDestroyed;
+  }
+
+  @Override
+  Object handle(String methodName, Object[] args, Class<?> returnType) {
+    switch (methodName) {
+      case "addAdEventListener":
+        mEventListeners.add((AdEvent.AdEventListener) args[0]);
+        return null;
+      case "removeAdEventListener":
+        mEventListeners.remove(args[0]);
+        return null;
+      case "addAdErrorListener":
+        mErrorListeners.add((AdErrorEvent.AdErrorListener) args[0]);
+        return null;
+      case "removeAdErrorListener":
+        mErrorListeners.remove(args[0]);
+        return null;
+      case "init":
+        init(args != null && args.length > 0 ? (AdsRenderingSettings) args[0] : null);
+        return null;
+      case "start":
+        start();
+        return null;
+      case "pause":
+        if (mCurrentAd != null) {
+          mVideoAdPlayer.pauseAd(mCurrentAd);
+        }
+        return null;
+      case "resume":
+        if (mCurrentAd != null) {
+          mVideoAdPlayer.playAd(mCurrentAd);
+        }
+        return null;
+      case "destroy":
+        destroy();
+        return null;
+      case "getAdCuePoints":
+        return mScript.cuePoints;
+      default:
+        return defaultValue(returnType);
+    }
+  }
+
+  private void init(AdsRenderingSettings adsRenderingSettings) {
+    if (mInitialized || mDestroyed) {
+      return;
+    }
+    mInitialized = true;
+    mPreloading = adsRenderingSettings != null && adsRenderingSettings.getEnablePreloading();
+    if (adsRenderingSettings != null && adsRenderingSettings.getPlayAdsAfterTime() > 0) {
+      // Like IMA, skip the breaks that start before the play-ads-after time.
+      for (int i = 0; i < mBreakPlayed.length; i++) {
+        float cuePoint = mScript.cuePoints.get(i);
+        if (cuePoint >= 0 && cuePoint < adsRenderingSettings.getPlayAdsAfterTime()) {
+          mBreakPlayed[i] = true;
+        }
+      }
+    }
+    mVideoAdPlayer.addCallback(mPlayerCallback);
+    mHandler.post(mInit);
+  }
+
+  private void onInit() {
+    if (mScript.isVmap()) {
+      // IMA starts a VMAP playlist by itself.
+      mStarted = true;
+      int preroll = mScript.cuePoints.indexOf(0f);
+      if (preroll >= 0 && !mBreakPlayed[preroll]) {
+        playBreak(preroll);
+      } else {
+        fireEvent(AdEvent.AdEventType.CONTENT_RESUME_REQUESTED);
+        scheduleContentPoll();
+      }
+    } else {
+      if (mPreloading) {
+        mNextAd = loadAd(0, 0);
+      }
+      // The app starts the ads of a VAST response from this event.
+      fireEvent(AdEvent.AdEventType.LOADED);
+    }
+  }
+
+  private void start() {
+    if (mStarted || mDestroyed) {
+      return;
+    }
+    mStarted = true;
+    playBreak(0);
+  }
+
+  private void playBreak(int breakIndex) {
+    mHandler.removeCallbacks(mContentPoll);
+    mBreak = breakIndex;
+    mBreakPlayed[breakIndex] = true;
+    mAdInBreak = -1;
+    fireEvent(AdEvent.AdEventType.CONTENT_PAUSE_REQUESTED);
+    if (!mDestroyed) {
+      playNextAd();
+    }
+  }
+
+  private void playNextAd() {
+    mAdInBreak++;
+    if (mAdInBreak >= mScript.adsPerBreak[mBreak]) {
+      endBreak();
+      return;
+    }
+    boolean failed = mNextAdFailed;
+    boolean preloaded = mNextAd != null;
+    mCurrentAd = preloaded ? mNextAd : loadAd(mBreak, mAdInBreak);
+    mCurrentAdStarted = false;
+    mCurrentAdQuartiles = 0;
+    mNextAd = null;
+    mNextAdFailed = false;
+    if (failed) {
+      failCurrentAd();
+      return;
+    }
+    if (!preloaded) {
+      fireEvent(AdEvent.AdEventType.LOADED);
+      if (mDestroyed) {
+        return;
+      }
+    }
+    mVideoAdPlayer.playAd(mCurrentAd);
+  }
+
+  private void preloadNextAd() {
+    if (!mPreloading
+        || mDestroyed
+        || mNextAd != null
+        || mBreak < 0
+        || mAdInBreak + 1 >= mScript.adsPerBreak[mBreak]) {
+      return;
+    }
+    mNextAd = loadAd(mBreak, mAdInBreak + 1);
+    fireEvent(AdEvent.AdEventType.LOADED);
+  }
+
+  private AdMediaInfo loadAd(int breakIndex, int adInBreak) {
+    AdMediaInfo adMediaInfo = new AdMediaInfo(mScript.getAdUrl(breakIndex, adInBreak));
+    mVideoAdPlayer.loadAd(adMediaInfo, newAdPodInfo(breakIndex, adInBreak));
+    return adMediaInfo;
+  }
+
+  private AdPodInfo newAdPodInfo(final int breakIndex, final int adInBreak) {
+    return newProxy(
+        AdPodInfo.class,
+        new FakeInterface() {
+          @Override
+          Object handle(String methodName, Object[] args, Class<?> returnType) {
+            switch (methodName) {
+              case "getAdPosition":
+                return adInBreak + 1;
+              case "getTotalAds":
+                return mScript.adsPerBreak[breakIndex];
+              default:
+                return defaultValue(returnType);
+            }
+          }
+        });
+  }
+
+  private void onCurrentAdEnded() {
+    AdMediaInfo adMediaInfo = mCurrentAd;
+    mCurrentAd = null;
+    fireEvent(AdEvent.AdEventType.COMPLETED);
+    if (mDestroyed) {
+      return;
+    }
+    mVideoAdPlayer.stopAd(adMediaInfo);
+    playNextAd();
+  }
+
+  /** Reports the failure of the current ad and abandons the rest of its break. */
+  private void failCurrentAd() {
+    AdMediaInfo adMediaInfo = mCurrentAd;
+    mCurrentAd = null;
+    fireError(
+        new AdError(
+            AdError.AdErrorType.PLAY, AdError.AdErrorCode.VIDEO_PLAY_ERROR, "Fake media error"));
+    if (mDestroyed) {
+      return;
+    }
+    mVideoAdPlayer.stopAd(adMediaInfo);
+    if (mNextAd != null) {
+      mVideoAdPlayer.stopAd(mNextAd);
+      mNextAd = null;
+      mNextAdFailed = false;
+    }
+    endBreak();
+  }
+
+  private void endBreak() {
+    mBreak = -1;
+    fireEvent(AdEvent.AdEventType.CONTENT_RESUME_REQUESTED);
+    if (mDestroyed) {
+      return;
+    }
+    if (allBreaksPlayed()) {
+      completeAllAds();
+    } else {
+      scheduleContentPoll();
+    }
+  }
+
+  private boolean allBreaksPlayed() {
+    for (boolean breakPlayed : mBreakPlayed) {
+      if (!breakPlayed) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void completeAllAds() {
+    if (!mAllAdsCompleted) {
+      mAllAdsCompleted = true;
+      fireEvent(AdEvent.AdEventType.ALL_ADS_COMPLETED);
+    }
+  }
+
+  private void scheduleContentPoll() {
+    mHandler.removeCallbacks(mContentPoll);
+    mHandler.postDelayed(mContentPoll, CONTENT_POLL_PERIOD_MS);
+  }
+
+  /** Plays the latest mid-roll the content has reached, skipping any earlier ones it passed. */
+  private void pollContent() {
+    long contentTimeMs = mContentProgressProvider.getContentProgress().getCurrentTimeMs();
+    int dueBreak = -1;
+    for (int i = 0; i < mBreakPlayed.length; i++) {
+      float cuePoint = mScript.cuePoints.get(i);
+      if (cuePoint > 0 && !mBreakPlayed[i] && cuePoint * 1000 <= contentTimeMs) {
+        if (dueBreak >= 0) {
+          mBreakPlayed[dueBreak] = true;
+        }
+        dueBreak = i;
+      }
+    }
+    if (dueBreak >= 0) {
+      playBreak(dueBreak);
+    } else {
+      mHandler.postDelayed(mContentPoll, CONTENT_POLL_PERIOD_MS);
+    }
+  }
+
+  private void onContentCompleted() {
+    if (!mScript.isVmap() || mBreak >= 0 || mDestroyed) {
+      return;
+    }
+    mHandler.removeCallbacks(mContentPoll);
+    int postroll = mScript.cuePoints.indexOf(-1f);
+    for (int i = 0; i < mBreakPlayed.length; i++) {
+      if (i != postroll) {
+        mBreakPlayed[i] = true;
+      }
+    }
+    if (postroll >= 0 && !mBreakPlayed[postroll]) {
+      playBreak(postroll);
+    } else {
+      completeAllAds();
+    }
+  }
+
+  private void destroy() {
+    if (mDestroyed) {
+      return;
+    }
+    mDestroyed = true;
+    mBreak = -1;
+    mHandler.removeCallbacksAndMessages(null);
+    if (!mInitialized) {
+      return;
+    }
+    mVideoAdPlayer.removeCallback(mPlayerCallback);
+    if (mCurrentAd != null) {
+      mVideoAdPlayer.stopAd(mCurrentAd);
+      mCurrentAd = null;
+    }
+    if (mNextAd != null) {
+      mVideoAdPlayer.stopAd(mNextAd);
+      mNextAd = null;
+    }
+    mVideoAdPlayer.release();
+  }
+
+  private void fireEvent(AdEvent.AdEventType type) {
+    AdEvent adEvent = new FakeAdEvent(type);
+    if (mEventObserver != null) {
+      mEventObserver.onAdEvent(adEvent);
+    }
+    for (int i = 0; i < mEventListeners.size(); i++) {
+      mEventListeners.get(i).onAdEvent(adEvent);
+    }
+  }
+
+  private void fireError(final AdError adError) {
+    AdErrorEvent adErrorEvent =
+        new AdErrorEvent() {
+          @Override
+          public AdError getError() {
+            return adError;
+          }
+
+          @Override
+          public Object getUserRequestContext() {
+            return null;
+          }
+        };
+    if (mErrorObserver != null) {
+      mErrorObserver.onAdError(adErrorEvent);
+    }
+    for (int i = 0; i < mErrorListeners.size(); i++) {
+      mErrorListeners.get(i).onAdError(adErrorEvent);
+    }
+  }
+
+  /** An ad event that carries only its type. */
+  private static final class FakeAdEvent implements AdEvent {
+    private final AdEventType mType;
+
+    FakeAdEvent(AdEventType type) {
+      mType = type;
+    }
+
+    @Override
+    public AdEventType getType() {
+      return mType;
+    }
+
+    @Override
+    public Ad getAd() {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getAdData() {
+      return null;
+    }
+  }
+}
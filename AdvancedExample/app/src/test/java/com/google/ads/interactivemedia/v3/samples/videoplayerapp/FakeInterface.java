@@ -0,0 +1,68 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of the fakes of IMA SDK interfaces. A fake is a dynamic proxy, so it only implements the
+ * methods the app calls, and answers any other method of the SDK version in use with a default.
+ */
+abstract class FakeInterface implements InvocationHandler {
+
+  /** Returns a proxy implementing the interface with the given handler. */
+  static <T> T newProxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(
+        Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+
+  @Override
+  public final Object invoke(Object proxy, Method method, Object[] args) {
+    if (method.getDeclaringClass() == Object.class) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return getClass().getSimpleName();
+      }
+    }
+    return handle(method.getName(), args, method.getReturnType());
+  }
+
+  /**
+   * Handles a call to the faked interface. Methods the fake doesn't implement return
+   * defaultValue(returnType).
+   */
+  abstract Object handle(String methodName, Object[] args, Class<?> returnType);
+
+  /** Returns zero, false, an empty collection or null, depending on the type. */
+  static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == float.class) {
+      return 0f;
+    } else if (type == double.class) {
+      return 0d;
+    } else if (type == short.class) {
+      return (short) 0;
+    } else if (type == byte.class) {
+      return (byte) 0;
+    } else if (type == char.class) {
+      return (char) 0;
+    } else if (type == List.class) {
+      return Collections.emptyList();
+    } else if (type == Map.class) {
+      return Collections.emptyMap();
+    }
+    return null;
+  }
+}
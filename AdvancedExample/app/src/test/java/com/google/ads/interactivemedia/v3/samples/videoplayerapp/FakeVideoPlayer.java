@@ -0,0 +1,365 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import com.google.ads.interactivemedia.v3.samples.samplevideoplayer.PlaybackReportingVideoPlayer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A video player that decodes nothing and advances with the main looper's clock. The duration of a
+ * video, and whether it fails to prepare, are read from its URL as built by url(). Other URLs fail
+ * to prepare, like media no player can load. Callbacks follow SampleVideoPlayer: play(), resume()
+ * and pause() notify right away, and playback starts once the video is prepared.
+ */
+class FakeVideoPlayer extends View implements PlaybackReportingVideoPlayer {
+
+  /** Observes the players of a simulation. */
+  interface Observer {
+    /** Called for each event a player notifies its callbacks and listeners of. */
+    void onPlayerEvent(FakeVideoPlayer player);
+
+    /** Called when a player starts advancing through its video. */
+    void onPlaybackStarted(FakeVideoPlayer player);
+  }
+
+  // How long a video takes to prepare, and a seek to complete.
+  static final int PREPARE_DELAY_MS = 150;
+  static final int SEEK_DELAY_MS = 50;
+
+  // Distance between the sync frames of every video.
+  static final int SYNC_FRAME_INTERVAL_MS = 2000;
+
+  private static final String DURATION_PARAMETER = "durationMs=";
+  private static final String FAIL_PARAMETER = "&fail";
+
+  private static final int IDLE = 0;
+  private static final int PREPARING = 1;
+  private static final int READY = 2;
+  private static final int COMPLETED = 3;
+  private static final int FAILED = 4;
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final List<PlayerCallback> mCallbacks = new ArrayList<PlayerCallback>(2);
+  private final List<PlaybackListener> mPlaybackListeners = new ArrayList<PlaybackListener>(2);
+  private int mUpdatePeriodMs = Integer.MAX_VALUE;
+  private Observer mObserver;
+
+  private String mUrl;
+  private int mDurationMs;
+  private boolean mFails;
+  private int mState = IDLE;
+
+  // Whether playback was requested, and whether the position is advancing.
+  private boolean mPlaying;
+  private boolean mAdvancing;
+
+  // Position at mAnchorUptimeMs while advancing, and the position otherwise.
+  private int mPositionMs;
+  private long mAnchorUptimeMs;
+
+  // Whether a seek made while preparing is reported once prepared.
+  private boolean mSeekPending;
+
+  private final Runnable mPrepare =
+      new Runnable() {
+        @Override
+        public void run() {
+          onPrepareDone();
+        }
+      };
+
+  private final Runnable mComplete =
+      new Runnable() {
+        @Override
+        public void run() {
+          mAdvancing = false;
+          mPlaying = false;
+          mPositionMs = mDurationMs;
+          mState = COMPLETED;
+          mHandler.removeCallbacks(mPositionUpdate);
+          notifyObserver();
+          for (int i = 0; i < mCallbacks.size(); i++) {
+            mCallbacks.get(i).onCompleted();
+          }
+        }
+      };
+
+  private final Runnable mPositionUpdate =
+      new Runnable() {
+        @Override
+        public void run() {
+          notifyObserver();
+          int positionMs = getCurrentPosition();
+          for (int i = 0; i < mPlaybackListeners.size(); i++) {
+            mPlaybackListeners.get(i).onPositionUpdate(positionMs, mDurationMs);
+          }
+          mHandler.postDelayed(this, mUpdatePeriodMs);
+        }
+      };
+
+  private final Runnable mSeekComplete =
+      new Runnable() {
+        @Override
+        public void run() {
+          notifyObserver();
+          int positionMs = getCurrentPosition();
+          for (int i = 0; i < mPlaybackListeners.size(); i++) {
+            mPlaybackListeners.get(i).onSeekCompleted(positionMs);
+          }
+        }
+      };
+
+  FakeVideoPlayer(Context context) {
+    super(context);
+  }
+
+  /** Returns the URL of a fake video with the given duration, which fails to prepare if asked. */
+  static String url(String base, int durationMs, boolean fails) {
+    return base + "?" + DURATION_PARAMETER + durationMs + (fails ? FAIL_PARAMETER : "");
+  }
+
+  void setObserver(Observer observer) {
+    mObserver = observer;
+  }
+
+  /** Returns the URL of the current video, or null if the player is stopped. */
+  String getUrl() {
+    return mUrl;
+  }
+
+  /** Returns if the player is advancing through its video. */
+  boolean isAdvancing() {
+    return mAdvancing;
+  }
+
+  @Override
+  public void setVideoPath(String videoUrl) {
+    cancelPending();
+    mUrl = videoUrl;
+    int durationIndex = videoUrl.indexOf(DURATION_PARAMETER);
+    if (durationIndex >= 0) {
+      int durationStart = durationIndex + DURATION_PARAMETER.length();
+      int durationEnd = durationStart;
+      while (durationEnd < videoUrl.length() && Character.isDigit(videoUrl.charAt(durationEnd))) {
+        durationEnd++;
+      }
+      mDurationMs = Integer.parseInt(videoUrl.substring(durationStart, durationEnd));
+      mFails = videoUrl.endsWith(FAIL_PARAMETER);
+    } else {
+      mDurationMs = 0;
+      mFails = true;
+    }
+    mState = PREPARING;
+    mPlaying = false;
+    mAdvancing = false;
+    mPositionMs = 0;
+    mSeekPending = false;
+    mHandler.postDelayed(mPrepare, PREPARE_DELAY_MS);
+  }
+
+  private void onPrepareDone() {
+    String url = mUrl;
+    notifyObserver();
+    if (mFails) {
+      mState = FAILED;
+      mPlaying = false;
+      for (int i = 0; i < mCallbacks.size(); i++) {
+        mCallbacks.get(i).onError();
+      }
+      return;
+    }
+    mState = READY;
+    for (int i = 0; i < mPlaybackListeners.size(); i++) {
+      mPlaybackListeners.get(i).onPrepared(mDurationMs);
+    }
+    if (url != mUrl || mState != READY) {
+      // A callback loaded another video or stopped the player.
+      return;
+    }
+    if (mSeekPending) {
+      mSeekPending = false;
+      mHandler.postDelayed(mSeekComplete, SEEK_DELAY_MS);
+    }
+    if (mPlaying) {
+      startAdvancing();
+    }
+  }
+
+  @Override
+  public void play() {
+    requestPlayback();
+    notifyObserver();
+    for (int i = 0; i < mCallbacks.size(); i++) {
+      mCallbacks.get(i).onPlay();
+    }
+  }
+
+  @Override
+  public void resume() {
+    requestPlayback();
+    notifyObserver();
+    for (int i = 0; i < mCallbacks.size(); i++) {
+      mCallbacks.get(i).onResume();
+    }
+  }
+
+  private void requestPlayback() {
+    if (mState == IDLE || mState == COMPLETED || mState == FAILED) {
+      // Like SampleVideoPlayer, a finished video isn't restarted.
+      return;
+    }
+    mPlaying = true;
+    if (mState == READY && !mAdvancing) {
+      startAdvancing();
+    }
+  }
+
+  @Override
+  public void pause() {
+    if (mAdvancing) {
+      stopAdvancing();
+    }
+    mPlaying = false;
+    notifyObserver();
+    for (int i = 0; i < mCallbacks.size(); i++) {
+      mCallbacks.get(i).onPause();
+    }
+  }
+
+  private void startAdvancing() {
+    resumeAdvancing();
+    if (mObserver != null) {
+      mObserver.onPlaybackStarted(this);
+    }
+  }
+
+  private void resumeAdvancing() {
+    mAdvancing = true;
+    mAnchorUptimeMs = SystemClock.uptimeMillis();
+    mHandler.postDelayed(mComplete, Math.max(mDurationMs - mPositionMs, 0));
+    if (!mPlaybackListeners.isEmpty()) {
+      mHandler.postDelayed(mPositionUpdate, mUpdatePeriodMs);
+    }
+  }
+
+  private void stopAdvancing() {
+    mPositionMs = getCurrentPosition();
+    mAdvancing = false;
+    mHandler.removeCallbacks(mComplete);
+    mHandler.removeCallbacks(mPositionUpdate);
+  }
+
+  @Override
+  public int getCurrentPosition() {
+    if (!mAdvancing) {
+      return mPositionMs;
+    }
+    long positionMs = mPositionMs + SystemClock.uptimeMillis() - mAnchorUptimeMs;
+    return (int) Math.min(positionMs, mDurationMs);
+  }
+
+  @Override
+  public void seekTo(int videoPosition) {
+    // Like MediaPlayer.seekTo(int), land on the sync frame before the position.
+    seekTo(videoPosition, SeekMode.PREVIOUS_SYNC);
+  }
+
+  @Override
+  public void seekTo(int videoPosition, SeekMode seekMode) {
+    if (mState == IDLE || mState == FAILED) {
+      return;
+    }
+    int positionMs = Math.max(videoPosition, 0);
+    if (seekMode == SeekMode.CLOSEST_SYNC) {
+      positionMs =
+          (positionMs + SYNC_FRAME_INTERVAL_MS / 2)
+              / SYNC_FRAME_INTERVAL_MS
+              * SYNC_FRAME_INTERVAL_MS;
+    } else if (seekMode == SeekMode.PREVIOUS_SYNC) {
+      positionMs = positionMs / SYNC_FRAME_INTERVAL_MS * SYNC_FRAME_INTERVAL_MS;
+    }
+    positionMs = Math.min(positionMs, mDurationMs);
+    boolean advancing = mAdvancing;
+    if (advancing) {
+      stopAdvancing();
+    }
+    mPositionMs = positionMs;
+    if (mState == COMPLETED) {
+      mState = READY;
+    }
+    if (advancing) {
+      resumeAdvancing();
+    }
+    mHandler.removeCallbacks(mSeekComplete);
+    if (mState == READY) {
+      mHandler.postDelayed(mSeekComplete, SEEK_DELAY_MS);
+    } else {
+      mSeekPending = true;
+    }
+  }
+
+  @Override
+  public int getDuration() {
+    return mState == READY || mState == COMPLETED ? mDurationMs : 0;
+  }
+
+  @Override
+  public int getVolume() {
+    return 100;
+  }
+
+  @Override
+  public void stopPlayback() {
+    cancelPending();
+    mUrl = null;
+    mState = IDLE;
+    mPlaying = false;
+    mAdvancing = false;
+    mPositionMs = 0;
+    mSeekPending = false;
+  }
+
+  private void cancelPending() {
+    mHandler.removeCallbacks(mPrepare);
+    mHandler.removeCallbacks(mComplete);
+    mHandler.removeCallbacks(mPositionUpdate);
+    mHandler.removeCallbacks(mSeekComplete);
+  }
+
+  private void notifyObserver() {
+    if (mObserver != null) {
+      mObserver.onPlayerEvent(this);
+    }
+  }
+
+  @Override
+  public void disablePlaybackControls() {}
+
+  @Override
+  public void enablePlaybackControls() {}
+
+  @Override
+  public void addPlayerCallback(PlayerCallback callback) {
+    mCallbacks.add(callback);
+  }
+
+  @Override
+  public void removePlayerCallback(PlayerCallback callback) {
+    mCallbacks.remove(callback);
+  }
+
+  @Override
+  public void addPlaybackListener(PlaybackListener listener, int updatePeriodMs) {
+    mPlaybackListeners.add(listener);
+    mUpdatePeriodMs = Math.min(mUpdatePeriodMs, updatePeriodMs);
+  }
+
+  @Override
+  public void removePlaybackListener(PlaybackListener listener) {
+    mPlaybackListeners.remove(listener);
+  }
+}
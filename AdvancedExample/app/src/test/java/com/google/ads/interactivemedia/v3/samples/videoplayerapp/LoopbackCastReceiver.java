@@ -0,0 +1,271 @@
+package com.google.ads.interactivemedia.v3.samples.videoplayerapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaLoadOptions;
+import com.google.android.gms.cast.MediaStatus;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.Status;
+
+/**
+ * An in-process stand-in for a Cast receiver, so the sender's handoff can be exercised and timed
+ * without a Cast device. It loads media after a load delay and plays it on the main looper's clock,
+ * answers requestAd like the receiver app does, by pausing content for an ad break after an ad
+ * decision delay and resuming it when the break ends, and moves its content on seek. Like a real
+ * receiver, it reports ad progress while a break plays, and reports the break in its media status
+ * before the break's message arrives. Everything is delivered on the main thread.
+ */
+final class LoopbackCastReceiver implements CastReceiverConnection {
+
+  // Default time from a load request until the media plays.
+  private static final long DEFAULT_LOAD_DELAY_MS = 1000;
+
+  // Default time from requestAd until the ad break starts.
+  private static final long DEFAULT_AD_DECISION_DELAY_MS = 500;
+
+  // Default length of an ad break.
+  private static final long DEFAULT_AD_BREAK_DURATION_MS = 10000;
+
+  // Default time from the media status showing an ad break to the break's message arriving.
+  private static final long DEFAULT_AD_BREAK_MESSAGE_DELAY_MS = 200;
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final CastMessageCodec mCodec = new CastMessageCodec();
+
+  private long mLoadDelayMs = DEFAULT_LOAD_DELAY_MS;
+  private long mAdDecisionDelayMs = DEFAULT_AD_DECISION_DELAY_MS;
+  private long mAdBreakDurationMs = DEFAULT_AD_BREAK_DURATION_MS;
+  private long mAdBreakMessageDelayMs = DEFAULT_AD_BREAK_MESSAGE_DELAY_MS;
+
+  private Listener mListener;
+  private long mProgressPeriodMs;
+
+  // The pending load, and where its content starts.
+  private LoadCallback mLoadCallback;
+  private long mLoadPositionMs;
+  private long mDurationMs = -1;
+
+  // Whether content is loaded, and whether an ad break is playing instead of it.
+  private boolean mLoaded;
+  private boolean mAdPlaying;
+
+  // Content position at mContentAnchorMs while content plays, and the position otherwise.
+  private long mContentPositionMs;
+  private long mContentAnchorMs;
+
+  // When the current ad break started.
+  private long mAdBreakStartMs;
+
+  private final Runnable mLoadDone =
+      new Runnable() {
+        @Override
+        public void run() {
+          LoadCallback callback = mLoadCallback;
+          mLoadCallback = null;
+          mLoaded = true;
+          mAdPlaying = false;
+          mContentPositionMs = mLoadPositionMs;
+          mContentAnchorMs = SystemClock.uptimeMillis();
+          if (callback != null) {
+            callback.onLoadResult(new Status(CommonStatusCodes.SUCCESS));
+          }
+          notifyMediaStatus();
+          if (mListener != null) {
+            mHandler.removeCallbacks(mProgressUpdate);
+            mHandler.postDelayed(mProgressUpdate, mProgressPeriodMs);
+          }
+        }
+      };
+
+  private final Runnable mStartAdBreak =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (!mLoaded) {
+            return;
+          }
+          mContentPositionMs = getContentPositionMs();
+          mAdPlaying = true;
+          mAdBreakStartMs = SystemClock.uptimeMillis();
+          notifyMediaStatus();
+          mHandler.postDelayed(mSendAdBreakStarted, mAdBreakMessageDelayMs);
+          mHandler.postDelayed(mEndAdBreak, mAdBreakDurationMs);
+        }
+      };
+
+  private final Runnable mSendAdBreakStarted =
+      new Runnable() {
+        @Override
+        public void run() {
+          mCodec.contentPauseRequested(mContentPositionMs / 1000.0);
+          mCodec.flush(mMessageSink);
+        }
+      };
+
+  private final Runnable mEndAdBreak =
+      new Runnable() {
+        @Override
+        public void run() {
+          mHandler.removeCallbacks(mSendAdBreakStarted);
+          mAdPlaying = false;
+          mContentAnchorMs = SystemClock.uptimeMillis();
+          mCodec.contentResumeRequested();
+          mCodec.flush(mMessageSink);
+          notifyMediaStatus();
+        }
+      };
+
+  private final Runnable mProgressUpdate =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (mListener != null) {
+            mListener.onProgressUpdated(getApproximateStreamPosition(), getStreamDuration());
+          }
+          mHandler.postDelayed(this, mProgressPeriodMs);
+        }
+      };
+
+  // Delivers the receiver's messages to the sender, like Cast.MessageReceivedCallback would.
+  private final CastMessageCodec.Sender mMessageSink =
+      new CastMessageCodec.Sender() {
+        @Override
+        public void sendMessage(String message) {
+          if (mListener != null) {
+            mListener.onMessageReceived(message);
+          }
+        }
+      };
+
+  private final CastMessageCodec.CommandReceiver mCommandReceiver =
+      new CastMessageCodec.CommandReceiver() {
+        @Override
+        public void onRequestAd(String adTagUrl, double contentTimeSec) {
+          cancelAdBreak();
+          mHandler.postDelayed(mStartAdBreak, mAdDecisionDelayMs);
+        }
+
+        @Override
+        public void onSeek(double contentTimeSec) {
+          mContentPositionMs = Math.round(contentTimeSec * 1000);
+          mContentAnchorMs = SystemClock.uptimeMillis();
+        }
+      };
+
+  /**
+   * Creates a receiver that replies in the given protocol version. Replying in version 1 switches
+   * the sender to version 1, as a real receiver would.
+   */
+  LoopbackCastReceiver(int version) {
+    mCodec.setVersion(version);
+  }
+
+  /** Sets the time from a load request until the media plays. */
+  void setLoadDelayMs(long loadDelayMs) {
+    mLoadDelayMs = loadDelayMs;
+  }
+
+  /** Sets the time from requestAd until the ad break starts. */
+  void setAdDecisionDelayMs(long adDecisionDelayMs) {
+    mAdDecisionDelayMs = adDecisionDelayMs;
+  }
+
+  /** Sets the length of the ad breaks. */
+  void setAdBreakDurationMs(long adBreakDurationMs) {
+    mAdBreakDurationMs = adBreakDurationMs;
+  }
+
+  /** Sets the time from the media status showing an ad break to the break's message arriving. */
+  void setAdBreakMessageDelayMs(long adBreakMessageDelayMs) {
+    mAdBreakMessageDelayMs = adBreakMessageDelayMs;
+  }
+
+  /** Returns if an ad break is playing. */
+  boolean isAdPlaying() {
+    return mAdPlaying;
+  }
+
+  /** Returns the content position in milliseconds, which holds still during ad breaks. */
+  long getContentPositionMs() {
+    if (!mLoaded || mAdPlaying) {
+      return mContentPositionMs;
+    }
+    return mContentPositionMs + SystemClock.uptimeMillis() - mContentAnchorMs;
+  }
+
+  @Override
+  public void connect(Listener listener, long progressPeriodMs) {
+    mListener = listener;
+    mProgressPeriodMs = progressPeriodMs;
+    notifyMediaStatus();
+    if (mLoaded) {
+      mHandler.removeCallbacks(mProgressUpdate);
+      mHandler.postDelayed(mProgressUpdate, mProgressPeriodMs);
+    }
+  }
+
+  /** Stops playing, as a receiver app does when the sender leaves, and cancels what is pending. */
+  @Override
+  public void disconnect() {
+    mListener = null;
+    mLoadCallback = null;
+    mLoaded = false;
+    mAdPlaying = false;
+    mHandler.removeCallbacks(mLoadDone);
+    mHandler.removeCallbacks(mProgressUpdate);
+    cancelAdBreak();
+  }
+
+  @Override
+  public boolean load(
+      MediaInfo mediaInfo, MediaLoadOptions mediaLoadOptions, LoadCallback callback) {
+    cancelAdBreak();
+    mHandler.removeCallbacks(mLoadDone);
+    mLoaded = false;
+    mAdPlaying = false;
+    mLoadCallback = callback;
+    mLoadPositionMs = mediaLoadOptions.getPlayPosition();
+    mDurationMs = mediaInfo.getStreamDuration();
+    mHandler.postDelayed(mLoadDone, mLoadDelayMs);
+    return true;
+  }
+
+  /** Receives a message from the sender. */
+  @Override
+  public void sendMessage(String message) {
+    int version = mCodec.getVersion();
+    mCodec.decodeCommands(message, mCommandReceiver);
+    // Keep replying in the configured version, even to a sender that hasn't switched yet.
+    mCodec.setVersion(version);
+  }
+
+  /** Returns the position of the ad break while one plays, and the content position otherwise. */
+  @Override
+  public long getApproximateStreamPosition() {
+    return mAdPlaying ? SystemClock.uptimeMillis() - mAdBreakStartMs : getContentPositionMs();
+  }
+
+  @Override
+  public long getStreamDuration() {
+    return mAdPlaying ? mAdBreakDurationMs : mDurationMs;
+  }
+
+  private void notifyMediaStatus() {
+    if (mListener != null) {
+      mListener.onMediaStatusUpdated(
+          mLoaded ? MediaStatus.PLAYER_STATE_PLAYING : MediaStatus.PLAYER_STATE_IDLE, mAdPlaying);
+    }
+  }
+
+  private void cancelAdBreak() {
+    mHandler.removeCallbacks(mStartAdBreak);
+    mHandler.removeCallbacks(mSendAdBreakStarted);
+    mHandler.removeCallbacks(mEndAdBreak);
+    if (mAdPlaying) {
+      mAdPlaying = false;
+      mContentAnchorMs = SystemClock.uptimeMillis();
+    }
+  }
+}
@@ -25,8 +25,6 @@ import com.google.android.exoplayer2.analytics.AnalyticsListener;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.ProgressiveMediaSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Takes control of audio playback from the AudioPlayerService to play some ads and then returns
@@ -44,7 +42,7 @@ public final class ImaService
   private final Context context;
   private final AudioPlayerService.SharedAudioPlayer sharedAudioPlayer;
   private final Player exoPlayer;
-  private final List<VideoAdPlayerCallback> callbacks;
+  private final VideoAdPlayerCallbackRegistry callbacks;
   private final ImaSdkFactory sdkFactory;
   private final ImaSdkSettings imaSdkSettings;
   private final DefaultDataSourceFactory dataSourceFactory;
@@ -58,7 +56,7 @@ public final class ImaService
     this.context = context;
     this.sharedAudioPlayer = sharedAudioPlayer;
     this.exoPlayer = sharedAudioPlayer.getPlayer();
-    this.callbacks = new ArrayList<>();
+    this.callbacks = new VideoAdPlayerCallbackRegistry();
     this.sdkFactory = ImaSdkFactory.getInstance();
     this.imaSdkSettings = ImaSdkFactory.getInstance().createImaSdkSettings();
     this.dataSourceFactory = dataSourceFactory;
@@ -141,14 +139,10 @@ public final class ImaService
       String url = adMediaInfo.getUrl();
       progressTracker.start();
       if (currentAd == adMediaInfo) {
-        for (VideoAdPlayerCallback callback : callbacks) {
-          callback.onResume(adMediaInfo);
-        }
+        callbacks.onResume(adMediaInfo);
       } else {
         currentAd = adMediaInfo;
-        for (VideoAdPlayerCallback callback : callbacks) {
-          callback.onPlay(adMediaInfo);
-        }
+        callbacks.onPlay(adMediaInfo);
         MediaSource mediaSource =
             new ProgressiveMediaSource.Factory(dataSourceFactory).createMediaSource(Uri.parse(url));
         sharedAudioPlayer.prepare(mediaSource);
@@ -160,9 +154,7 @@ public final class ImaService
     public void pauseAd(AdMediaInfo adMediaInfo) {
       exoPlayer.setPlayWhenReady(false);
       progressTracker.stop();
-      for (VideoAdPlayerCallback callback : callbacks) {
-        callback.onPause(adMediaInfo);
-      }
+      callbacks.onPause(adMediaInfo);
     }
 
     @Override
@@ -197,9 +189,7 @@ public final class ImaService
     }
 
     void sendProgressUpdate() {
-      for (VideoAdPlayerCallback callback : callbacks) {
-        callback.onAdProgress(currentAd, getAdProgress());
-      }
+      callbacks.onAdProgress(currentAd, getAdProgress());
     }
 
     @Override
@@ -223,14 +213,10 @@ public final class ImaService
       }
       switch (playbackState) {
         case Player.STATE_BUFFERING:
-          for (VideoAdPlayerCallback callback : callbacks) {
-            callback.onBuffering(currentAd);
-          }
+          callbacks.onBuffering(currentAd);
           break;
         case Player.STATE_READY:
-          for (VideoAdPlayerCallback callback : callbacks) {
-            callback.onLoaded(currentAd);
-          }
+          callbacks.onLoaded(currentAd);
           break;
         case Player.STATE_ENDED:
           // Handles when the media item in the source is completed.
@@ -243,9 +229,7 @@ public final class ImaService
   }
 
   private void notifyEnded() {
-    for (VideoAdPlayerCallback callback : callbacks) {
-      callback.onEnded(currentAd);
-    }
+    callbacks.onEnded(currentAd);
   }
 
   static class ImaProgressTracker implements Handler.Callback {
@@ -0,0 +1,162 @@
+package com.google.ads.interactivemedia.v3.samples.audioplayerexample;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.ads.interactivemedia.v3.api.player.AdMediaInfo;
+import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer.VideoAdPlayerCallback;
+import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+
+/**
+ * Holds the callbacks registered with a VideoAdPlayer and dispatches ad events to them on the main
+ * thread. Callbacks may be added and removed from any thread. Every change publishes a new array,
+ * and each dispatch iterates over the array it started with, so dispatching on the main thread
+ * doesn't allocate and is unaffected by concurrent changes.
+ */
+final class VideoAdPlayerCallbackRegistry {
+
+  private static final VideoAdPlayerCallback[] NO_CALLBACKS = new VideoAdPlayerCallback[0];
+
+  private static final int PLAY = 0;
+  private static final int PAUSE = 1;
+  private static final int RESUME = 2;
+  private static final int ENDED = 3;
+  private static final int ERROR = 4;
+  private static final int LOADED = 5;
+  private static final int BUFFERING = 6;
+  private static final int CONTENT_COMPLETE = 7;
+  private static final int AD_PROGRESS = 8;
+  private static final int VOLUME_CHANGED = 9;
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Object lock = new Object();
+  private volatile VideoAdPlayerCallback[] callbacks = NO_CALLBACKS;
+
+  /** Registers a callback. Registering the same callback twice has no effect. */
+  void add(VideoAdPlayerCallback callback) {
+    synchronized (lock) {
+      VideoAdPlayerCallback[] current = callbacks;
+      for (int i = 0; i < current.length; i++) {
+        if (current[i] == callback) {
+          return;
+        }
+      }
+      VideoAdPlayerCallback[] updated = new VideoAdPlayerCallback[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      updated[current.length] = callback;
+      callbacks = updated;
+    }
+  }
+
+  /** Unregisters a callback. Dispatches already in progress may still reach it once. */
+  void remove(VideoAdPlayerCallback callback) {
+    synchronized (lock) {
+      VideoAdPlayerCallback[] current = callbacks;
+      for (int i = 0; i < current.length; i++) {
+        if (current[i] == callback) {
+          VideoAdPlayerCallback[] updated =
+              current.length == 1 ? NO_CALLBACKS : new VideoAdPlayerCallback[current.length - 1];
+          System.arraycopy(current, 0, updated, 0, i);
+          System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+          callbacks = updated;
+          return;
+        }
+      }
+    }
+  }
+
+  void onPlay(AdMediaInfo adMediaInfo) {
+    dispatch(PLAY, adMediaInfo, null, 0);
+  }
+
+  void onPause(AdMediaInfo adMediaInfo) {
+    dispatch(PAUSE, adMediaInfo, null, 0);
+  }
+
+  void onResume(AdMediaInfo adMediaInfo) {
+    dispatch(RESUME, adMediaInfo, null, 0);
+  }
+
+  void onEnded(AdMediaInfo adMediaInfo) {
+    dispatch(ENDED, adMediaInfo, null, 0);
+  }
+
+  void onError(AdMediaInfo adMediaInfo) {
+    dispatch(ERROR, adMediaInfo, null, 0);
+  }
+
+  void onLoaded(AdMediaInfo adMediaInfo) {
+    dispatch(LOADED, adMediaInfo, null, 0);
+  }
+
+  void onBuffering(AdMediaInfo adMediaInfo) {
+    dispatch(BUFFERING, adMediaInfo, null, 0);
+  }
+
+  void onContentComplete() {
+    dispatch(CONTENT_COMPLETE, null, null, 0);
+  }
+
+  void onAdProgress(AdMediaInfo adMediaInfo, VideoProgressUpdate progressUpdate) {
+    dispatch(AD_PROGRESS, adMediaInfo, progressUpdate, 0);
+  }
+
+  void onVolumeChanged(AdMediaInfo adMediaInfo, int percentage) {
+    dispatch(VOLUME_CHANGED, adMediaInfo, null, percentage);
+  }
+
+  private void dispatch(
+      final int event,
+      final AdMediaInfo adMediaInfo,
+      final VideoProgressUpdate progressUpdate,
+      final int volume) {
+    if (Looper.myLooper() != mainHandler.getLooper()) {
+      // Events raised on other threads are delivered in order on the main thread.
+      mainHandler.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              dispatch(event, adMediaInfo, progressUpdate, volume);
+            }
+          });
+      return;
+    }
+    VideoAdPlayerCallback[] snapshot = callbacks;
+    for (int i = 0; i < snapshot.length; i++) {
+      VideoAdPlayerCallback callback = snapshot[i];
+      switch (event) {
+        case PLAY:
+          callback.onPlay(adMediaInfo);
+          break;
+        case PAUSE:
+          callback.onPause(adMediaInfo);
+          break;
+        case RESUME:
+          callback.onResume(adMediaInfo);
+          break;
+        case ENDED:
+          callback.onEnded(adMediaInfo);
+          break;
+        case ERROR:
+          callback.onError(adMediaInfo);
+          break;
+        case LOADED:
+          callback.onLoaded(adMediaInfo);
+          break;
+        case BUFFERING:
+          callback.onBuffering(adMediaInfo);
+          break;
+        case CONTENT_COMPLETE:
+          callback.onContentComplete();
+          break;
+        case AD_PROGRESS:
+          callback.onAdProgress(adMediaInfo, progressUpdate);
+          break;
+        case VOLUME_CHANGED:
+          callback.onVolumeChanged(adMediaInfo, volume);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+}